@@ -0,0 +1,25 @@
+package com.wyattk.appframe.bench;
+
+import com.wyattk.appframe.HeadlessContext;
+
+/**
+ * Headless OpenGL context, for benchmarks that need to create shaders
+ * The benchmarks themselves only measure CPU work, the context is there because a Shader can't exist without one
+ * Works without a display (Mesa's llvmpipe is enough), so the benchmarks can run on build servers
+ */
+final class BenchContext implements AutoCloseable {
+
+    private final HeadlessContext context = new HeadlessContext(16, 16);
+
+    /**
+     * Creates the context & makes it current on the calling thread
+     */
+    BenchContext() {
+        context.create();
+    }
+
+    @Override
+    public void close() {
+        context.cleanup();
+    }
+}
@@ -0,0 +1,72 @@
+package com.wyattk.appframe.bench;
+
+import com.wyattk.appframe.util.Color;
+
+/**
+ * Mesh data for the benchmarks, generated the same way every run so results can be compared
+ */
+final class BenchMeshes {
+
+    private BenchMeshes() {}
+
+    /**
+     * Makes a flat-ish square grid of vertices, two triangles per cell, with a bit of height so normals aren't all equal
+     * @param vertexCount is roughly how many vertices the grid should have (rounded to a square)
+     * @return the positions of the grid, 3 floats per vertex
+     */
+    static float[] gridPositions(int vertexCount) {
+        int side = side(vertexCount);
+        float[] positions = new float[side * side * 3];
+        for(int z = 0; z < side; z++) {
+            for(int x = 0; x < side; x++) {
+                int v = (z * side + x) * 3;
+                positions[v] = x;
+                positions[v + 1] = (float) Math.sin(x * 0.37) * (float) Math.cos(z * 0.21);
+                positions[v + 2] = z;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @param vertexCount is roughly how many vertices the grid has, the same as given to gridPositions
+     * @return the indices of the grid's triangles
+     */
+    static int[] gridIndices(int vertexCount) {
+        int side = side(vertexCount);
+        int[] indices = new int[(side - 1) * (side - 1) * 6];
+        int i = 0;
+        for(int z = 0; z < side - 1; z++) {
+            for(int x = 0; x < side - 1; x++) {
+                int v = z * side + x;
+                indices[i++] = v;
+                indices[i++] = v + side;
+                indices[i++] = v + 1;
+                indices[i++] = v + 1;
+                indices[i++] = v + side;
+                indices[i++] = v + side + 1;
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * @param count is the number of colors to make
+     * @return an array of (repeating) colors
+     */
+    static Color[] colors(int count) {
+        Color[] palette = {Color.RED, Color.GREEN, Color.BLUE, Color.WHITE, Color.PURPLE};
+        Color[] colors = new Color[count];
+        for(int x = 0; x < count; x++)
+            colors[x] = palette[x % palette.length];
+        return colors;
+    }
+
+    /**
+     * @param vertexCount is roughly how many vertices the grid should have
+     * @return the number of vertices along each side of the grid
+     */
+    private static int side(int vertexCount) {
+        return Math.max(2, (int) Math.round(Math.sqrt(vertexCount)));
+    }
+}
@@ -0,0 +1,69 @@
+package com.wyattk.appframe.bench;
+
+import com.wyattk.appframe.glsl.mat.Mat4;
+import com.wyattk.appframe.glsl.vec.Vec3;
+import com.wyattk.appframe.glsl.vec.Vec4;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The boxed glsl vector & matrix types: creation, swizzle access & element access
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GlslTypesBenchmark {
+
+    private float value = 1.25f;
+    private Vec3 vec3;
+    private Vec4 vec4;
+    private Mat4 mat4;
+
+    @Setup
+    public void setup() {
+        vec3 = new Vec3(1f, 2f, 3f);
+        vec4 = new Vec4(1f, 2f, 3f, 4f);
+        mat4 = new Mat4(Mat4.IDENTITY.get());
+    }
+
+    @Benchmark
+    public Vec3 newVec3() {
+        return new Vec3(value, value, value);
+    }
+
+    @Benchmark
+    public Mat4 newMat4() {
+        return new Mat4(mat4.get());
+    }
+
+    @Benchmark
+    public float vec3Swizzle() {
+        vec3.set('y', value);
+        return vec3.get('x') + vec3.get('y') + vec3.get('z');
+    }
+
+    @Benchmark
+    public void vec4Set(Blackhole bh) {
+        vec4.set(value, value, value, value);
+        bh.consume(vec4);
+    }
+
+    @Benchmark
+    public float mat4Trace() {
+        float trace = 0;
+        for(int x = 0; x < 4; x++)
+            trace += mat4.get(x, x);
+        return trace;
+    }
+
+    @Benchmark
+    public void mat4SetColumn(Blackhole bh) {
+        mat4.set(3, 0f, 0f, value, 1f);
+        bh.consume(mat4);
+    }
+}
@@ -0,0 +1,89 @@
+package com.wyattk.appframe.bench;
+
+import com.wyattk.appframe.util.Logger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logger throughput, both the cost of a disabled call and of handing a message to the writer thread
+ * Output goes to a stream that drops everything, so this measures the logger rather than the terminal
+ * With BLOCK the callers are held to the writer's pace (formatting & printing), with DROP they only pay for the
+ *   ring buffer, and messages the writer can't keep up with are dropped
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggerBenchmark {
+
+    @Param({"false", "true"})
+    public boolean enabled;
+
+    @Param({"BLOCK", "DROP"})
+    public Logger.Overflow overflow;
+
+    private PrintStream out, err;
+    private int count = 0;
+
+    @Setup
+    public void setup() {
+        out = System.out;
+        err = System.err;
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(discard);
+        System.setErr(discard);
+        // each fork is a new JVM, so the logger starts disabled
+        Logger.setOverflow(overflow);
+        if(enabled)
+            Logger.enable();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Logger.flush();
+        System.setOut(out);
+        System.setErr(err);
+    }
+
+    @Benchmark
+    public void log() {
+        Logger.log("Frame " + count++ + " done");
+    }
+
+    @Benchmark
+    public void logParameterized() {
+        Logger.log("Frame {} done", this);
+    }
+
+    @Benchmark
+    public void logSupplier() {
+        Logger.log(() -> "Frame " + count++ + " done");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logContended() {
+        Logger.log("Frame done");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logContendedParameterized() {
+        Logger.log("Frame {} done", this);
+    }
+
+    @Benchmark
+    public void verbDisabled() {
+        Logger.verb("Cleaning " + this + "...");
+    }
+
+    @Benchmark
+    public void verbDisabledParameterized() {
+        Logger.verb("Cleaning {}...", this);
+    }
+}
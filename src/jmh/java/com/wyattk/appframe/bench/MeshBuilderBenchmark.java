@@ -0,0 +1,66 @@
+package com.wyattk.appframe.bench;
+
+import com.wyattk.appframe.mesh.Mesh;
+import com.wyattk.appframe.mesh.MeshBuilder;
+import com.wyattk.appframe.shader.PassThroughShader;
+import com.wyattk.appframe.shader.Shader;
+import com.wyattk.appframe.util.Color;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building meshes on the CPU: color conversion, the whole of MeshBuilder.build, and the static data packing
+ *   Mesh.useShader does (build includes it, useShader alone isolates it)
+ * Needs an OpenGL context for the shader, nothing is sent to the gpu
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MeshBuilderBenchmark {
+
+    @Param({"64", "4096", "262144"})
+    public int vertexCount;
+
+    private BenchContext context;
+    private Shader shader;
+    private float[] positions;
+    private int[] indices;
+    private Color[] colors;
+    private Mesh mesh;
+
+    @Setup
+    public void setup() {
+        context = new BenchContext();
+        shader = PassThroughShader.get();
+        positions = BenchMeshes.gridPositions(vertexCount);
+        indices = BenchMeshes.gridIndices(vertexCount);
+        colors = BenchMeshes.colors(positions.length / 3);
+        mesh = new MeshBuilder().setPositions(positions).setIndices(indices).setColors(colors).useShader(shader).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        shader.cleanup();
+        context.close();
+    }
+
+    @Benchmark
+    public MeshBuilder setColors() {
+        return new MeshBuilder().setColors(colors);
+    }
+
+    @Benchmark
+    public Mesh build() {
+        return new MeshBuilder().setPositions(positions).setIndices(indices).setColors(colors).useShader(shader).build();
+    }
+
+    @Benchmark
+    public Mesh useShader() {
+        mesh.useShader(shader);
+        return mesh;
+    }
+}
@@ -0,0 +1,41 @@
+package com.wyattk.appframe.bench;
+
+import com.wyattk.appframe.mesh.MeshTools;
+import com.wyattk.appframe.util.Color;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normal calculation & color array filling, both run for every mesh built
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MeshToolsBenchmark {
+
+    @Param({"64", "4096", "262144"})
+    public int vertexCount;
+
+    private float[] positions;
+    private int[] indices;
+
+    @Setup
+    public void setup() {
+        positions = BenchMeshes.gridPositions(vertexCount);
+        indices = BenchMeshes.gridIndices(vertexCount);
+    }
+
+    @Benchmark
+    public float[] calculateNormals() {
+        return MeshTools.calculateNormals(positions, indices);
+    }
+
+    @Benchmark
+    public float[] getMeshColorArray() {
+        return MeshTools.getMeshColorArray(positions.length / 3, Color.ORANGE);
+    }
+}
@@ -0,0 +1,91 @@
+package com.wyattk.appframe.bench;
+
+import com.wyattk.appframe.util.NativeAllocator;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Native allocation throughput of each allocator backend, doing what preparing a mesh upload does: allocate a buffer
+ *   per attribute & one for the indices, fill them, free them
+ * The contended benchmarks run it on several threads at once, like the worker pool preparing many meshes, which is
+ *   where the system allocator's locks show up. Each fork is a new JVM, so the backend is picked before anything is
+ *   allocated. Needs no OpenGL context
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NativeAllocatorBenchmark {
+
+    @Param({"SYSTEM", "JEMALLOC", "RPMALLOC"})
+    public NativeAllocator.Backend backend;
+
+    @Param({"64", "4096"})
+    public int vertexCount;
+
+    private float[] positions, colors;
+    private int[] indices;
+
+    @Setup
+    public void setup() {
+        if(!NativeAllocator.select(backend))
+            throw new IllegalStateException("Could not select " + backend);
+        positions = BenchMeshes.gridPositions(vertexCount);
+        indices = BenchMeshes.gridIndices(vertexCount);
+        colors = new float[positions.length / 3 * 4];
+    }
+
+    /**
+     * Attaches each benchmark thread to the allocator, like the worker threads are
+     */
+    @State(Scope.Thread)
+    public static class Worker {
+        @Setup
+        public void attach(NativeAllocatorBenchmark benchmark) {
+            NativeAllocator.attachThread();
+        }
+
+        @TearDown
+        public void detach() {
+            NativeAllocator.detachThread();
+        }
+    }
+
+    /**
+     * Allocates, fills & frees the buffers of one mesh upload
+     * @return a value read from the buffers, so nothing is optimized away
+     */
+    private float prepareUpload() {
+        FloatBuffer p = MemoryUtil.memAllocFloat(positions.length);
+        FloatBuffer c = MemoryUtil.memAllocFloat(colors.length);
+        FloatBuffer n = MemoryUtil.memAllocFloat(positions.length);
+        IntBuffer i = MemoryUtil.memAllocInt(indices.length);
+        p.put(positions).flip();
+        c.put(colors).flip();
+        n.put(positions).flip();
+        i.put(indices).flip();
+        float result = p.get(0) + c.get(0) + n.get(0) + i.get(0);
+        MemoryUtil.memFree(i);
+        MemoryUtil.memFree(n);
+        MemoryUtil.memFree(c);
+        MemoryUtil.memFree(p);
+        return result;
+    }
+
+    @Benchmark
+    public float prepare(Worker worker) {
+        return prepareUpload();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public float prepareContended(Worker worker) {
+        return prepareUpload();
+    }
+}
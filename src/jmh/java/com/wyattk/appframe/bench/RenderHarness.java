@@ -0,0 +1,300 @@
+package com.wyattk.appframe.bench;
+
+import com.wyattk.appframe.Appframe;
+import com.wyattk.appframe.mesh.Mesh;
+import com.wyattk.appframe.mesh.MeshBuilder;
+import com.wyattk.appframe.profiling.RenderStats;
+import com.wyattk.appframe.shader.Shader;
+import com.wyattk.appframe.shader.ShaderAttribute;
+import com.wyattk.appframe.util.FileRead;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Drives a whole Appframe through a fixed number of frames with a generated scene & reports what the frames cost as JSON
+ * Meant for comparing render queue & upload strategies across commits, so the scene is the same every run (fixed seed)
+ *
+ * Usage: java -cp target/benchmarks.jar com.wyattk.appframe.bench.RenderHarness [--option value]...
+ *   --meshes       number of meshes (default 1000)
+ *   --vertices     roughly how many vertices each mesh has (default 256)
+ *   --shaders      number of distinct shader programs the meshes are spread over (default 4)
+ *   --blend        fraction of meshes drawn with blending (default 0.1)
+ *   --dynamic      fraction of meshes whose colors are re-uploaded every tick (default 0.05)
+ *   --tick-rate    ticks per second (default 60)
+ *   --warmup       frames to run before measuring, measuring also waits for all uploads to finish (default 120)
+ *   --frames       frames to measure (default 600)
+ *   --width/--height size of the window or framebuffer (default 1280x720)
+ *   --headless     render offscreen through EGL, true/false (default false)
+ *   --out          file to write the JSON to (default stdout)
+ * Vsync and the frame rate limit are always off. The shaders & meshes are in the render queue, so the appframe
+ *   cleans them up
+ */
+public class RenderHarness {
+
+    /**
+     * SEED             the seed the scene is generated with
+     * options          the options the harness was run with
+     * meshCount...     the scene & run options, see the usage above
+     * shaders          the shaders the meshes are spread over
+     * dynamicMeshes    the meshes whose colors change every tick
+     * colorsA, colorsB the two color arrays dynamic meshes swap between
+     * warmupLeft       the warmup frames still to run
+     * measuring        tells if the warmup is over
+     * frameTimes       the cpu time of each measured frame, in seconds
+     * measured         the number of frames measured so far
+     * drawCalls...     the render statistics added up over the measured frames
+     */
+    private static final long SEED = 0x5EED;
+    private final Map<String, String> options;
+    private final int meshCount, vertexCount, shaderCount, frames;
+    private final double blendRatio, dynamicRatio;
+    private final ArrayList<Shader> shaders = new ArrayList<>();
+    private final ArrayList<Mesh> dynamicMeshes = new ArrayList<>();
+    private float[] colorsA, colorsB;
+    private boolean flip = false;
+    private int warmupLeft;
+    private boolean measuring = false;
+    private final double[] frameTimes;
+    private int measured = 0;
+    private long drawCalls = 0, triangles = 0, stateChanges = 0, bytesUploaded = 0;
+
+    private RenderHarness(Map<String, String> options) {
+        this.options = options;
+        this.meshCount = Integer.parseInt(options.getOrDefault("meshes", "1000"));
+        this.vertexCount = Integer.parseInt(options.getOrDefault("vertices", "256"));
+        this.shaderCount = Math.max(1, Integer.parseInt(options.getOrDefault("shaders", "4")));
+        this.blendRatio = Double.parseDouble(options.getOrDefault("blend", "0.1"));
+        this.dynamicRatio = Double.parseDouble(options.getOrDefault("dynamic", "0.05"));
+        this.warmupLeft = Integer.parseInt(options.getOrDefault("warmup", "120"));
+        this.frames = Integer.parseInt(options.getOrDefault("frames", "600"));
+        this.frameTimes = new double[frames];
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        RenderHarness harness = new RenderHarness(options);
+
+        Appframe.Properties properties = new Appframe.Properties()
+                .setWindowName("Appframe Render Harness")
+                .setVsyncEnable(false)
+                .setTargetFPS(0)
+                .setFPSLimit(1d / Double.parseDouble(options.getOrDefault("tick-rate", "60")))
+                .setInitWidth(Integer.parseInt(options.getOrDefault("width", "1280")))
+                .setInitHeight(Integer.parseInt(options.getOrDefault("height", "720")))
+                .setHeadless(Boolean.parseBoolean(options.getOrDefault("headless", "false")));
+        Appframe appframe = new Appframe(properties, harness::init, harness::tick, (Appframe a) -> {});
+        appframe.begin();
+
+        if(harness.measured < harness.frames)
+            throw new IllegalStateException("Harness stopped after " + harness.measured + " of " + harness.frames + " frames");
+        String json = harness.toJson();
+        if(options.containsKey("out"))
+            Files.writeString(Path.of(options.get("out")), json, StandardCharsets.UTF_8);
+        else
+            System.out.println(json);
+    }
+
+    /**
+     * @param args is the command line, pairs of --option value
+     * @return map of option name (without the dashes) to value
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        for(int x = 0; x < args.length; x += 2) {
+            if(!args[x].startsWith("--") || x + 1 >= args.length)
+                throw new IllegalArgumentException("Expected --option value, got: " + args[x]);
+            options.put(args[x].substring(2), args[x + 1]);
+        }
+        return options;
+    }
+
+    /**
+     * Creates the shaders & meshes, lays the meshes out in a grid covering the screen, and starts the per-frame recording
+     * @param appframe is the appframe being driven
+     */
+    private void init(Appframe appframe) {
+        try {
+            String vertex = FileRead.readResource("./shaders/vertex.vert");
+            String fragment = FileRead.readResource("./shaders/fragment.frag");
+            for(int x = 0; x < shaderCount; x++)
+                shaders.add(new Shader(vertex, fragment, ShaderAttribute.POSITION, ShaderAttribute.COLOR));
+        } catch(Exception e) {
+            throw new IllegalStateException("Could not create harness shaders", e);
+        }
+
+        int side = Math.max(2, (int) Math.round(Math.sqrt(vertexCount)));
+        float[] positions = quadGridPositions(side);
+        int[] indices = quadGridIndices(side);
+        colorsA = colors(side * side, 0.2f);
+        colorsB = colors(side * side, 0.8f);
+
+        Random random = new Random(SEED);
+        int columns = (int) Math.ceil(Math.sqrt(meshCount));
+        float cell = 2f / columns;
+        for(int x = 0; x < meshCount; x++) {
+            boolean dynamic = random.nextDouble() < dynamicRatio;
+            MeshBuilder builder = new MeshBuilder()
+                    .setPositions(positions)
+                    .setIndices(indices)
+                    .setColors(colorsA)
+                    .useShader(shaders.get(x % shaderCount));
+            if(random.nextDouble() < blendRatio)
+                builder.enableBlending();
+            if(dynamic)
+                builder.dynamicColors();
+            Mesh mesh = builder.build();
+
+            // shrink the grid to fit its cell, positions are already in [0, side - 1]
+            mesh.scaleBy(cell * 0.9f / (side - 1));
+            mesh.translateTo(new float[] {-1f + (x % columns) * cell, -1f + (x / columns) * cell, 0f});
+            if(dynamic)
+                dynamicMeshes.add(mesh);
+            appframe.addMeshToRenderQueue(mesh);
+        }
+
+        appframe.runLater(() -> frame(appframe));
+    }
+
+    /**
+     * Swaps the colors of the dynamic meshes, re-uploading them
+     * @param appframe is the appframe being driven
+     */
+    private void tick(Appframe appframe) {
+        flip = !flip;
+        for(Mesh mesh: dynamicMeshes)
+            mesh.changeColorData(flip ? colorsB : colorsA);
+    }
+
+    /**
+     * Records the frame that just finished (once warmed up) & re-queues itself for the next frame
+     * Runs at the start of every frame, so the statistics it reads are the previous frame's
+     * @param appframe is the appframe being driven
+     */
+    private void frame(Appframe appframe) {
+        if(!measuring) {
+            warmupLeft--;
+            if(warmupLeft <= 0 && appframe.getUploadQueue().getPendingCount() == 0)
+                measuring = true;
+        } else {
+            RenderStats.Snapshot last = RenderStats.getLastFrame();
+            frameTimes[measured++] = appframe.getFrameScheduler().getFrameTime();
+            drawCalls += last.getDrawCalls();
+            triangles += last.getTriangles();
+            stateChanges += last.getStateChanges();
+            bytesUploaded += last.getBytesUploaded();
+            if(measured == frames) {
+                appframe.close();
+                return;
+            }
+        }
+        appframe.runLater(() -> frame(appframe));
+    }
+
+    /**
+     * @return the options & the measurements as a JSON object
+     */
+    private String toJson() {
+        double[] sorted = Arrays.copyOf(frameTimes, measured);
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().orElse(0);
+
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"options\": {");
+        String separator = "";
+        for(Map.Entry<String, String> option: new TreeMap<>(options).entrySet()) {
+            sb.append(separator).append('"').append(option.getKey()).append("\": \"").append(option.getValue()).append('"');
+            separator = ", ";
+        }
+        sb.append("},\n");
+        sb.append(String.format(Locale.ROOT, "  \"meshes\": %d,\n", meshCount));
+        sb.append(String.format(Locale.ROOT, "  \"frames\": %d,\n", measured));
+        sb.append(String.format(Locale.ROOT,
+                "  \"frameTimeMs\": {\"mean\": %.4f, \"p50\": %.4f, \"p95\": %.4f, \"p99\": %.4f, \"max\": %.4f},\n",
+                mean * 1e3, percentile(sorted, 0.5) * 1e3, percentile(sorted, 0.95) * 1e3,
+                percentile(sorted, 0.99) * 1e3, percentile(sorted, 1) * 1e3));
+        sb.append(String.format(Locale.ROOT,
+                "  \"perFrame\": {\"drawCalls\": %.2f, \"triangles\": %.2f, \"stateChanges\": %.2f, \"bytesUploaded\": %.2f},\n",
+                drawCalls / (double) measured, triangles / (double) measured,
+                stateChanges / (double) measured, bytesUploaded / (double) measured));
+        sb.append(String.format(Locale.ROOT,
+                "  \"totals\": {\"drawCalls\": %d, \"triangles\": %d, \"stateChanges\": %d, \"bytesUploaded\": %d}\n",
+                drawCalls, triangles, stateChanges, bytesUploaded));
+        sb.append("}");
+        return sb.toString();
+    }
+
+    /**
+     * @param sorted is the values, sorted
+     * @param p is the percentile, in [0, 1]
+     * @return the value at the percentile (nearest rank), 0 if there are no values
+     */
+    private static double percentile(double[] sorted, double p) {
+        if(sorted.length == 0)
+            return 0;
+        int rank = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+    }
+
+    /**
+     * @param side is the number of vertices along each side
+     * @return the positions of a square grid in the xy plane, from 0 to side - 1
+     */
+    private static float[] quadGridPositions(int side) {
+        float[] positions = new float[side * side * 3];
+        for(int y = 0; y < side; y++) {
+            for(int x = 0; x < side; x++) {
+                int v = (y * side + x) * 3;
+                positions[v] = x;
+                positions[v + 1] = y;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @param side is the number of vertices along each side
+     * @return the indices of the grid's triangles, counter-clockwise so they face the camera
+     */
+    private static int[] quadGridIndices(int side) {
+        int[] indices = new int[(side - 1) * (side - 1) * 6];
+        int i = 0;
+        for(int y = 0; y < side - 1; y++) {
+            for(int x = 0; x < side - 1; x++) {
+                int v = y * side + x;
+                indices[i++] = v;
+                indices[i++] = v + 1;
+                indices[i++] = v + side;
+                indices[i++] = v + 1;
+                indices[i++] = v + side + 1;
+                indices[i++] = v + side;
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * @param vertexCount is the number of vertices
+     * @param shade is how bright the colors are
+     * @return a gradient of colors, one per vertex
+     */
+    private static float[] colors(int vertexCount, float shade) {
+        float[] colors = new float[vertexCount * 4];
+        for(int x = 0; x < vertexCount; x++) {
+            colors[4 * x] = shade;
+            colors[4 * x + 1] = (float) x / vertexCount;
+            colors[4 * x + 2] = 1f - shade;
+            colors[4 * x + 3] = 0.75f;
+        }
+        return colors;
+    }
+}
@@ -0,0 +1,75 @@
+package com.wyattk.appframe.bench;
+
+import com.wyattk.appframe.util.VecMath;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The float[] vector & matrix helpers used for mesh transforms
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VecMathBenchmark {
+
+    private final float[] u = {1.5f, -2f, 0.25f}, v = {0.5f, 3f, -1f};
+    private final float[] vec4 = {1f, 2f, 3f, 1f};
+    private final float[] a = VecMath.IdentityMat(4), b = VecMath.IdentityMat(4);
+
+    @Setup
+    public void setup() {
+        for(int x = 0; x < 16; x++) {
+            a[x] += x * 0.1f;
+            b[x] -= x * 0.05f;
+        }
+    }
+
+    @Benchmark
+    public float[] add() {
+        return VecMath.vecAdd(u, v);
+    }
+
+    @Benchmark
+    public float[] mul() {
+        return VecMath.vecMul(u, v);
+    }
+
+    @Benchmark
+    public float[] scale() {
+        return VecMath.vecScale(u, 1.7f);
+    }
+
+    @Benchmark
+    public float dot() {
+        return VecMath.vecDot(u, v);
+    }
+
+    @Benchmark
+    public float[] cross() {
+        return VecMath.vec3Cross(u, v);
+    }
+
+    @Benchmark
+    public float[] normal() {
+        return VecMath.normal(u);
+    }
+
+    @Benchmark
+    public float[] matMul4() {
+        return VecMath.matMul(a, b, 4);
+    }
+
+    @Benchmark
+    public float[] matVecMul4() {
+        return VecMath.matVecMul(a, vec4);
+    }
+
+    @Benchmark
+    public float[] identity4() {
+        return VecMath.IdentityMat(4);
+    }
+}
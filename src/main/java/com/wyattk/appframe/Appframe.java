@@ -1,17 +1,42 @@
 package com.wyattk.appframe;
 
 import com.wyattk.appframe.mesh.Mesh;
+import com.wyattk.appframe.mesh.MeshLoader;
+import com.wyattk.appframe.mesh.MeshUploadQueue;
+import com.wyattk.appframe.mesh.ResidencyManager;
+import com.wyattk.appframe.profiling.Histogram;
+import com.wyattk.appframe.profiling.MemoryRegistry;
+import com.wyattk.appframe.profiling.Profiler;
+import com.wyattk.appframe.profiling.RenderStats;
 import com.wyattk.appframe.shader.PassThroughShader;
+import com.wyattk.appframe.shader.ProgramBinaryCache;
 import com.wyattk.appframe.shader.Shader;
+import com.wyattk.appframe.shader.ShaderCompiler;
+import com.wyattk.appframe.shader.ShaderProgram;
+import com.wyattk.appframe.shader.ShaderReloader;
+import com.wyattk.appframe.shader.Uniform;
 import com.wyattk.appframe.util.Color;
+import com.wyattk.appframe.util.FrameAllocator;
 import com.wyattk.appframe.util.Logger;
+import com.wyattk.appframe.util.NativeAllocator;
+import com.wyattk.appframe.util.WorkerThreadFactory;
 import org.lwjgl.glfw.*;
 import org.lwjgl.opengl.*;
 import org.lwjgl.system.*;
 
+import java.io.IOException;
 import java.nio.*;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.lwjgl.glfw.Callbacks.*;
 import static org.lwjgl.glfw.GLFW.*;
@@ -26,20 +51,76 @@ import static org.lwjgl.system.MemoryUtil.*;
 public class Appframe {
 
     /**
-     * windowHandle     The identifier for OpenGL to find the window
+     * windowHandle     The identifier for OpenGL to find the window, NULL in headless mode
+     * headlessContext  The windowless OpenGL context in headless mode, null otherwise
+     * closeRequested   Tells the loop to stop at the end of the frame
      * properties       The properties of the AppFrame
      * appInitFunc      The function that runs when the AppFrame is begun
-     * loopTickFunc     A function that runs every tick, meant to update logic
+     * mainTickTask     The task running the tick function given to the constructor, meant to update logic
+     * tickScheduler    Runs the main tick task along with any other registered tick tasks, each at its own rate
      */
-    private long windowHandle;
+    private long windowHandle = NULL;
+    private HeadlessContext headlessContext;
+    private volatile boolean closeRequested = false;
     private final Properties properties;
-    private final appFunction appInitFunc, loopTickFunc, finalFunc;
+    private final appFunction appInitFunc, finalFunc;
+    private final TickTask mainTickTask;
+    private final TickScheduler tickScheduler;
+
+    /**
+     * TRANSFORM_UNIFORM    The name of the mat4 uniform that gets each mesh's transformation matrix, if a shader has it
+     * WORKER_SHUTDOWN_TIMEOUT  How long (in milliseconds) cleanup waits for the workers to finish what they're doing
+     */
+    public static final String TRANSFORM_UNIFORM = "transformationMatrix";
+    private static final long WORKER_SHUTDOWN_TIMEOUT = 5000;
 
     /**
      * renderQueue      Map of shaders to linked list of meshes using that shader
      */
     HashMap<Shader, LinkedList<Mesh>> renderQueue = new HashMap<>();
 
+    /**
+     * workers          Pool of background threads for work that should stay off the render thread
+     * meshLoader       Loader for importing model files on the workers, made on first use
+     * renderTasks      Tasks handed over from other threads to run on the render thread
+     * uploadQueue      Queue of meshes being prepared on the workers and uploaded a few per frame
+     * residency        Keeps managed meshes on the gpu within the memory budget, evicting & reloading them
+     * shaderCompiler   Compiles shaders without stalling the render thread, made once the context exists
+     * shaderReloader   Reloads watched shaders when their files change, null unless hot reload is on
+     * frameAllocator   Native memory for staging uploads on the render thread, freed all at once every frame
+     */
+    private final ExecutorService workers;
+    private MeshLoader meshLoader;
+    private final MeshUploadQueue uploadQueue;
+    private final ResidencyManager residency;
+    private final ConcurrentLinkedQueue<Runnable> renderTasks = new ConcurrentLinkedQueue<>();
+    private ShaderCompiler shaderCompiler;
+    private ShaderReloader shaderReloader;
+    private FrameAllocator frameAllocator;
+
+    /**
+     * frameScheduler   Paces frames & measures frame times for the render thread
+     * profiler         Times the phases of each frame on the render thread (when enabled)
+     * simulationProfiler Times the phases of each step on the simulation thread in threaded mode (when enabled)
+     * tickCount        The number of ticks run since the last debug output
+     * renderThread     The thread that owns the OpenGL context (the one begin() was called on)
+     * simulationThread The thread ticks run on in threaded mode, null otherwise
+     * simulationRunning Tells the simulation thread to keep going
+     * snapshots        The mesh transforms handed from the simulation thread to the render thread
+     * simulatedMeshes  The meshes in the render queue (or on their way to it), safe to read from any thread
+     * keyEvents        Key presses/releases handed from the render thread to the simulation thread
+     * simulationKeys   The key states as seen by the simulation thread, only touched by it
+     */
+    private FrameScheduler frameScheduler;
+    private final Profiler profiler, simulationProfiler;
+    private final AtomicInteger tickCount = new AtomicInteger();
+    private Thread renderThread, simulationThread;
+    private volatile boolean simulationRunning = false;
+    private final TransformSnapshots snapshots = new TransformSnapshots();
+    private final Set<Mesh> simulatedMeshes = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<KeyEvent> keyEvents = new ConcurrentLinkedQueue<>();
+    private final boolean[] simulationKeys = new boolean[GLFW_KEY_LAST + 1];
+
     /**
      * Creates the appframe. Must be called by subclasses
      * @param properties are the properties of the appframe (see Appframe.Properties class)
@@ -50,15 +131,33 @@ public class Appframe {
      */
     public Appframe(Properties properties, appFunction initFunc, appFunction tickFunc, appFunction finalFunc) {
         this.properties = properties;
+        // before anything allocates native memory
+        if(properties.nativeAllocator != null)
+            NativeAllocator.select(properties.nativeAllocator);
+        if(properties.leakTracking)
+            MemoryRegistry.setTrackAllocationSites(true);
         this.appInitFunc = initFunc;
-        this.loopTickFunc = tickFunc;
         this.finalFunc = finalFunc;
+        this.tickScheduler = new TickScheduler(properties.maxTicksPerFrame);
+        this.mainTickTask = new TickTask("main", tickFunc)
+                .setRate(1d / properties.fpsLimit)
+                .setPriority(Integer.MAX_VALUE);
+        tickScheduler.add(mainTickTask);
+        this.profiler = new Profiler(properties.profiling, "frame");
+        this.simulationProfiler = new Profiler(properties.profiling && properties.threadedTick, "step");
+        this.workers = Executors.newFixedThreadPool(properties.workerThreads, new WorkerThreadFactory("appframe-worker"));
+        this.uploadQueue = new MeshUploadQueue(workers, properties.uploadByteBudget, properties.uploadTimeBudget);
+        this.residency = new ResidencyManager(uploadQueue, properties.gpuMemoryBudget);
     }
 
     /**
      * Runs the app
      */
     public void begin() {
+        renderThread = Thread.currentThread();
+        NativeAllocator.attachThread();
+        RenderStats.register();
+        MemoryRegistry.register();
         try {
             init();
             appInitFunc.call(this);
@@ -69,18 +168,66 @@ public class Appframe {
             cleanup();
         }
 
-        glfwFreeCallbacks(windowHandle);
-        glfwDestroyWindow(windowHandle);
+        if(headlessContext != null)
+            headlessContext.cleanup();
+        if(windowHandle != NULL) {
+            glfwFreeCallbacks(windowHandle);
+            glfwDestroyWindow(windowHandle);
+        }
+        NativeAllocator.detachThread();
     }
 
     /**
      * Initializes the OpenGL stuff
      */
     private void init() {
-        GLFWErrorCallback.createPrint(System.err).set();
-
         Logger.log("Initializing...");
 
+        if(properties.headless) {
+            headlessContext = new HeadlessContext(properties.initWidth, properties.initHeight);
+            headlessContext.create();
+        } else {
+            initWindow();
+        }
+
+        // Set the default color for a blank window
+        glClearColor(properties.clearColor.r, properties.clearColor.g, properties.clearColor.b, 0f);
+
+        // when alpha blending is enabled, use the function dest.a = 1 - src.a
+        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+
+        // Enable gl depth testing on a scale of [0,1] where 0 is closer
+        glEnable(GL_DEPTH_TEST);
+        glDepthMask(true);
+        glDepthFunc(GL_LESS);
+        glDepthRange(0.0f, 1.0f);
+
+        glEnable(GL_CULL_FACE);
+        glFrontFace(GL_CCW);
+
+        if(properties.shaderCacheDirectory != null)
+            ShaderProgram.setBinaryCache(new ProgramBinaryCache(properties.shaderCacheDirectory));
+        shaderCompiler = new ShaderCompiler();
+        frameAllocator = new FrameAllocator(properties.stagingBytes);
+        FrameAllocator.setCurrent(frameAllocator);
+
+        if(properties.shaderHotReloadDirectory != null) {
+            shaderReloader = new ShaderReloader(properties.shaderHotReloadDirectory);
+            try {
+                shaderReloader.start();
+            } catch(IOException e) {
+                Logger.err("Could not watch " + properties.shaderHotReloadDirectory + " for shader changes: " + e.getMessage());
+                shaderReloader = null;
+            }
+        }
+    }
+
+    /**
+     * Creates the window & makes its OpenGL context current
+     */
+    private void initWindow() {
+        GLFWErrorCallback.createPrint(System.err).set();
+
         // initialize GLFW
         if (!glfwInit())
             throw new IllegalStateException("Unable to initialize GLFW");
@@ -105,22 +252,6 @@ public class Appframe {
         // creates the GLCapabilities instance and makes the OpenGL
         // bindings available for use.
         GL.createCapabilities();
-
-        // Set the default color for a blank window
-        glClearColor(properties.clearColor.r, properties.clearColor.g, properties.clearColor.b, 0f);
-
-        // when alpha blending is enabled, use the function dest.a = 1 - src.a
-        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
-
-        // Enable gl depth testing on a scale of [0,1] where 0 is closer
-        glEnable(GL_DEPTH_TEST);
-        glDepthMask(true);
-        glDepthFunc(GL_LESS);
-        glDepthRange(0.0f, 1.0f);
-
-        glEnable(GL_CULL_FACE);
-        glFrontFace(GL_CCW);
-
     }
 
     /**
@@ -175,40 +306,194 @@ public class Appframe {
      * Contains the program loop
      */
     private void loop() {
+        if(properties.threadedTick) {
+            threadedLoop();
+            return;
+        }
+
         // Init variables for timing & debug
-        double lastTime = glfwGetTime();
-        double timer = lastTime;
-        double timeToNextUpdate = 0, curTime;
-        int framesSinceUpdate = 0, updatesSinceUpdate = 0;
+        frameScheduler = new FrameScheduler(properties.framePeriod);
+        long tickPeriod = (long) (properties.fpsLimit * 1e9);
+        double timer = getTime();
+        int framesSinceUpdate = 0;
 
         // while window is open
-        while (!glfwWindowShouldClose(windowHandle)) {
-            // save time, calculate time until next update, update last time
-            curTime = glfwGetTime();
-            timeToNextUpdate += (curTime - lastTime) / properties.fpsLimit;
-            lastTime = curTime;
-
-            // while the time until next update is
-            while (timeToNextUpdate >= 1) {
-                //tickLogic();
-                loopTickFunc.call(this);
-                updatesSinceUpdate++;
-                timeToNextUpdate--;
-
-                //Poll for window events. The key callback will only be invoked during this call
-                glfwPollEvents();
-            }
+        while (!shouldClose()) {
+            frameScheduler.beginFrame();
+            profiler.beginFrame();
+            long deadline = frameScheduler.getFrameDeadline(tickPeriod);
+
+            //Poll for window events. The key callback will only be invoked during this call
+            profiler.beginScope("events");
+            pollEvents();
+            runRenderTasks();
+            if(shaderReloader != null)
+                shaderReloader.poll();
+            profiler.endScope();
+
+            // run every tick task that is owed ticks since the last frame
+            profiler.beginScope("tick");
+            tickCount.addAndGet(tickScheduler.run(this, profiler, deadline));
+            profiler.endScope();
+
+            profiler.beginScope("upload");
+            uploadQueue.process();
+            shaderCompiler.poll();
+            profiler.endScope();
 
             render();
             framesSinceUpdate++;
 
+            // housekeeping gets whatever time is left
+            profiler.beginScope("idle");
+            tickCount.addAndGet(tickScheduler.runIdle(this, profiler, deadline));
+            profiler.endScope();
+            profiler.endFrame();
+
             // this is for outputting fps every 1.0 seconds
-            if (properties.debug && glfwGetTime() - timer > 1.0) {
+            if (properties.debug && getTime() - timer > 1.0) {
                 timer++;
-                Logger.log("FPS: " + framesSinceUpdate + " Updates: " + updatesSinceUpdate);
-                updatesSinceUpdate = 0;
+                logDebugStats(framesSinceUpdate);
                 framesSinceUpdate = 0;
             }
+
+            // wait out the rest of the frame if there is a frame rate limit
+            frameScheduler.endFrame();
+        }
+    }
+
+    /**
+     * Contains the program loop for threaded mode
+     * Ticks run on their own thread (see simulationLoop), this thread only polls events and renders the
+     *   latest transforms the simulation thread published, interpolated to the current time
+     */
+    private void threadedLoop() {
+        // hand key changes over to the simulation thread, glfwGetKey can only be called from this thread
+        if(windowHandle != NULL)
+            glfwSetKeyCallback(windowHandle, (window, key, scancode, action, mods) -> {
+                if(key != GLFW_KEY_UNKNOWN && action != GLFW_REPEAT)
+                    keyEvents.add(new KeyEvent(key, action == GLFW_PRESS));
+            });
+
+        long tickPeriod = (long) (properties.fpsLimit * 1e9);
+        simulationRunning = true;
+        simulationThread = new Thread(NativeAllocator.wrap(this::simulationLoop), "appframe-simulation");
+        simulationThread.start();
+
+        try {
+            frameScheduler = new FrameScheduler(properties.framePeriod);
+            double timer = getTime();
+            int framesSinceUpdate = 0;
+
+            while (!shouldClose()) {
+                frameScheduler.beginFrame();
+                profiler.beginFrame();
+
+                //Poll for window events. The key callback will only be invoked during this call
+                profiler.beginScope("events");
+                pollEvents();
+                runRenderTasks();
+                if(shaderReloader != null)
+                    shaderReloader.poll();
+                profiler.endScope();
+
+                profiler.beginScope("upload");
+                uploadQueue.process();
+                shaderCompiler.poll();
+                profiler.endScope();
+
+                profiler.beginScope("interpolate");
+                snapshots.apply(System.nanoTime(), tickPeriod);
+                profiler.endScope();
+
+                render();
+                framesSinceUpdate++;
+                profiler.endFrame();
+
+                // this is for outputting fps every 1.0 seconds
+                if (properties.debug && getTime() - timer > 1.0) {
+                    timer++;
+                    logDebugStats(framesSinceUpdate);
+                    framesSinceUpdate = 0;
+                }
+
+                frameScheduler.endFrame();
+            }
+        } finally {
+            simulationRunning = false;
+            try {
+                simulationThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs the tick tasks on the simulation thread, publishing the mesh transforms after each step
+     * Steps are paced to the main tick rate, tasks with other rates run as many ticks per step as they are owed
+     * Closes the window if a tick throws, since nothing else would notice
+     */
+    private void simulationLoop() {
+        FrameScheduler stepScheduler = new FrameScheduler(properties.fpsLimit);
+        long tickPeriod = (long) (properties.fpsLimit * 1e9);
+        try {
+            while (simulationRunning) {
+                stepScheduler.beginFrame();
+                simulationProfiler.beginFrame();
+                long deadline = stepScheduler.getFrameDeadline(tickPeriod);
+
+                KeyEvent event;
+                while ((event = keyEvents.poll()) != null)
+                    simulationKeys[event.key] = event.pressed;
+
+                simulationProfiler.beginScope("tick");
+                tickCount.addAndGet(tickScheduler.run(this, simulationProfiler, deadline));
+                simulationProfiler.endScope();
+
+                simulationProfiler.beginScope("publish");
+                snapshots.publish(simulatedMeshes, System.nanoTime());
+                simulationProfiler.endScope();
+
+                simulationProfiler.beginScope("idle");
+                tickCount.addAndGet(tickScheduler.runIdle(this, simulationProfiler, deadline));
+                simulationProfiler.endScope();
+                simulationProfiler.endFrame();
+
+                stepScheduler.endFrame();
+            }
+        } catch (Exception e) {
+            // one record, so the trace can't be split up by other threads' messages
+            StringBuilder trace = new StringBuilder();
+            for(StackTraceElement element: e.getStackTrace())
+                trace.append("\n    at ").append(element);
+            Logger.err("Simulation thread stopped: {}{}", e, trace);
+            close();
+        }
+    }
+
+    /**
+     * Logs the frame & tick rate along with the frame timing statistics
+     * @param frames is the number of frames rendered in the last second
+     */
+    private void logDebugStats(int frames) {
+        Logger.log(String.format(
+                "FPS: %d Updates: %d Frame: %.2fms avg, %.2fms max, %.2fms jitter, %d ticks dropped",
+                frames,
+                tickCount.getAndSet(0),
+                frameScheduler.getAverageFrameTime() * 1e3,
+                frameScheduler.getMaxFrameTime() * 1e3,
+                frameScheduler.getFrameTimeDeviation() * 1e3,
+                mainTickTask.getDroppedTicks()
+        ));
+        Logger.log("Last frame: " + RenderStats.getLastFrame());
+        Logger.log("Memory: " + MemoryRegistry.summary());
+        if(properties.gpuMemoryBudget > 0)
+            Logger.log("Residency: " + residency);
+        Logger.log("Staging: " + frameAllocator);
+        if(profiler.isEnabled()) {
+            profiler.getCpuHistograms().forEach((String path, Histogram h) -> Logger.log("  cpu " + path + ": " + h));
+            profiler.getGpuHistograms().forEach((String name, Histogram h) -> Logger.log("  gpu " + name + ": " + h));
         }
     }
 
@@ -221,6 +506,24 @@ public class Appframe {
 
         finalFunc.call(this);
 
+        if(meshLoader != null)
+            meshLoader.shutdown();
+        workers.shutdownNow();
+        // let uploads still being prepared finish, so discard frees them too
+        try {
+            if(!workers.awaitTermination(WORKER_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS))
+                Logger.warn("Workers still running after {} ms", WORKER_SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        uploadQueue.discard();
+        if(shaderReloader != null)
+            shaderReloader.stop();
+        profiler.cleanup();
+        simulationProfiler.cleanup();
+        if(frameAllocator != null)
+            frameAllocator.cleanup();
+
         if(PassThroughShader.get() != null)
             PassThroughShader.get().cleanup();
 
@@ -229,9 +532,161 @@ public class Appframe {
             s.cleanup();
         }
 
+        if(ShaderProgram.getBinaryCache() != null)
+            Logger.verb("Shader cache: {}", ShaderProgram.getBinaryCache());
+
+        Logger.verb("Memory left after cleaning: {}", MemoryRegistry.summary());
+        RenderStats.unregister();
+        MemoryRegistry.unregister();
         Logger.log("Done Cleaning");
     }
 
+    /**
+     * Runs all the tasks handed to the render thread since the last time this was called
+     * Tasks handed over while these run wait for the next frame, so a task can re-queue itself to run every frame
+     */
+    private void runRenderTasks() {
+        Runnable task;
+        for(int x = renderTasks.size(); x > 0 && (task = renderTasks.poll()) != null; x--)
+            task.run();
+    }
+
+    /**
+     * Hands a task to the render thread, it runs at the start of the next loop
+     * Safe to call from any thread, meant for getting work done off-thread (like MeshLoader imports)
+     *   back onto the thread that owns the OpenGL context
+     * A task that calls runLater again from the render thread runs again the next frame, not right away
+     * Can be used as an Executor, e.g. future.thenAcceptAsync(..., appframe::runLater)
+     * @param task is the task to run on the render thread
+     */
+    public void runLater(Runnable task) {
+        renderTasks.add(task);
+    }
+
+    /**
+     * @return the scheduler of the render thread, for frame timing & jitter statistics (null before the loop starts)
+     */
+    public FrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
+    /**
+     * The same counts are published as an MBean (see RenderStats.OBJECT_NAME) while the app is running
+     * @return the draw calls, triangles, state changes, uploads & live resources of the last finished frame
+     */
+    public RenderStats.Snapshot getRenderStats() {
+        return RenderStats.getLastFrame();
+    }
+
+    /**
+     * The same totals are published as an MBean (see MemoryRegistry.OBJECT_NAME) while the app is running
+     * @return the native & gpu memory held by meshes, shader programs & everything else that needs cleaning up,
+     *         by category
+     */
+    public Map<String, MemoryRegistry.Usage> getMemoryUsage() {
+        return MemoryRegistry.getUsage();
+    }
+
+    /**
+     * @return the allocator uploads on the render thread are staged in, for its size & high-water mark (null before
+     *         the app is initialized)
+     */
+    public FrameAllocator getFrameAllocator() {
+        return frameAllocator;
+    }
+
+    /**
+     * @return the profiler timing each frame on the render thread (see Properties.setProfiling)
+     */
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * @return the profiler timing each step on the simulation thread in threaded mode (see Properties.setProfiling)
+     */
+    public Profiler getSimulationProfiler() {
+        return simulationProfiler;
+    }
+
+    /**
+     * Registers a task to be run at its own rate alongside the main tick function
+     * Safe to call from any thread, including from inside a tick
+     * @param task is the task to run
+     */
+    public void addTickTask(TickTask task) {
+        tickScheduler.add(task);
+    }
+
+    /**
+     * Unregisters a tick task, safe to call from any thread
+     * @param task is the task to stop running
+     */
+    public void removeTickTask(TickTask task) {
+        tickScheduler.remove(task);
+    }
+
+    /**
+     * @return the task running the tick function given to the constructor
+     */
+    public TickTask getMainTickTask() {
+        return mainTickTask;
+    }
+
+    /**
+     * @return the pool of background threads owned by the appframe
+     */
+    public ExecutorService getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Queues a mesh to be prepared on the worker threads and uploaded to the gpu within the per-frame budget
+     * (see Properties.setUploadByteBudget & setUploadTimeBudget), instead of all at once like Mesh.gpuLoad
+     * @param mesh is the mesh to load, it reports LOADING until it is on the gpu
+     */
+    public void queueGpuLoad(Mesh mesh) {
+        uploadQueue.enqueue(mesh);
+    }
+
+    /**
+     * @return the compiler for submitting shaders without stalling the render thread (null before begin())
+     */
+    public ShaderCompiler getShaderCompiler() {
+        return shaderCompiler;
+    }
+
+    /**
+     * @return the reloader to register shaders with for hot reloading, null unless turned on with
+     *         Properties.setShaderHotReload (or if the directory couldn't be watched)
+     */
+    public ShaderReloader getShaderReloader() {
+        return shaderReloader;
+    }
+
+    /**
+     * @return the manager keeping managed meshes within the gpu memory budget (see Properties.setGpuMemoryBudget)
+     */
+    public ResidencyManager getResidency() {
+        return residency;
+    }
+
+    /**
+     * @return the queue spreading mesh uploads over multiple frames
+     */
+    public MeshUploadQueue getUploadQueue() {
+        return uploadQueue;
+    }
+
+    /**
+     * @return the loader for importing model files on the worker threads
+     */
+    public MeshLoader getMeshLoader() {
+        if(meshLoader == null)
+            meshLoader = new MeshLoader(workers);
+        return meshLoader;
+    }
+
     /**
      * Sets the default color for the cleared screen
      * @param color is the color the cleared screen will be set to
@@ -244,6 +699,8 @@ public class Appframe {
      * Clears the screen and renders all meshes in meshesToRender
      */
     private void render() {
+        profiler.beginScope("render");
+        profiler.beginGpuScope("render");
         glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT); //Clear framebuffer
 
         /* @Todo Properly Handle resizing the screen with different modes
@@ -260,36 +717,118 @@ public class Appframe {
          *  - Expand area
          */
         for(Shader s: renderQueue.keySet()) {
+            // still compiling (or broken), its meshes are drawn once it's ready rather than stalling the frame
+            if(!s.isReady())
+                continue;
             s.bind();
+            RenderStats.countProgramSwitch();
+            Uniform transform = s.getUniform(TRANSFORM_UNIFORM);
 
             renderQueue.get(s).forEach((Mesh mesh) -> {
-                if(!mesh.isOnGpu())
+                if(!mesh.isVisible())
+                    return;
+                // still on its way to the gpu, draw it once it gets there
+                if(mesh.getState() == Mesh.State.LOADING)
+                    return;
+                if(!mesh.isOnGpu()) {
+                    // evicted to stay in the gpu budget, it's back once uploaded again
+                    if(residency.reload(mesh))
+                        return;
                     throw new IllegalStateException("Cannot render mesh that is not on GPU");
+                }
+                residency.drawn(mesh);
+
+                // only sent when it differs from the last mesh's, so static scenes with one mesh per shader send nothing
+                if(transform != null)
+                    transform.set(properties.threadedTick ? mesh.getRenderMatrix() : mesh.getTransformationMatrix());
 
                 glBindVertexArray(mesh.getVaoId());
+                RenderStats.countVaoSwitch();
+                mesh.bindConstantAttributes();
 
-                if(mesh.isMeshBlended())
+                if(mesh.isMeshBlended()) {
                     glEnable(GL_BLEND);
+                    RenderStats.countBlendSwitch();
+                }
 
                 glDrawElements(mesh.getDrawMode(), mesh.getVertexCount(), GL_UNSIGNED_INT, 0);
+                RenderStats.countDraw(mesh.getDrawMode(), mesh.getVertexCount());
 
-                if(mesh.isMeshBlended())
+                if(mesh.isMeshBlended()) {
                     glDisable(GL_BLEND);
+                    RenderStats.countBlendSwitch();
+                }
 
                 glBindVertexArray(0);
             });
 
             s.unbind();
         }
+        profiler.endGpuScope();
 
-        glfwSwapBuffers(windowHandle); // swap color buffers
+        profiler.beginScope("swap");
+        if(headlessContext != null)
+            headlessContext.swap();
+        else
+            glfwSwapBuffers(windowHandle); // swap color buffers
+        profiler.endScope();
+        profiler.endScope();
+        residency.endFrame();
+        RenderStats.endFrame();
+        frameAllocator.reset();
     }
 
     /**
      * Closes the window (& subsequently OpenGL application
+     * Safe to call from any thread
      */
     public void close() {
-        glfwSetWindowShouldClose(windowHandle, true);
+        closeRequested = true;
+        if(windowHandle != NULL)
+            glfwSetWindowShouldClose(windowHandle, true);
+    }
+
+    /**
+     * @return true if the loop should stop, because close was called or the window was closed
+     */
+    private boolean shouldClose() {
+        return closeRequested || (windowHandle != NULL && glfwWindowShouldClose(windowHandle));
+    }
+
+    /**
+     * Polls for window events, there are none in headless mode
+     */
+    private void pollEvents() {
+        if(windowHandle != NULL)
+            glfwPollEvents();
+    }
+
+    /**
+     * @return the current time in seconds, works with or without a window
+     */
+    private static double getTime() {
+        return System.nanoTime() / 1e9;
+    }
+
+    /**
+     * Reads back what was last drawn in headless mode, e.g. for comparing against a golden image
+     * Must be called on the render thread (from a tick, or a runLater task)
+     * @return the pixels as tightly packed RGBA bytes, bottom row first, initWidth x initHeight.
+     *         Must be freed with MemoryUtil.memFree
+     */
+    public ByteBuffer readPixels() {
+        if(headlessContext == null)
+            throw new IllegalStateException("Can only read pixels back in headless mode");
+        if(offRenderThread())
+            throw new IllegalStateException("Can only read pixels on the render thread");
+        return headlessContext.readPixels();
+    }
+
+    /**
+     * @return true if the app renders offscreen without a window (see Properties.setHeadless)
+     */
+    public boolean isHeadless() {
+        return properties.headless;
     }
 
     /**
@@ -297,17 +836,38 @@ public class Appframe {
      * @return true if the key from keyCode is pressed, false if not
      */
     public boolean keyPressed(int keyCode) {
+        if(Thread.currentThread() == simulationThread)
+            return simulationKeys[keyCode];
+        if(windowHandle == NULL)
+            return false;
         return glfwGetKey(windowHandle, keyCode) == GLFW_PRESS;
     }
 
+    /**
+     * @return true if the current thread is not the render thread, and so must not touch OpenGL or the render queue
+     */
+    private boolean offRenderThread() {
+        return renderThread != null && Thread.currentThread() != renderThread;
+    }
+
     /**
      * Adds a mesh to render
+     * If called off the render thread (e.g. from a tick in threaded mode), the add is handed to the render thread
      * @param mesh is the mesh being added to render
      */
     public void addMeshToRenderQueue(Mesh mesh) {
+        simulatedMeshes.add(mesh);
+        if(offRenderThread()) {
+            runLater(() -> addMeshToRenderQueue(mesh));
+            return;
+        }
+
         Shader s = mesh.getShader();
-        if(properties.meshManage)
-            mesh.gpuLoad();
+        if(properties.meshManage) {
+            residency.manage(mesh);
+            if(mesh.getState() == Mesh.State.UNLOADED)
+                uploadQueue.enqueue(mesh);
+        }
         if(!renderQueue.containsKey(s))
             renderQueue.put(s, new LinkedList<>());
         renderQueue.get(s).add(mesh);
@@ -315,11 +875,19 @@ public class Appframe {
 
     /**
      * Removes (and potentially cleans-up) a mesh from the rendering list
+     * If called off the render thread (e.g. from a tick in threaded mode), the removal is handed to the render thread
      * @param mesh is the mesh to remove from the rendering list
      */
     public void removeMeshFromRenderQueue(Mesh mesh) {
+        simulatedMeshes.remove(mesh);
+        if(offRenderThread()) {
+            runLater(() -> removeMeshFromRenderQueue(mesh));
+            return;
+        }
+
         Shader s = mesh.getShader();
-        if(properties.meshManage)
+        residency.unmanage(mesh);
+        if(properties.meshManage && mesh.getState() != Mesh.State.UNLOADED)
             mesh.gpuFree();
         if(renderQueue.containsKey(s))
             renderQueue.get(s).remove(mesh);
@@ -336,15 +904,51 @@ public class Appframe {
          * allowResize  Allow the manual resizing of the window?
          * meshManage   Tells the app if it should automatically load and unload meshes from the GPU or not
          *              true means less chance of a memory leak, but false means potentially better performance
+         *              Managed meshes are loaded through the upload queue, so they appear once their upload finishes
          * initWidth    The initial width of the window
          * windowName   The title of the window
          * fpsLimit     Maximum times per second the window's logic will update. Measured in seconds/frame
+         * framePeriod  Target time between rendered frames, in seconds. <= 0 for no limit (other than vsync)
+         * maxTicksPerFrame The most ticks each tick task runs in one frame when catching up, any more are dropped
+         * workerThreads The number of background threads for asset loading & other off-thread work
+         * uploadByteBudget The max number of bytes of mesh data uploaded by the upload queue per frame, <= 0 for no limit
+         * uploadTimeBudget The max time (in seconds) spent uploading by the upload queue per frame, <= 0 for no limit
+         * stagingBytes The initial size of the native block uploads on the render thread are staged in, grown if a
+         *              frame needs more (see FrameAllocator)
+         * nativeAllocator The allocator behind all native memory (see NativeAllocator), selected when the Appframe is
+         *              made so nothing may allocate before that. null (the default) leaves it to LWJGL, which picks
+         *              jemalloc when it's available
+         * gpuMemoryBudget The max bytes of mesh data managed meshes keep on the gpu, <= 0 (the default) for no limit
+         *              Least recently drawn meshes are freed to stay under it & uploaded again when drawn
+         * profiling    Time the phases of every frame (events, tick tasks, upload, render, swap, idle) on the cpu, and the
+         *              render pass on the gpu. See Appframe.getProfiler for the results
+         * shaderCacheDirectory Directory to cache linked shader programs in, so they aren't compiled every startup.
+         *              null (the default) for no cache
+         * shaderHotReloadDirectory Directory on disk (like src/main/resources) to watch for changes to shader files,
+         *              which are recompiled & swapped in while running. For development, null (the default) to turn off
+         * headless     Render offscreen into a framebuffer (initWidth x initHeight) through EGL instead of opening a window,
+         *              for machines without a display. There is no vsync or keyboard input in headless mode
+         * leakTracking Record where every object that needs cleaning up is made, so ones garbage collected without
+         *              cleanup are logged along with where they came from. Costs a stack trace per object
+         * threadedTick Run ticks on their own thread at the fixed rate, while the render thread draws interpolated
+         *              transforms. Ticks must hand any OpenGL work (gpuLoad, changePositionData, etc.) to the
+         *              render thread with runLater; render queue changes are handed over automatically
          */
         private Color clearColor = Color.BLACK;
-        private boolean vsyncEnable = true, allowResize = false, meshManage = true, debug = false;
+        private boolean vsyncEnable = true, allowResize = false, meshManage = true, debug = false, threadedTick = false, profiling = false;
+        private boolean headless = false, leakTracking = false;
+        private Path shaderCacheDirectory = null, shaderHotReloadDirectory = null;
         private int initWidth = 1600, initHeight = 900;
         private String windowName = "Appframe Application";
         private double fpsLimit = 1d / 60d; // Default 60fps
+        private double framePeriod = 0; // Default no limit
+        private int maxTicksPerFrame = 5;
+        private int workerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        private long uploadByteBudget = 4L * 1024 * 1024; // Default 4MiB per frame
+        private double uploadTimeBudget = 0.002; // Default 2ms per frame
+        private long gpuMemoryBudget = 0; // Default no limit
+        private long stagingBytes = 1024 * 1024; // Default 1MiB, grows as needed
+        private NativeAllocator.Backend nativeAllocator = null; // Default picked by LWJGL
 
         public Properties() {
         }
@@ -384,6 +988,18 @@ public class Appframe {
             return this;
         }
 
+        public Properties setTargetFPS(double framesPerSecond) {
+            this.framePeriod = framesPerSecond > 0 ? 1d / framesPerSecond : 0;
+            return this;
+        }
+
+        public Properties setMaxTicksPerFrame(int maxTicks) {
+            if(maxTicks < 1)
+                throw new IllegalArgumentException("Must allow at least 1 tick per frame, given: " + maxTicks);
+            this.maxTicksPerFrame = maxTicks;
+            return this;
+        }
+
         public Properties shouldManageMeshGPU(boolean management) {
             this.meshManage = management;
             return this;
@@ -393,9 +1009,86 @@ public class Appframe {
             this.debug = debug;
             return this;
         }
+
+        public Properties setUploadByteBudget(long bytesPerFrame) {
+            this.uploadByteBudget = bytesPerFrame;
+            return this;
+        }
+
+        public Properties setUploadTimeBudget(double secondsPerFrame) {
+            this.uploadTimeBudget = secondsPerFrame;
+            return this;
+        }
+
+        public Properties setGpuMemoryBudget(long bytes) {
+            this.gpuMemoryBudget = bytes;
+            return this;
+        }
+
+        public Properties setNativeAllocator(NativeAllocator.Backend backend) {
+            this.nativeAllocator = backend;
+            return this;
+        }
+
+        public Properties setStagingBytes(long bytes) {
+            if(bytes <= 0)
+                throw new IllegalArgumentException("Staging size must be positive, given: " + bytes);
+            this.stagingBytes = bytes;
+            return this;
+        }
+
+        public Properties setShaderCacheDirectory(String directory) {
+            this.shaderCacheDirectory = directory != null ? Path.of(directory) : null;
+            return this;
+        }
+
+        public Properties setShaderHotReload(String directory) {
+            this.shaderHotReloadDirectory = directory != null ? Path.of(directory) : null;
+            return this;
+        }
+
+        public Properties setHeadless(boolean headless) {
+            this.headless = headless;
+            return this;
+        }
+
+        public Properties setProfiling(boolean profiling) {
+            this.profiling = profiling;
+            return this;
+        }
+
+        public Properties setLeakTracking(boolean leakTracking) {
+            this.leakTracking = leakTracking;
+            return this;
+        }
+
+        public Properties setThreadedTick(boolean threadedTick) {
+            this.threadedTick = threadedTick;
+            return this;
+        }
+
+        public Properties setWorkerThreads(int threadCount) {
+            if(threadCount < 1)
+                throw new IllegalArgumentException("Must have at least 1 worker thread, given: " + threadCount);
+            this.workerThreads = threadCount;
+            return this;
+        }
     }
 
     public interface appFunction {
         void call(Appframe appframe);
     }
+
+    /**
+     * A key changing state, handed from the render thread to the simulation thread
+     */
+    private static class KeyEvent {
+        private final int key;
+        private final boolean pressed;
+
+        private KeyEvent(int key, boolean pressed) {
+            this.key = key;
+            this.pressed = pressed;
+        }
+    }
 }
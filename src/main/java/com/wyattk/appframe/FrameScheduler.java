@@ -0,0 +1,154 @@
+package com.wyattk.appframe;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Frame limiter & frame timer for the main loop (ticks themselves are handed out by the TickScheduler)
+ * Paces frames to a target rate (System.nanoTime) by sleeping most of the wait, then spinning the last stretch for precision
+ * Keeps statistics about the last FRAME_WINDOW frames for measuring frame time & jitter
+ */
+public class FrameScheduler {
+
+    /**
+     * FRAME_WINDOW     the number of frames the statistics are calculated over
+     * SLEEP_CHUNK      how long each sleep of the frame limiter asks for, in nanoseconds
+     * framePeriod      the target time between frames, in nanoseconds, <= 0 for no limit
+     * lastFrameStart   the time the last frame started at
+     * frameTimes       ring buffer of the durations of the last FRAME_WINDOW frames
+     * frameCount       the number of frames measured so far
+     * sleepMean...     running estimate (mean & variance) of how long a SLEEP_CHUNK sleep actually takes
+     */
+    private static final int FRAME_WINDOW = 128;
+    private static final long SLEEP_CHUNK = 1_000_000L;
+    private final long framePeriod;
+    private long lastFrameStart = -1;
+    private final long[] frameTimes = new long[FRAME_WINDOW];
+    private long frameCount = 0;
+    private double sleepMean = SLEEP_CHUNK * 1.5, sleepM2 = 0;
+    private long sleepCount = 1;
+
+    /**
+     * Creates a frame scheduler
+     * @param framePeriod is the target time between frames, in seconds, <= 0 for no limit
+     */
+    public FrameScheduler(double framePeriod) {
+        this.framePeriod = (long) (framePeriod * 1e9);
+    }
+
+    /**
+     * Marks the start of a frame, adding the time since the last frame to the statistics
+     */
+    public void beginFrame() {
+        long now = System.nanoTime();
+        if(lastFrameStart >= 0) {
+            frameTimes[(int) (frameCount % FRAME_WINDOW)] = now - lastFrameStart;
+            frameCount++;
+        }
+        lastFrameStart = now;
+    }
+
+    /**
+     * @param fallbackPeriod is the frame length to assume (in nanoseconds) if there is no frame rate limit
+     * @return the time (System.nanoTime) the current frame should be done by
+     */
+    public long getFrameDeadline(long fallbackPeriod) {
+        return lastFrameStart + (framePeriod > 0 ? framePeriod : fallbackPeriod);
+    }
+
+    /**
+     * Waits until the next frame is due, if there is a frame rate limit
+     * Sleeps while the remaining time is comfortably longer than a sleep usually takes, then spins the rest
+     */
+    public void endFrame() {
+        if(framePeriod <= 0 || lastFrameStart < 0)
+            return;
+        long target = lastFrameStart + framePeriod;
+
+        long remaining;
+        while((remaining = target - System.nanoTime()) > sleepMean + Math.sqrt(sleepM2 / sleepCount)) {
+            long start = System.nanoTime();
+            LockSupport.parkNanos(SLEEP_CHUNK);
+            recordSleep(System.nanoTime() - start);
+        }
+
+        while(target - System.nanoTime() > 0)
+            Thread.onSpinWait();
+    }
+
+    /**
+     * Adds a measured sleep to the running estimate of sleep length (Welford's algorithm)
+     * @param duration is how long the sleep took, in nanoseconds
+     */
+    private void recordSleep(long duration) {
+        sleepCount++;
+        double delta = duration - sleepMean;
+        sleepMean += delta / sleepCount;
+        sleepM2 += delta * (duration - sleepMean);
+        // don't let ancient measurements drown out changes in the os timer
+        if(sleepCount > 1000) {
+            sleepCount = 500;
+            sleepM2 /= 2;
+        }
+    }
+
+    /**
+     * @return the number of frames in the statistics window
+     */
+    private int windowSize() {
+        return (int) Math.min(frameCount, FRAME_WINDOW);
+    }
+
+    /**
+     * @return the duration of the last frame, in seconds
+     */
+    public double getFrameTime() {
+        if(frameCount == 0)
+            return 0;
+        return frameTimes[(int) ((frameCount - 1) % FRAME_WINDOW)] / 1e9;
+    }
+
+    /**
+     * @return the average frame duration over the statistics window, in seconds
+     */
+    public double getAverageFrameTime() {
+        int size = windowSize();
+        if(size == 0)
+            return 0;
+        long total = 0;
+        for(int x = 0; x < size; x++)
+            total += frameTimes[x];
+        return total / (double) size / 1e9;
+    }
+
+    /**
+     * @return the longest frame duration over the statistics window, in seconds
+     */
+    public double getMaxFrameTime() {
+        long max = 0;
+        for(int x = 0; x < windowSize(); x++)
+            max = Math.max(max, frameTimes[x]);
+        return max / 1e9;
+    }
+
+    /**
+     * @return the standard deviation of the frame duration over the statistics window (the jitter), in seconds
+     */
+    public double getFrameTimeDeviation() {
+        int size = windowSize();
+        if(size == 0)
+            return 0;
+        double mean = getAverageFrameTime() * 1e9;
+        double sum = 0;
+        for(int x = 0; x < size; x++)
+            sum += (frameTimes[x] - mean) * (frameTimes[x] - mean);
+        return Math.sqrt(sum / size) / 1e9;
+    }
+
+    /**
+     * @return how far the last frame was from the target frame time (or the average, with no limit), in seconds
+     */
+    public double getLastFrameJitter() {
+        double expected = framePeriod > 0 ? framePeriod / 1e9 : getAverageFrameTime();
+        return Math.abs(getFrameTime() - expected);
+    }
+}
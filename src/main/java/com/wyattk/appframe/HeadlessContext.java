@@ -0,0 +1,235 @@
+package com.wyattk.appframe;
+
+import com.wyattk.appframe.profiling.MemoryRegistry;
+import com.wyattk.appframe.util.IUsesNativeMemory;
+import com.wyattk.appframe.util.Logger;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.egl.EGL;
+import org.lwjgl.egl.EGLCapabilities;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.system.Configuration;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.egl.EGL10.*;
+import static org.lwjgl.egl.EGL12.*;
+import static org.lwjgl.egl.EGL14.*;
+import static org.lwjgl.egl.EGL15.*;
+import static org.lwjgl.egl.EXTPlatformBase.*;
+import static org.lwjgl.opengl.GL42.*;
+
+/**
+ * OpenGL context without a window, for running on machines without a display (build servers, benchmarks, tests)
+ * Made through EGL, surfaceless when the driver supports it (Mesa does, including llvmpipe with no gpu) and with a
+ *   small pbuffer otherwise. Everything is drawn into a framebuffer object the size of the would-be window,
+ *   which can be read back with readPixels
+ * Used by Appframe in headless mode (see Appframe.Properties.setHeadless), and usable on its own for anything that
+ *   just needs a current context
+ */
+public class HeadlessContext implements IUsesNativeMemory {
+
+    /**
+     * EGL_PLATFORM_SURFACELESS_MESA    the platform of EGL_MESA_platform_surfaceless, which needs no display server
+     * width, height    the size of the framebuffer
+     * display          the EGL display, EGL_NO_DISPLAY before creation
+     * context          the EGL context
+     * surface          the pbuffer surface, EGL_NO_SURFACE when the context is surfaceless
+     * framebuffer      the framebuffer object everything is drawn into
+     * colorBuffer      the color renderbuffer of the framebuffer
+     * depthBuffer      the depth renderbuffer of the framebuffer
+     * memory           the account the context reports its framebuffer's memory to
+     */
+    private static final int EGL_PLATFORM_SURFACELESS_MESA = 0x31DD;
+    private final int width, height;
+    private long display = EGL_NO_DISPLAY, context = EGL_NO_CONTEXT, surface = EGL_NO_SURFACE;
+    private int framebuffer = 0, colorBuffer = 0, depthBuffer = 0;
+    private final MemoryRegistry.Account memory;
+
+    /**
+     * @param width is the width of the framebuffer to draw into
+     * @param height is the height of the framebuffer to draw into
+     */
+    public HeadlessContext(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.memory = MemoryRegistry.open("HeadlessContext", this);
+    }
+
+    /**
+     * Creates the context, makes it current on the calling thread & binds the framebuffer for drawing
+     */
+    public void create() {
+        // OpenGL functions have to come from EGL rather than the default (GLX/WGL) library, which may not even exist
+        Configuration.OPENGL_EXPLICIT_INIT.set(true);
+        if(GL.getFunctionProvider() != null)
+            GL.destroy();
+
+        display = getDisplay();
+        try(MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer major = stack.mallocInt(1), minor = stack.mallocInt(1);
+            if(!eglInitialize(display, major, minor))
+                throw new IllegalStateException("Unable to initialize EGL, error " + eglGetError());
+            EGLCapabilities caps = EGL.createDisplayCapabilities(display, major.get(0), minor.get(0));
+            Logger.log("EGL " + major.get(0) + "." + minor.get(0) + " from " + eglQueryString(display, EGL_VENDOR));
+
+            if(!eglBindAPI(EGL_OPENGL_API))
+                throw new IllegalStateException("EGL cannot create OpenGL contexts, error " + eglGetError());
+
+            IntBuffer configAttributes = stack.ints(
+                    EGL_SURFACE_TYPE, EGL_PBUFFER_BIT,
+                    EGL_RENDERABLE_TYPE, EGL_OPENGL_BIT,
+                    EGL_RED_SIZE, 8,
+                    EGL_GREEN_SIZE, 8,
+                    EGL_BLUE_SIZE, 8,
+                    EGL_ALPHA_SIZE, 8,
+                    EGL_DEPTH_SIZE, 24,
+                    EGL_NONE
+            );
+            PointerBuffer configs = stack.mallocPointer(1);
+            IntBuffer configCount = stack.mallocInt(1);
+            if(!eglChooseConfig(display, configAttributes, configs, configCount) || configCount.get(0) == 0)
+                throw new IllegalStateException("No EGL config for headless OpenGL rendering, error " + eglGetError());
+            long config = configs.get(0);
+
+            // same version as the window asks for, drivers hand out the newest compatible core context
+            IntBuffer contextAttributes = stack.ints(
+                    EGL_CONTEXT_MAJOR_VERSION, 3,
+                    EGL_CONTEXT_MINOR_VERSION, 2,
+                    EGL_CONTEXT_OPENGL_PROFILE_MASK, EGL_CONTEXT_OPENGL_CORE_PROFILE_BIT,
+                    EGL_NONE
+            );
+            context = eglCreateContext(display, config, EGL_NO_CONTEXT, contextAttributes);
+            if(context == EGL_NO_CONTEXT)
+                throw new IllegalStateException("Unable to create EGL context, error " + eglGetError());
+
+            if(!caps.EGL_KHR_surfaceless_context) {
+                surface = eglCreatePbufferSurface(display, config, stack.ints(EGL_WIDTH, 1, EGL_HEIGHT, 1, EGL_NONE));
+                if(surface == EGL_NO_SURFACE)
+                    throw new IllegalStateException("Unable to create EGL pbuffer, error " + eglGetError());
+            }
+            if(!eglMakeCurrent(display, surface, surface, context))
+                throw new IllegalStateException("Unable to make EGL context current, error " + eglGetError());
+        }
+
+        GL.create(EGL.getFunctionProvider());
+        GL.createCapabilities();
+        Logger.log("Headless OpenGL " + glGetString(GL_VERSION) + " on " + glGetString(GL_RENDERER));
+
+        createFramebuffer();
+    }
+
+    /**
+     * @return the display of the surfaceless platform if there is one, the default display otherwise
+     */
+    private static long getDisplay() {
+        String clientExtensions = eglQueryString(EGL_NO_DISPLAY, EGL_EXTENSIONS);
+        if(clientExtensions != null && clientExtensions.contains("EGL_MESA_platform_surfaceless")
+                && EGL.getCapabilities().EGL_EXT_platform_base) {
+            long display = eglGetPlatformDisplayEXT(EGL_PLATFORM_SURFACELESS_MESA, EGL_DEFAULT_DISPLAY, (IntBuffer) null);
+            if(display != EGL_NO_DISPLAY)
+                return display;
+        }
+        long display = eglGetDisplay(EGL_DEFAULT_DISPLAY);
+        if(display == EGL_NO_DISPLAY)
+            throw new IllegalStateException("No EGL display for headless rendering");
+        return display;
+    }
+
+    /**
+     * Creates the framebuffer object (color & depth) & binds it for drawing
+     */
+    private void createFramebuffer() {
+        colorBuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, colorBuffer);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_RGBA8, width, height);
+
+        depthBuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, depthBuffer);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+        glBindRenderbuffer(GL_RENDERBUFFER, 0);
+
+        framebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, colorBuffer);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBuffer);
+        int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        if(status != GL_FRAMEBUFFER_COMPLETE)
+            throw new IllegalStateException("Headless framebuffer is incomplete, status " + status);
+
+        glDrawBuffer(GL_COLOR_ATTACHMENT0);
+        glReadBuffer(GL_COLOR_ATTACHMENT0);
+        glViewport(0, 0, width, height);
+        // RGBA8 color & 24 bit depth, which drivers pad to 32 bits
+        memory.setGpuBytes(8L * width * height);
+    }
+
+    /**
+     * Stands in for swapping buffers at the end of a frame, there is nothing to show so it only flushes the commands
+     */
+    public void swap() {
+        glFlush();
+    }
+
+    /**
+     * Reads back the framebuffer, waiting for any drawing to finish
+     * Must be called on the render thread
+     * @return the pixels as tightly packed RGBA bytes, bottom row first. Must be freed with MemoryUtil.memFree
+     */
+    public ByteBuffer readPixels() {
+        ByteBuffer pixels = MemoryUtil.memAlloc(width * height * 4);
+        glPixelStorei(GL_PACK_ALIGNMENT, 1);
+        glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+        return pixels;
+    }
+
+    @Override
+    public long getGpuBytes() {
+        return memory.getGpuBytes();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Deletes the framebuffer & destroys the context
+     */
+    @Override
+    public void cleanup() {
+        Logger.verb("Cleaning {}...", this);
+        memory.close();
+        if(display == EGL_NO_DISPLAY)
+            return;
+
+        if(context != EGL_NO_CONTEXT) {
+            if(framebuffer != 0) {
+                glBindFramebuffer(GL_FRAMEBUFFER, 0);
+                glDeleteFramebuffers(framebuffer);
+                glDeleteRenderbuffers(colorBuffer);
+                glDeleteRenderbuffers(depthBuffer);
+                framebuffer = 0;
+            }
+            GL.setCapabilities(null);
+            eglMakeCurrent(display, EGL_NO_SURFACE, EGL_NO_SURFACE, EGL_NO_CONTEXT);
+            eglDestroyContext(display, context);
+            context = EGL_NO_CONTEXT;
+        }
+        if(surface != EGL_NO_SURFACE) {
+            eglDestroySurface(display, surface);
+            surface = EGL_NO_SURFACE;
+        }
+        eglTerminate(display);
+        display = EGL_NO_DISPLAY;
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + hashCode() + " (" + width + "x" + height + ")";
+    }
+}
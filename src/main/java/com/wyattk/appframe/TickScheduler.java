@@ -0,0 +1,154 @@
+package com.wyattk.appframe;
+
+import com.wyattk.appframe.profiling.Profiler;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Runs the registered tick tasks, each at its own rate
+ * Every frame each task is owed the time since the last frame, and runs as many whole ticks as that covers
+ *   (capped, so a slow frame can't snowball into ever more ticks)
+ * New tasks start at staggered phases, so tasks with the same (low) rate don't all land on the same frame
+ */
+class TickScheduler {
+
+    /**
+     * PHASE_STEP       the golden ratio conjugate, spreads task phases as evenly as possible however many there are
+     * MAX_DEFERRALS    the most frames in a row a task can be deferred before it runs regardless
+     * BY_PRIORITY      orders tasks from highest to lowest priority
+     * tasks            the registered tasks in priority order, replaced (never changed) so it can be read without locks
+     * maxTicksPerFrame the most ticks a task runs in one frame, any more are dropped
+     * addedCount       the number of tasks added so far, for staggering
+     * lastRun          the time (System.nanoTime) of the last run, -1 before the first
+     */
+    private static final double PHASE_STEP = 0.6180339887498949;
+    private static final int MAX_DEFERRALS = 60;
+    private static final Comparator<TickTask> BY_PRIORITY = Comparator.comparingInt(TickTask::getPriority).reversed();
+    private volatile TickTask[] tasks = new TickTask[0];
+    private final int maxTicksPerFrame;
+    private int addedCount = 0;
+    private long lastRun = -1;
+
+    /**
+     * @param maxTicksPerFrame is the most ticks a task runs in one frame
+     */
+    TickScheduler(int maxTicksPerFrame) {
+        this.maxTicksPerFrame = maxTicksPerFrame;
+    }
+
+    /**
+     * Registers a task, safe to call from any thread (including from inside a tick)
+     * @param task is the task to add
+     */
+    synchronized void add(TickTask task) {
+        // stagger the phase of every task after the first
+        double phase = (addedCount * PHASE_STEP) % 1d;
+        task.accumulator = (long) (phase * task.getPeriod());
+        addedCount++;
+
+        TickTask[] newTasks = Arrays.copyOf(tasks, tasks.length + 1);
+        newTasks[tasks.length] = task;
+        Arrays.sort(newTasks, BY_PRIORITY);
+        tasks = newTasks;
+        task.scheduler = this;
+    }
+
+    /**
+     * Sorts the tasks again after the priority of one changed (see TickTask.setPriority)
+     * The tasks of a run already going keep their order, the new one is used from the next run
+     */
+    synchronized void reorder() {
+        TickTask[] newTasks = tasks.clone();
+        Arrays.sort(newTasks, BY_PRIORITY);
+        tasks = newTasks;
+    }
+
+    /**
+     * Unregisters a task, safe to call from any thread (including from inside a tick)
+     * @param task is the task to remove
+     */
+    synchronized void remove(TickTask task) {
+        tasks = Arrays.stream(tasks).filter((TickTask t) -> t != task).toArray(TickTask[]::new);
+        if(task.scheduler == this)
+            task.scheduler = null;
+    }
+
+    /**
+     * Adds the time since the last run to every task, then runs the (non-idle) tasks that are owed ticks
+     * @param appframe is the appframe running the tasks
+     * @param profiler is the profiler to time each task with
+     * @param deadline is the time (System.nanoTime) the frame should be done by, used for deferring budgeted tasks
+     * @return the number of ticks run
+     */
+    int run(Appframe appframe, Profiler profiler, long deadline) {
+        long now = System.nanoTime();
+        long elapsed = lastRun < 0 ? 0 : now - lastRun;
+        lastRun = now;
+
+        TickTask[] current = tasks;
+        for(TickTask task: current)
+            task.accumulator += elapsed;
+        return runTasks(appframe, profiler, current, deadline, false);
+    }
+
+    /**
+     * Runs the idle tasks that are owed ticks, if there is time left before the deadline
+     * Meant to be called after the frame's real work is done
+     * @param appframe is the appframe running the tasks
+     * @param profiler is the profiler to time each task with
+     * @param deadline is the time (System.nanoTime) the frame should be done by
+     * @return the number of ticks run
+     */
+    int runIdle(Appframe appframe, Profiler profiler, long deadline) {
+        return runTasks(appframe, profiler, tasks, deadline, true);
+    }
+
+    /**
+     * Runs the tasks of one kind (idle or not) that are owed ticks
+     * @param appframe is the appframe running the tasks
+     * @param profiler is the profiler to time each task with
+     * @param current is the tasks to look through
+     * @param deadline is the time (System.nanoTime) the frame should be done by
+     * @param idle tells whether to run the idle tasks or the rest
+     * @return the number of ticks run
+     */
+    private int runTasks(Appframe appframe, Profiler profiler, TickTask[] current, long deadline, boolean idle) {
+        int ticksRun = 0;
+        for(TickTask task: current) {
+            if(task.isIdle() != idle)
+                continue;
+
+            long period = task.getPeriod();
+            long ticks = task.accumulator / period;
+            long maxTicks = idle ? 1 : maxTicksPerFrame;
+            if(ticks > maxTicks) {
+                task.recordDropped(ticks - maxTicks);
+                task.accumulator -= (ticks - maxTicks) * period;
+                ticks = maxTicks;
+            }
+            if(ticks == 0)
+                continue;
+
+            // idle tasks need spare time, budgeted tasks need their budget, both wait for a later frame otherwise
+            // (but only so long, a task that never gets to run is worse than a late frame)
+            if((idle || task.getBudget() > 0) && task.consecutiveDeferrals < MAX_DEFERRALS) {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0 || remaining < task.getBudget()) {
+                    task.recordDeferred();
+                    continue;
+                }
+            }
+
+            profiler.beginScope(task.getName());
+            long start = System.nanoTime();
+            for(long x = 0; x < ticks; x++)
+                task.call(appframe);
+            task.accumulator -= ticks * period;
+            task.recordRun(System.nanoTime() - start);
+            profiler.endScope();
+            ticksRun += ticks;
+        }
+        return ticksRun;
+    }
+}
@@ -0,0 +1,163 @@
+package com.wyattk.appframe;
+
+/**
+ * A function the Appframe calls at a fixed rate, registered with Appframe.addTickTask
+ * Tasks run in order of priority (highest first) each frame, each getting as many ticks as its rate is owed
+ *
+ * Tasks with a time budget are deferred to a later frame when running them would push the frame past its deadline,
+ *   idle tasks only run in whatever time is left at the end of a frame
+ */
+public class TickTask {
+
+    /**
+     * name             the name of the task, for debugging
+     * function         the function run every tick
+     * period           the time between ticks, in nanoseconds
+     * priority         the order tasks run in each frame, higher runs first
+     * budget           the time (in nanoseconds) a frame must have left for the task to run, 0 for no budget
+     * idle             tells if the task only runs with time left over at the end of a frame
+     * accumulator      the time owed to the task that has not been ticked yet, in nanoseconds
+     * lastRunTime      how long the task's ticks took the last frame it ran, in nanoseconds
+     * droppedTicks     the number of ticks dropped because the task fell too far behind
+     * deferredFrames   the number of frames the task was put off because the frame was running late
+     * consecutiveDeferrals the number of frames in a row the task has been put off
+     * scheduler        the scheduler the task is registered with, null if it isn't
+     */
+    private final String name;
+    private final Appframe.appFunction function;
+    private long period = 1_000_000_000L / 60;
+    private int priority = 0;
+    private long budget = 0;
+    private boolean idle = false;
+    long accumulator = 0;
+    int consecutiveDeferrals = 0;
+    volatile TickScheduler scheduler;
+    private volatile long lastRunTime = 0, droppedTicks = 0, deferredFrames = 0;
+
+    /**
+     * Creates a tick task running at 60 ticks per second with priority 0 and no budget
+     * @param name is the name of the task, for debugging
+     * @param function is the function to run every tick
+     */
+    public TickTask(String name, Appframe.appFunction function) {
+        this.name = name;
+        this.function = function;
+    }
+
+    /**
+     * @param ticksPerSecond is how many times per second the task should run
+     * @return self for chaining
+     */
+    public TickTask setRate(double ticksPerSecond) {
+        if(ticksPerSecond <= 0)
+            throw new IllegalArgumentException("Tick rate must be positive, given: " + ticksPerSecond);
+        this.period = (long) (1e9 / ticksPerSecond);
+        return this;
+    }
+
+    /**
+     * Can be changed while the task is registered, it's moved to its new place from the next frame on
+     * @param priority is the order tasks run in each frame, higher runs first
+     * @return self for chaining
+     */
+    public TickTask setPriority(int priority) {
+        this.priority = priority;
+        TickScheduler registered = scheduler;
+        if(registered != null)
+            registered.reorder();
+        return this;
+    }
+
+    /**
+     * Gives the task a time budget, so it is deferred to a later frame when the frame doesn't have that much time left
+     * @param seconds is the time a frame must have left for the task to run, <= 0 for no budget (always runs)
+     * @return self for chaining
+     */
+    public TickTask setBudget(double seconds) {
+        this.budget = seconds > 0 ? (long) (seconds * 1e9) : 0;
+        return this;
+    }
+
+    /**
+     * Makes the task only run with time left over at the end of a frame (at most once per frame)
+     * Meant for background housekeeping that can wait
+     * @return self for chaining
+     */
+    public TickTask runWhenIdle() {
+        this.idle = true;
+        return this;
+    }
+
+    /**
+     * Runs the task's function
+     * @param appframe is the appframe running the task
+     */
+    void call(Appframe appframe) {
+        function.call(appframe);
+    }
+
+    void recordRun(long duration) {
+        lastRunTime = duration;
+        consecutiveDeferrals = 0;
+    }
+
+    void recordDropped(long ticks) {
+        droppedTicks += ticks;
+    }
+
+    void recordDeferred() {
+        deferredFrames++;
+        consecutiveDeferrals++;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the time between ticks, in nanoseconds
+     */
+    long getPeriod() {
+        return period;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the time a frame must have left for the task to run, in nanoseconds, 0 for no budget
+     */
+    long getBudget() {
+        return budget;
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * @return how long the task's ticks took the last frame it ran, in seconds
+     */
+    public double getLastRunTime() {
+        return lastRunTime / 1e9;
+    }
+
+    /**
+     * @return the number of ticks dropped because the task fell too far behind
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    /**
+     * @return the number of frames the task was put off because the frame was running late
+     */
+    public long getDeferredFrames() {
+        return deferredFrames;
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + name;
+    }
+}
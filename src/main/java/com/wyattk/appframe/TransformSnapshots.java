@@ -0,0 +1,235 @@
+package com.wyattk.appframe;
+
+import com.wyattk.appframe.mesh.Mesh;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffer of mesh transforms, handed from the simulation thread to the render thread
+ * The simulation thread fills the back buffer after every tick and publishes it, the render thread takes the
+ *   newest published buffer whenever it starts a frame. Neither thread ever waits on the other
+ * Each snapshot holds the transforms from the last two ticks, so the render thread can interpolate between them
+ * Transforms are interpolated by parts: the translation & scale are blended linearly and the rotation is slerped,
+ *   so a mesh rotating between ticks keeps its size & shape. Shear isn't kept (a sheared transform comes out as
+ *   the closest rotation & scale), and transforms with a zero scale are blended element by element
+ */
+class TransformSnapshots {
+
+    /**
+     * MATRIX_SIZE      the number of floats in a transformation matrix
+     * MIN_SCALE        the smallest scale a transform can have & still be split into parts
+     * SLERP_THRESHOLD  how close (dot product) two rotations have to be to blend them linearly instead of slerping
+     * from, to         the scale (0-2) & rotation quaternion (3-6) of the two transforms being interpolated (render
+     *                  thread only)
+     * FRESH            bit set on the middle index when it holds a snapshot the render thread has not taken yet
+     * INDEX_MASK       mask for getting the buffer index out of the middle index
+     * snapshots        the three buffers
+     * middle           the index of the buffer between the two threads, plus the FRESH bit
+     * back             the index of the buffer the simulation thread is writing to (simulation thread only)
+     * front            the index of the buffer the render thread is reading from (render thread only)
+     * lastTransforms   the transforms published with the last tick (simulation thread only)
+     */
+    private static final int MATRIX_SIZE = 16;
+    private static final float MIN_SCALE = 1e-6f, SLERP_THRESHOLD = 0.9995f;
+    private final float[] from = new float[7], to = new float[7];
+    private static final int FRESH = 0b100, INDEX_MASK = 0b011;
+    private final Snapshot[] snapshots = {new Snapshot(), new Snapshot(), new Snapshot()};
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0, front = 2;
+    private final IdentityHashMap<Mesh, float[]> lastTransforms = new IdentityHashMap<>();
+
+    /**
+     * Copies the current transforms of the given meshes into the back buffer and publishes it
+     * Must only be called from the simulation thread
+     * @param meshes is the meshes to snapshot
+     * @param tickTime is the time (System.nanoTime) the tick finished at
+     */
+    void publish(Collection<Mesh> meshes, long tickTime) {
+        Snapshot snapshot = snapshots[back];
+        snapshot.ensureCapacity(meshes.size());
+        snapshot.tickTime = tickTime;
+
+        int count = 0;
+        for(Mesh mesh: meshes) {
+            if(count == snapshot.meshes.length)
+                snapshot.ensureCapacity(count + 1);
+            float[] current = mesh.getTransformationMatrix();
+            float[] previous = lastTransforms.get(mesh);
+            if(previous == null) {
+                previous = new float[MATRIX_SIZE];
+                System.arraycopy(current, 0, previous, 0, MATRIX_SIZE);
+                lastTransforms.put(mesh, previous);
+            }
+
+            snapshot.meshes[count] = mesh;
+            System.arraycopy(previous, 0, snapshot.previous, count * MATRIX_SIZE, MATRIX_SIZE);
+            System.arraycopy(current, 0, snapshot.current, count * MATRIX_SIZE, MATRIX_SIZE);
+            System.arraycopy(current, 0, previous, 0, MATRIX_SIZE);
+            count++;
+        }
+        // don't hold on to meshes that were removed
+        for(int x = count; x < snapshot.count; x++)
+            snapshot.meshes[x] = null;
+        snapshot.count = count;
+        if(lastTransforms.size() > count)
+            lastTransforms.keySet().retainAll(meshes);
+
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Takes the newest published snapshot (if there is a new one) and writes the interpolated transforms
+     * into the render matrices of the meshes
+     * Must only be called from the render thread
+     * @param now is the current time (System.nanoTime)
+     * @param tickPeriod is the time between ticks, in nanoseconds
+     */
+    void apply(long now, long tickPeriod) {
+        if((middle.get() & FRESH) != 0)
+            front = middle.getAndSet(front) & INDEX_MASK;
+
+        Snapshot snapshot = snapshots[front];
+        float alpha = tickPeriod > 0 ? (float) (now - snapshot.tickTime) / tickPeriod : 1f;
+        alpha = Math.max(0f, Math.min(1f, alpha));
+
+        for(int x = 0; x < snapshot.count; x++)
+            interpolate(snapshot.previous, snapshot.current, x * MATRIX_SIZE, alpha, snapshot.meshes[x].getRenderMatrix());
+    }
+
+    /**
+     * Interpolates between two transforms by parts (see the class comment)
+     * Must only be called from the render thread
+     * @param previous is the packed transforms to interpolate from
+     * @param current is the packed transforms to interpolate to
+     * @param offset is the index of the transform in both
+     * @param alpha is how far to go from previous to current, 0 to 1
+     * @param out is the matrix to write the result into
+     */
+    void interpolate(float[] previous, float[] current, int offset, float alpha, float[] out) {
+        // translation & the projective row are blended as is
+        for(int y = 0; y < MATRIX_SIZE; y++)
+            out[y] = previous[offset + y] + (current[offset + y] - previous[offset + y]) * alpha;
+        if(!decompose(previous, offset, from) || !decompose(current, offset, to))
+            return;
+
+        // scale
+        for(int c = 0; c < 3; c++)
+            from[c] += (to[c] - from[c]) * alpha;
+
+        // rotation, along the shorter way around
+        float dot = from[3] * to[3] + from[4] * to[4] + from[5] * to[5] + from[6] * to[6];
+        float sign = dot < 0 ? -1 : 1;
+        dot *= sign;
+        float w0 = 1 - alpha, w1 = alpha;
+        if(dot < SLERP_THRESHOLD) {
+            double theta = Math.acos(dot), sin = Math.sin(theta);
+            w0 = (float) (Math.sin((1 - alpha) * theta) / sin);
+            w1 = (float) (Math.sin(alpha * theta) / sin);
+        }
+        w1 *= sign;
+        float qx = w0 * from[3] + w1 * to[3], qy = w0 * from[4] + w1 * to[4];
+        float qz = w0 * from[5] + w1 * to[5], qw = w0 * from[6] + w1 * to[6];
+        float length = (float) Math.sqrt(qx * qx + qy * qy + qz * qz + qw * qw);
+        qx /= length;
+        qy /= length;
+        qz /= length;
+        qw /= length;
+
+        // back to the 3x3 part, column c is at out[4c] to out[4c + 2]
+        float sx = from[0], sy = from[1], sz = from[2];
+        out[0] = (1 - 2 * (qy * qy + qz * qz)) * sx;
+        out[1] = 2 * (qx * qy + qz * qw) * sx;
+        out[2] = 2 * (qx * qz - qy * qw) * sx;
+        out[4] = 2 * (qx * qy - qz * qw) * sy;
+        out[5] = (1 - 2 * (qx * qx + qz * qz)) * sy;
+        out[6] = 2 * (qy * qz + qx * qw) * sy;
+        out[8] = 2 * (qx * qz + qy * qw) * sz;
+        out[9] = 2 * (qy * qz - qx * qw) * sz;
+        out[10] = (1 - 2 * (qx * qx + qy * qy)) * sz;
+    }
+
+    /**
+     * Splits the 3x3 part of a transform into its scale & rotation
+     * @param m is the packed transforms
+     * @param o is the index of the transform in m
+     * @param out is where to put the scale (0-2) & rotation quaternion (3-6, x y z w)
+     * @return false if the transform has a zero scale & can't be split
+     */
+    private static boolean decompose(float[] m, int o, float[] out) {
+        for(int c = 0; c < 3; c++) {
+            float x = m[o + 4 * c], y = m[o + 4 * c + 1], z = m[o + 4 * c + 2];
+            out[c] = (float) Math.sqrt(x * x + y * y + z * z);
+            if(out[c] < MIN_SCALE)
+                return false;
+        }
+        // a mirrored transform goes into the scale, so what's left is a rotation
+        float determinant = m[o] * (m[o + 5] * m[o + 10] - m[o + 6] * m[o + 9])
+                - m[o + 4] * (m[o + 1] * m[o + 10] - m[o + 2] * m[o + 9])
+                + m[o + 8] * (m[o + 1] * m[o + 6] - m[o + 2] * m[o + 5]);
+        if(determinant < 0)
+            out[0] = -out[0];
+
+        // rRC is row R, column C of the rotation
+        float r00 = m[o] / out[0], r10 = m[o + 1] / out[0], r20 = m[o + 2] / out[0];
+        float r01 = m[o + 4] / out[1], r11 = m[o + 5] / out[1], r21 = m[o + 6] / out[1];
+        float r02 = m[o + 8] / out[2], r12 = m[o + 9] / out[2], r22 = m[o + 10] / out[2];
+        float trace = r00 + r11 + r22, s;
+        if(trace > 0) {
+            s = (float) Math.sqrt(trace + 1) * 2;
+            out[3] = (r21 - r12) / s;
+            out[4] = (r02 - r20) / s;
+            out[5] = (r10 - r01) / s;
+            out[6] = 0.25f * s;
+        } else if(r00 > r11 && r00 > r22) {
+            s = (float) Math.sqrt(1 + r00 - r11 - r22) * 2;
+            out[3] = 0.25f * s;
+            out[4] = (r01 + r10) / s;
+            out[5] = (r02 + r20) / s;
+            out[6] = (r21 - r12) / s;
+        } else if(r11 > r22) {
+            s = (float) Math.sqrt(1 + r11 - r00 - r22) * 2;
+            out[3] = (r01 + r10) / s;
+            out[4] = 0.25f * s;
+            out[5] = (r12 + r21) / s;
+            out[6] = (r02 - r20) / s;
+        } else {
+            s = (float) Math.sqrt(1 + r22 - r00 - r11) * 2;
+            out[3] = (r02 + r20) / s;
+            out[4] = (r12 + r21) / s;
+            out[5] = 0.25f * s;
+            out[6] = (r10 - r01) / s;
+        }
+        return true;
+    }
+
+    /**
+     * A single buffer of the triple buffer
+     * meshes       the meshes in the snapshot
+     * previous     the transforms of the meshes from the tick before, packed one after the other
+     * current      the transforms of the meshes from the latest tick, packed one after the other
+     * count        the number of meshes in the snapshot
+     * tickTime     the time (System.nanoTime) the latest tick finished at
+     */
+    private static class Snapshot {
+        private Mesh[] meshes = new Mesh[0];
+        private float[] previous = new float[0], current = new float[0];
+        private int count = 0;
+        private long tickTime = 0;
+
+        private void ensureCapacity(int meshCount) {
+            if(meshes.length >= meshCount)
+                return;
+            int capacity = Math.max(meshCount, meshes.length * 2);
+            Mesh[] newMeshes = new Mesh[capacity];
+            System.arraycopy(meshes, 0, newMeshes, 0, meshes.length);
+            meshes = newMeshes;
+            float[] newPrevious = new float[capacity * MATRIX_SIZE], newCurrent = new float[capacity * MATRIX_SIZE];
+            System.arraycopy(previous, 0, newPrevious, 0, previous.length);
+            System.arraycopy(current, 0, newCurrent, 0, current.length);
+            previous = newPrevious;
+            current = newCurrent;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.wyattk.appframe.mesh;
 
+import com.wyattk.appframe.profiling.MemoryRegistry;
+import com.wyattk.appframe.profiling.RenderStats;
 import com.wyattk.appframe.shader.Shader;
 import com.wyattk.appframe.shader.ShaderAttribute;
+import com.wyattk.appframe.util.Color;
+import com.wyattk.appframe.util.FrameAllocator;
 import com.wyattk.appframe.util.IUsesNativeMemory;
 import com.wyattk.appframe.util.Logger;
 import org.lwjgl.system.MemoryUtil;
@@ -10,12 +14,20 @@ import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.lwjgl.opengl.GL45.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
 import static com.wyattk.appframe.util.VecMath.*;
 
 /**
  * Class for making the creation of shaped in OpenGl easier
+ * Vertex data is kept either in java arrays (the default) or in native memory (see MeshBuilder.nativeStorage), which
+ *   the gc never scans and which is handed to OpenGL as-is when uploading, without a staging copy. Either way it can
+ *   be read a vertex at a time through a VertexView
+ * A mesh that is all one color can keep it as a uniform color (see MeshBuilder.setUniformColor): a constant color
+ *   attribute set before each draw rather than a color per vertex in a vbo, so recoloring it costs nothing
  */
 public class Mesh implements IUsesNativeMemory, AutoCloseable {
 
@@ -26,38 +38,70 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
      * idxVboId         the id of the vertex buffer object storing index order data
      * staticVboId      the id of the vertex buffer object containing all static mesh data
      * staticShaderA... a list of shader attributes that should be accessing static data
-     * staticMeshData   an already-condensed list of data for the static vbo to use (saves time)
+     * staticMeshData   an already-condensed buffer of data for the static vbo to use (saves time)
      * dynamicVboIds    a map of shader attributes depending on dynamic data to the vbo for said attribute
-     * positions        the positions of each vertex in the mesh as a flat array
-     * colors           the color of each vertex in the mesh as a flat array
+     * vertexPositions  the positions of each vertex in the mesh, flat
+     * colors           the color of each vertex in the mesh, flat, or just the one color with a uniform color
+     * normals          the normal of each vertex in the mesh, flat
      * indices          the order in which the vertices are drawn
-     * isOnGpu          describes if the mesh data is on the gpu or not
+     *                  Buffers wrap java arrays, or are slices of nativeBlock with native storage
+     * nativeBlock      the address of the native memory holding the vertex data & indices, NULL if kept in arrays
+     * uploadLock       held while an upload is prepared (maybe on a worker), so cleanup can't free the data under it
+     * state            describes if the mesh data is on the gpu, on its way there, or not
+     * dataVersion      counts changes to the dynamic data, used to catch changes made while an upload was waiting
+     * loadGeneration   counts loads, only an upload made for the latest one may complete (see isCurrent)
+     * positionVersion  counts changes to the position (& normal) data
+     * colorVersion     counts changes to the color data
+     * attributeData    the data of computed attributes (ones with no stored data), kept until the data they depend
+     *                  on changes. Filled from worker threads too, see getAttributeData
      * blendColors      describes if the mesh should alpha blend (takes away performance)
      * positionValue... describes if this mesh's position values should change
      * colorValuesCh... describes if this mesh's color values should change
+     * uniformColor     tells if the mesh is one color, kept as a constant attribute instead of per vertex
      * shader           the shader that the mesh currently uses
+     * transformationMatrix the transform of the mesh, changed by the application
+     * renderMatrix     the transform the mesh is drawn with in threaded mode, interpolated between ticks
+     * visible          tells if the mesh should be drawn, meshes that aren't can be evicted from the gpu
+     * gpuBytes         the number of bytes the mesh takes up on the gpu, 0 when not resident
+     * lastDrawnFrame   the frame the mesh was last drawn in, counted by the residency manager
+     * memory           the account the mesh reports its memory to
      */
     private final int  vertexCount, drawMode;
     private int vaoId, idxVboId, staticVboId = -1;
     private final LinkedList<ShaderAttribute> staticShaderAttributes = new LinkedList<>();
-    private float[] staticMeshData;
+    private FloatBuffer staticMeshData;
     private final HashMap<ShaderAttribute, Integer> dynamicVboIds = new HashMap<>();
-    private float[] vertexPositions, colors, normals;
+    private FloatBuffer vertexPositions, colors, normals;
     private final HashMap<ShaderAttribute, Integer> attributeIdx = new HashMap<>();
-    private final int[] indices;
-    private boolean isOnGpu = false, blendColors = false;
-    private final boolean positionValuesChange, colorValuesChange;
+    private final IntBuffer indices;
+    private long nativeBlock = NULL;
+    private final Object uploadLock = new Object();
+    private volatile State state = State.UNLOADED;
+    private volatile int dataVersion = 0;
+    private volatile int loadGeneration = 0;
+    private volatile int positionVersion = 0, colorVersion = 0;
+    private final Map<ShaderAttribute, AttributeData> attributeData = new ConcurrentHashMap<>();
+    private boolean blendColors = false;
+    private final boolean positionValuesChange, colorValuesChange, uniformColor;
     private Shader shader;
     private float[] transformationMatrix = IdentityMat(4);
+    private float[] renderMatrix;
+    private volatile boolean visible = true;
+    private long gpuBytes = 0;
+    private long lastDrawnFrame = -1;
+    private final MemoryRegistry.Account memory;
 
     /**
      * Creates a mesh and does the OpenGL setup for getting mesh data to the GPU
      * @param drawMode the OpenGL draw mode to draw the mesh with
      * @param vertexPositions is an array of floats following the pattern {x0, y0, z0, x1, y1, z1, ... xn, yn, zn}
      * @param colors is an array of floats following the pattern {r0, b0, g0, a0, r1, b1, g1, a1, ... rn, gn, bn, an}
+     *               or just {r, g, b, a} with a uniform color
      * @param indices is an array of (int) indices to use, in order, to draw the mesh. {1, 2} would correspond to positions[0:2], positions[3:5]
      * @param positionValuesChange tells if the position values of this mesh can change
      * @param colorValuesChange tells if the color values of this mesh can change
+     * @param nativeStorage tells if the data should be copied into native memory, rather than kept in the arrays given
+     * @param uniformColor tells if colors is one color for the whole mesh, sent as a constant attribute
      */
     Mesh(
             int drawMode,
@@ -66,16 +110,41 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
             float[] normals,
             int[] indices,
             boolean positionValuesChange,
-            boolean colorValuesChange
+            boolean colorValuesChange,
+            boolean nativeStorage,
+            boolean uniformColor
     ){
+        if(uniformColor && colors.length != 4)
+            throw new IllegalArgumentException("A uniform color needs 4 floats, given: " + colors.length);
         this.drawMode = drawMode;
         vertexCount = indices.length;
-        this.vertexPositions = vertexPositions;
-        this.colors = colors;
-        this.normals = normals;
-        this.indices = indices;
         this.positionValuesChange = positionValuesChange;
-        this.colorValuesChange = colorValuesChange;
+        // a uniform color can be changed at any time, so attributes computed from it have to be updatable
+        this.colorValuesChange = colorValuesChange || uniformColor;
+        this.uniformColor = uniformColor;
+        this.memory = MemoryRegistry.open("Mesh", this);
+        if(!nativeStorage) {
+            this.vertexPositions = FloatBuffer.wrap(vertexPositions);
+            // a uniform color is changed in place, so it can't share the caller's array (or other meshes would change too)
+            this.colors = FloatBuffer.wrap(uniformColor ? colors.clone() : colors);
+            this.normals = FloatBuffer.wrap(normals);
+            this.indices = IntBuffer.wrap(indices);
+            return;
+        }
+
+        // one block for everything, sliced up
+        long floats = (long) vertexPositions.length + colors.length + normals.length;
+        long bytes = Float.BYTES * floats + (long) Integer.BYTES * indices.length;
+        nativeBlock = MemoryUtil.nmemAllocChecked(bytes);
+        long address = nativeBlock;
+        this.vertexPositions = MemoryUtil.memFloatBuffer(address, vertexPositions.length).put(0, vertexPositions);
+        address += (long) Float.BYTES * vertexPositions.length;
+        this.colors = MemoryUtil.memFloatBuffer(address, colors.length).put(0, colors);
+        address += (long) Float.BYTES * colors.length;
+        this.normals = MemoryUtil.memFloatBuffer(address, normals.length).put(0, normals);
+        address += (long) Float.BYTES * normals.length;
+        this.indices = MemoryUtil.memIntBuffer(address, indices.length).put(0, indices);
+        countNativeBytes();
     }
 
     /**
@@ -100,13 +169,25 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
     }
 
     /**
-     * Cleans up resources on the GPU that the mesh uses
+     * Cleans up resources on the GPU that the mesh uses, along with its native vertex data if it has any
+     * The mesh can't be used after
      */
     public void cleanup(){
-        Logger.verb("Cleaning " + this + "...");
-        if(isOnGpu)
+        Logger.verb("Cleaning {}...", this);
+        if(state != State.UNLOADED)
             gpuFree();
-        dynamicVboIds.clear();
+        // an upload being prepared on a worker is still reading the data, wait for it to be done
+        synchronized(uploadLock) {
+            dynamicVboIds.clear();
+            if(nativeBlock != NULL) {
+                if(staticMeshData != null)
+                    MemoryUtil.memFree(staticMeshData);
+                staticMeshData = null;
+                MemoryUtil.nmemFree(nativeBlock);
+                nativeBlock = NULL;
+            }
+            memory.close();
+        }
     }
 
     public void close() {
@@ -120,9 +201,14 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
     /**
      * Removes the mesh data from the gpu
      * Cannot remove from the gpu if the data is not there
+     * If the mesh is still waiting in an upload queue, the upload is cancelled instead
      */
     public void gpuFree(){
-        if(!isOnGpu)
+        if(state == State.LOADING) {
+            state = State.UNLOADED;
+            return;
+        }
+        if(state != State.RESIDENT)
             throw new IllegalStateException("Cannot free space if mesh is not on GPU!");
 
         glBindVertexArray(vaoId);
@@ -136,108 +222,198 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
         if(staticVboId != -1) {
             glDeleteBuffers(staticVboId);
             staticVboId = -1;
+            RenderStats.addVbos(-1);
         }
 
         for(int dynamicVboId: dynamicVboIds.values())
             glDeleteBuffers(dynamicVboId);
+        RenderStats.addVbos(-dynamicVboIds.size());
         dynamicVboIds.replaceAll((d, v) -> null);
         glDeleteBuffers(idxVboId);
+        RenderStats.addVbos(-1);
 
         // delete vao
         glBindVertexArray(0);
         glDeleteVertexArrays(vaoId);
+        RenderStats.addVaos(-1);
 
-        isOnGpu = false;
+        gpuBytes = 0;
+        memory.setGpuBytes(0);
+        state = State.UNLOADED;
     }
 
     /**
      * Puts the mesh data on the gpu to render
      * Cannot load to the gpu if the data is already there
+     * Does all the work right away, see MeshUploadQueue for spreading uploads over multiple frames
      */
     public void gpuLoad(){
-        if(isOnGpu)
+        if(state != State.UNLOADED)
             throw new IllegalStateException("Cannot load to GPU if already loaded!");
-
-        LinkedList<FloatBuffer> dynamicVboBuffers = new LinkedList<>();
-        FloatBuffer staticVboBuffer = null;
-        IntBuffer idxBuffer = null;
+        state = State.LOADING;
+        MeshUpload upload;
         try {
+            upload = prepareUpload(FrameAllocator.current(), ++loadGeneration);
+        } catch(RuntimeException e) {
+            state = State.UNLOADED;
+            throw e;
+        }
+        completeUpload(upload);
+    }
+
+    /**
+     * Marks the mesh as waiting to be uploaded by an upload queue
+     * Cannot queue the mesh if it is already loaded or waiting
+     * @return the generation of the load, to prepare the upload with
+     */
+    int markLoading() {
+        if(state != State.UNLOADED)
+            throw new IllegalStateException("Cannot load to GPU if already loaded!");
+        state = State.LOADING;
+        return ++loadGeneration;
+    }
+
+    /**
+     * An upload stops being current when its load is cancelled (gpuFree) or the mesh is loaded again after that, its
+     *   buffers may then reference data the mesh has since replaced or freed, so it must only be freed
+     * @param upload is an upload made by prepareUpload
+     * @return true if the upload is for the load the mesh is waiting on
+     */
+    boolean isCurrent(MeshUpload upload) {
+        return isCurrent(upload.generation);
+    }
+
+    /**
+     * @param generation is the generation of a load (see markLoading)
+     * @return true if the mesh is still waiting on that load
+     */
+    boolean isCurrent(int generation) {
+        return state == State.LOADING && generation == loadGeneration;
+    }
+
+    /**
+     * Fills native buffers with all the data the gpu needs for this mesh
+     * Makes no OpenGL calls, so it is safe to run on a worker thread
+     * @param staging is the allocator to stage copies in when the upload is sent within the frame, null otherwise
+     * @param generation is the generation of the load the upload is for (see markLoading)
+     * @return the filled buffers, which must be passed to completeUpload or freed
+     */
+    MeshUpload prepareUpload(FrameAllocator staging, int generation) {
+        synchronized(uploadLock) {
+            if(memory.isClosed())
+                throw new IllegalStateException("Cannot upload " + this + ", it was cleaned up");
+            return fillUpload(new MeshUpload(this, dataVersion, generation, staging));
+        }
+    }
 
+    /**
+     * Fills the buffers of an upload, see prepareUpload
+     * Only data that can't change is borrowed from the mesh: an upload can wait in a queue while the dynamic data is
+     *   changed in place, so that is always copied (changes made while copying are caught by the data version)
+     * The packed static data is replaced (& freed) by useShader, so it's only borrowed when sent within the frame
+     * @param upload is the upload to fill
+     * @return the upload
+     */
+    private MeshUpload fillUpload(MeshUpload upload) {
+        try {
             // fill index buffer
-            idxBuffer = MemoryUtil.memAllocInt(indices.length);
-            idxBuffer.put(indices).flip();
+            upload.idxBuffer = upload.stage(indices);
+
+            // do we have static data? if so, fill the static buffer & compute the attribute pointer offsets
+            // since all the data is packed together without indication in changes
+            if(staticMeshData.capacity() > 0) {
+                upload.staticVboBuffer = upload.stageReplaceable(staticMeshData);
+
+                upload.staticOffsets = new long[staticShaderAttributes.size()];
+                long prevPtr = 0;
+                int x = 0;
+                for(ShaderAttribute sa: staticShaderAttributes) {
+                    upload.staticOffsets[x++] = prevPtr;
+                    prevPtr = prevPtr + (long) Float.BYTES * getDataLength(sa);
+                }
+            }
+
+            for(ShaderAttribute dsa: dynamicVboIds.keySet()) {
+                FloatBuffer buffer = upload.allocate(getDataLength(dsa));
+                upload.dynamicVboBuffers.put(dsa, buffer);
+                writeAttribute(dsa, buffer, 0);
+            }
+        } catch(RuntimeException e) {
+            upload.free();
+            throw e;
+        }
+        return upload;
+    }
+
+    /**
+     * Sends prepared buffers to the gpu and frees them
+     * Must be called on the render thread
+     * If the upload isn't current (the load was cancelled, maybe queued again since), nothing is sent
+     * @param upload is the upload made by prepareUpload
+     */
+    void completeUpload(MeshUpload upload) {
+        try {
+            if(!isCurrent(upload))
+                return;
+
+            RenderStats.countUpload(upload.getByteSize());
+            gpuBytes = upload.getByteSize();
+            memory.setGpuBytes(gpuBytes);
 
             // create & bind the vertex array object for filling
             vaoId = glGenVertexArrays();
             glBindVertexArray(vaoId);
+            RenderStats.addVaos(1);
 
             //int attrIdx = 0;
-            // do we have static data? if so, run this if
-            if(staticMeshData.length > 0) {
-                // create and fill static data buffer
-                staticVboBuffer = MemoryUtil.memAllocFloat(staticMeshData.length);
-                staticVboBuffer.put(staticMeshData).flip();
-
+            if(upload.staticVboBuffer != null) {
                 // get vbo ptr
                 int vboId = glGenBuffers();
                 glBindBuffer(GL_ARRAY_BUFFER, vboId);
-                glBufferData(GL_ARRAY_BUFFER, staticVboBuffer, GL_STATIC_DRAW);
+                glBufferData(GL_ARRAY_BUFFER, upload.staticVboBuffer, GL_STATIC_DRAW);
 
-                long prevPtr = 0;
-
-                // compute the vertex attribute pointers and their pointer offsets
-                // since all the data is packed together without indication in changes
-                for(ShaderAttribute sa: staticShaderAttributes) {
-                    //glVertexAttribPointer(attrIdx, sa.getSize(), GL_FLOAT, false, 0, prevPtr);
-                    glVertexAttribPointer(attributeIdx.get(sa), sa.getSize(), GL_FLOAT, false, 0, prevPtr);
-                    prevPtr = prevPtr + (long) Float.BYTES * sa.getData(this).length;
-                    //attrIdx++;
-                }
+                int x = 0;
+                for(ShaderAttribute sa: staticShaderAttributes)
+                    glVertexAttribPointer(attributeIdx.get(sa), sa.getSize(), GL_FLOAT, false, 0, upload.staticOffsets[x++]);
 
                 // save vbo ptr
                 staticVboId = vboId;
+                RenderStats.addVbos(1);
             }
 
-            for(ShaderAttribute dsa: dynamicVboIds.keySet()) {
-                float[] data = dsa.getData(this);
-                FloatBuffer temp = MemoryUtil.memAllocFloat(data.length);
-                temp.put(data).flip();
-                dynamicVboBuffers.add(temp);
+            upload.dynamicVboBuffers.forEach((ShaderAttribute dsa, FloatBuffer data) -> {
                 int vboId = glGenBuffers();
                 glBindBuffer(GL_ARRAY_BUFFER, vboId);
-                glBufferData(GL_ARRAY_BUFFER, temp, GL_DYNAMIC_DRAW);
-                //glVertexAttribPointer(attrIdx, dsa.getSize(), GL_FLOAT, false, 0, 0);
+                glBufferData(GL_ARRAY_BUFFER, data, GL_DYNAMIC_DRAW);
                 glVertexAttribPointer(attributeIdx.get(dsa), dsa.getSize(), GL_FLOAT, false, 0, 0);
-                //attrIdx++;
                 dynamicVboIds.put(dsa, vboId);
-            }
+                RenderStats.addVbos(1);
+            });
 
             //for(int x = 0; x < attrIdx; x++)
-            for(int x: attributeIdx.values())
-                glEnableVertexAttribArray(x);
+            attributeIdx.forEach((ShaderAttribute sa, Integer x) -> {
+                if(!isConstant(sa))
+                    glEnableVertexAttribArray(x);
+            });
 
             // create index order vertex buffer object
             idxVboId = glGenBuffers();
             glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, idxVboId);
-            glBufferData(GL_ELEMENT_ARRAY_BUFFER, idxBuffer, GL_STATIC_DRAW);
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, upload.idxBuffer, GL_STATIC_DRAW);
+            RenderStats.addVbos(1);
 
             // unbind buffers and arrays
             glBindBuffer(GL_ARRAY_BUFFER, 0);
             glBindVertexArray(0);
 
-            isOnGpu = true;
-        } finally {
-            // cleanup the stacks we made, we no longer need the data in our RAM; it's in the GPU by now
-            dynamicVboBuffers.forEach((FloatBuffer fb) -> {
-                if(fb != null)
-                    MemoryUtil.memFree(fb);
-            });
+            state = State.RESIDENT;
 
-            if(staticVboBuffer != null)
-                MemoryUtil.memFree(staticVboBuffer);
-
-            if(idxBuffer != null)
-                MemoryUtil.memFree(idxBuffer);
+            // the data changed while the upload was waiting, so what we just sent is stale
+            if(upload.dataVersion != dataVersion)
+                updateDynamicAttributes(true, true);
+        } finally {
+            // cleanup the buffers we made, we no longer need the data in our RAM; it's in the GPU by now
+            upload.free();
         }
     }
 
@@ -247,15 +423,19 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
      * @param shader is the new shader to make the mesh use
      */
     public void useShader(Shader shader) {
-        if(isOnGpu)
+        if(state != State.UNLOADED)
             throw new IllegalStateException("Cannot set mesh shader while mesh data is on the GPU!");
         this.shader = shader;
         staticShaderAttributes.clear();
+        attributeData.keySet().retainAll(shader.getAttributes());
         int attrIdx = 0;
         if(positionValuesChange || colorValuesChange) {
             for (ShaderAttribute s : shader.getAttributes()) {
                 attributeIdx.put(s, attrIdx);
                 attrIdx++;
+                // set before each draw instead (see bindConstantAttributes), it has no vbo
+                if (isConstant(s))
+                    continue;
                 if (positionValuesChange && s.dependantOnPositionData()) {
                     dynamicVboIds.put(s, null);
                     continue;
@@ -272,29 +452,141 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
                 attributeIdx.put(shader.getAttributes().get(x), x);
         }
 
+        if(nativeBlock != NULL && staticMeshData != null)
+            MemoryUtil.memFree(staticMeshData);
+        staticMeshData = null;
         if(staticShaderAttributes.size() <= 0) {
-            staticMeshData = new float[0];
+            staticMeshData = FloatBuffer.allocate(0);
+            countNativeBytes();
             return;
         }
 
-        // if there is static attributes, pre-load them into an array
+        // if there is static attributes, pre-load them into a buffer
+        // compute final length of the packed buffer, every attribute knows its length before writing anything
         int staticDataLength = 0;
-        LinkedList<float[]> staticDataList = new LinkedList<>();
-
-        // get static data and save to an array of static data
         for(ShaderAttribute sa: staticShaderAttributes)
-            staticDataList.add(sa.getData(this));
+            staticDataLength += getDataLength(sa);
+
+        //create and fill the packed buffer, in the same kind of memory as the rest of the data
+        staticMeshData = nativeBlock != NULL ? MemoryUtil.memAllocFloat(staticDataLength) : FloatBuffer.allocate(staticDataLength);
+        int offset = 0;
+        for(ShaderAttribute sa: staticShaderAttributes) {
+            writeAttribute(sa, staticMeshData, offset);
+            offset += getDataLength(sa);
+        }
+        countNativeBytes();
+    }
+
+    /**
+     * @param sa is an attribute of the mesh's shader
+     * @return true if the attribute is the same for every vertex & set as a constant rather than kept in a vbo
+     */
+    private boolean isConstant(ShaderAttribute sa) {
+        return uniformColor && sa == ShaderAttribute.COLOR;
+    }
+
+    /**
+     * Sets the attributes that are the same for every vertex (a uniform color), which aren't part of the vao
+     * Constant attributes are OpenGL state shared by every mesh, so this has to be called before each draw
+     * Must be called on the render thread, does nothing for meshes without any
+     */
+    public void bindConstantAttributes() {
+        if(!uniformColor)
+            return;
+        Integer idx = attributeIdx.get(ShaderAttribute.COLOR);
+        if(idx != null)
+            glVertexAttrib4f(idx, colors.get(0), colors.get(1), colors.get(2), colors.get(3));
+    }
+
+    /**
+     * @param sa is an attribute of the mesh's shader
+     * @return the buffer the mesh keeps the attribute's data in, for the built-in attributes, null for attributes
+     *         computed by their function
+     */
+    FloatBuffer getStoredData(ShaderAttribute sa) {
+        if(sa == ShaderAttribute.POSITION)
+            return vertexPositions;
+        if(sa == ShaderAttribute.COLOR)
+            return colors;
+        if(sa == ShaderAttribute.VERTEX_NORMAL)
+            return normals;
+        return null;
+    }
+
+    /**
+     * @param sa is an attribute of the mesh's shader
+     * @return the number of floats of data the attribute has
+     */
+    private int getDataLength(ShaderAttribute sa) {
+        FloatBuffer stored = getStoredData(sa);
+        if(stored != null)
+            return stored.capacity();
+        return sa.hasSource() ? sa.getDataLength(this) : getAttributeData(sa).length;
+    }
 
-        // compute final length of the packed array
-        for(float[] data: staticDataList)
-            staticDataLength += data.length;
+    /**
+     * Writes the data of an attribute into a buffer, tightly packed
+     * Attributes with a source write straight into the buffer, computed data comes from getAttributeData
+     * @param sa is an attribute of the mesh's shader
+     * @param target is the buffer to write into, its position & limit are left alone
+     * @param offset is the index (in floats) in target to write the data at
+     */
+    private void writeAttribute(ShaderAttribute sa, FloatBuffer target, int offset) {
+        if(sa.hasSource())
+            sa.write(this, target, offset, sa.getSize());
+        else
+            target.put(offset, getAttributeData(sa));
+    }
+
+    /**
+     * Evaluates a computed attribute, or hands back its data from the last time if what it depends on hasn't changed
+     * (see ShaderAttribute.dependantOnPositionData & dependantOnColorData)
+     * Safe to call from a worker thread while the data is being changed, data computed from a version that has since
+     *   changed is never handed out again
+     * @param sa is an attribute of the mesh's shader
+     * @return the data of the attribute
+     */
+    float[] getAttributeData(ShaderAttribute sa) {
+        AttributeData cached = attributeData.get(sa);
+        if(cached != null && isCurrent(sa, cached))
+            return cached.data;
+        // read the versions first, so a change made while computing makes the result stale rather than wrong
+        int positions = positionVersion, colors = colorVersion;
+        float[] data = sa.getData(this);
+        attributeData.put(sa, new AttributeData(data, positions, colors));
+        return data;
+    }
 
-        //create and fill the packed array
-        staticMeshData = new float[staticDataLength];
-        int staticMeshPos = 0;
-        for(float[] data: staticDataList)
-            for(int x = 0; x < data.length; x++, staticMeshPos++)
-                staticMeshData[staticMeshPos] = data[x];
+    /**
+     * @param sa is a computed attribute
+     * @param cached is data computed for it
+     * @return true if nothing the attribute depends on changed since the data was computed
+     */
+    private boolean isCurrent(ShaderAttribute sa, AttributeData cached) {
+        return (!sa.dependantOnPositionData() || cached.positionVersion == positionVersion)
+                && (!sa.dependantOnColorData() || cached.colorVersion == colorVersion);
+    }
+
+    /**
+     * Forgets the data of computed attributes depending on data that changed
+     * @param positionChanged tells if the position (& normal) data changed
+     * @param colorChanged tells if the color data changed
+     */
+    private void invalidateAttributeData(boolean positionChanged, boolean colorChanged) {
+        attributeData.keySet().removeIf((ShaderAttribute sa) ->
+                (positionChanged && sa.dependantOnPositionData()) || (colorChanged && sa.dependantOnColorData()));
+    }
+
+    /**
+     * Reports the native memory the mesh holds to the memory registry
+     */
+    private void countNativeBytes() {
+        if(nativeBlock == NULL)
+            return;
+        long floats = (long) vertexPositions.capacity() + colors.capacity() + normals.capacity();
+        if(staticMeshData != null)
+            floats += staticMeshData.capacity();
+        memory.setNativeBytes(Float.BYTES * floats + (long) Integer.BYTES * indices.capacity());
     }
 
     /**
@@ -306,26 +598,24 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
     public void changePositionData(float[] newVertexPositionData, float[] newNormalData) {
         if(!positionValuesChange)
             throw new IllegalArgumentException("Cannot change position data for a non-dynamic position mesh");
-        if(newVertexPositionData.length != vertexPositions.length)
+        if(newVertexPositionData.length != vertexPositions.capacity())
             throw new IllegalArgumentException("Cannot change length of position data");
-        if(newNormalData.length != normals.length)
+        if(newNormalData.length != normals.capacity())
             throw new IllegalArgumentException("Cannot change length of normal data");
 
-        vertexPositions = newVertexPositionData;
-        normals = newNormalData;
+        if(nativeBlock != NULL) {
+            vertexPositions.put(0, newVertexPositionData);
+            normals.put(0, newNormalData);
+        } else {
+            vertexPositions = FloatBuffer.wrap(newVertexPositionData);
+            normals = FloatBuffer.wrap(newNormalData);
+        }
+        positionVersion++;
+        dataVersion++;
+        invalidateAttributeData(true, false);
         //update GPU data
-        if(isOnGpu)
-            for(ShaderAttribute dsa: dynamicVboIds.keySet()) {
-                if(!dsa.dependantOnPositionData())
-                    continue;
-                float[] data = dsa.getData(this);
-                FloatBuffer floatBuffer = MemoryUtil.memAllocFloat(data.length);
-                floatBuffer.put(data).flip();
-                glBindVertexArray(vaoId);
-                glNamedBufferSubData(dynamicVboIds.get(dsa), 0, floatBuffer);
-                glBindVertexArray(0);
-                MemoryUtil.memFree(floatBuffer);
-            }
+        if(state == State.RESIDENT)
+            updateDynamicAttributes(true, false);
     }
 
     /**
@@ -335,25 +625,93 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
      *                     Vertex order is preserved
      */
     public void changeColorData(float[] newColorData) {
+        if(uniformColor)
+            throw new IllegalStateException("Cannot change color data for a uniform color mesh, use setUniformColor");
         if(!colorValuesChange)
             throw new IllegalArgumentException("Cannot change color data for a non-dynamic color mesh");
-        if(newColorData.length != colors.length)
+        if(newColorData.length != colors.capacity())
             throw new IllegalArgumentException("Cannot change length of color data");
 
-        colors = newColorData;
+        if(nativeBlock != NULL)
+            colors.put(0, newColorData);
+        else
+            colors = FloatBuffer.wrap(newColorData);
+        colorVersion++;
+        dataVersion++;
+        invalidateAttributeData(false, true);
         //update GPU data
-        if(isOnGpu)
-            for(ShaderAttribute dsa: dynamicVboIds.keySet()) {
-                if(!dsa.dependantOnColorData())
-                    continue;
-                float[] data = dsa.getData(this);
-                FloatBuffer floatBuffer = MemoryUtil.memAllocFloat(data.length);
-                floatBuffer.put(data).flip();
-                glBindVertexArray(vaoId);
-                glNamedBufferSubData(dynamicVboIds.get(dsa), 0, floatBuffer);
-                glBindVertexArray(0);
+        if(state == State.RESIDENT)
+            updateDynamicAttributes(false, true);
+    }
+
+    /**
+     * Changes the color of a uniform color mesh, nothing is sent to the gpu for the color itself
+     * Attributes computed from the color are updated like with changeColorData
+     * @param r is the r value to set the mesh color to
+     * @param g is the g value to set the mesh color to
+     * @param b is the b value to set the mesh color to
+     * @param a is the alpha value to set the mesh to
+     */
+    public void setUniformColor(float r, float g, float b, float a) {
+        if(!uniformColor)
+            throw new IllegalStateException("Cannot set the uniform color of a mesh with per-vertex colors, use changeColorData");
+        colors.put(0, r).put(1, g).put(2, b).put(3, a);
+        colorVersion++;
+        dataVersion++;
+        invalidateAttributeData(false, true);
+        if(state == State.RESIDENT)
+            updateDynamicAttributes(false, true);
+    }
+
+    /**
+     * @param color is the color to set the mesh to
+     */
+    public void setUniformColor(Color color) {
+        setUniformColor(color.r, color.g, color.b, color.a);
+    }
+
+    /**
+     * @return true if the mesh is one color, see MeshBuilder.setUniformColor
+     */
+    public boolean isUniformColor() {
+        return uniformColor;
+    }
+
+    /**
+     * Re-sends the data of dynamic attributes to the gpu
+     * @param positionChanged tells if attributes relying on the position data should be updated
+     * @param colorChanged tells if attributes relying on the color data should be updated
+     */
+    private void updateDynamicAttributes(boolean positionChanged, boolean colorChanged) {
+        FrameAllocator staging = FrameAllocator.current();
+        for(ShaderAttribute dsa: dynamicVboIds.keySet()) {
+            if(!(positionChanged && dsa.dependantOnPositionData()) && !(colorChanged && dsa.dependantOnColorData()))
+                continue;
+            FloatBuffer stored = getStoredData(dsa);
+            // native data goes straight to OpenGL
+            if(stored != null && stored.isDirect()) {
+                glNamedBufferSubData(dynamicVboIds.get(dsa), 0, stored);
+                RenderStats.countUpload((long) Float.BYTES * stored.remaining());
+                continue;
+            }
+            int length = getDataLength(dsa);
+            FloatBuffer floatBuffer;
+            if(staging != null) {
+                floatBuffer = staging.allocFloat(length);
+            } else {
+                floatBuffer = MemoryUtil.memAllocFloat(length);
+                RenderStats.nativeAllocated((long) Float.BYTES * length);
+            }
+            writeAttribute(dsa, floatBuffer, 0);
+            glBindVertexArray(vaoId);
+            glNamedBufferSubData(dynamicVboIds.get(dsa), 0, floatBuffer);
+            glBindVertexArray(0);
+            RenderStats.countUpload((long) Float.BYTES * length);
+            if(staging == null) {
                 MemoryUtil.memFree(floatBuffer);
+                RenderStats.nativeFreed((long) Float.BYTES * length);
             }
+        }
     }
 
     /**
@@ -373,6 +731,17 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
         return this.transformationMatrix;
     }
 
+    /**
+     * In threaded mode (see Appframe.Properties.setThreadedTick) the render thread draws the mesh with this matrix,
+     *   which it interpolates between the transforms of the last two ticks. Outside threaded mode it is unused
+     * @return the transformation matrix the mesh is drawn with
+     */
+    public float[] getRenderMatrix() {
+        if(renderMatrix == null)
+            renderMatrix = transformationMatrix.clone();
+        return renderMatrix;
+    }
+
     /**
      * Shortcut function to change the position of the entire mesh
      * @param vec3position is the position to move the mesh to
@@ -408,35 +777,180 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
     }
 
     /**
+     * With native storage this copies the data into a new array, read it through a VertexView instead
      * @return the positions of each vertex as a flat array
      */
     public float[] getVertexPositions() {
-        return vertexPositions;
+        return toArray(vertexPositions);
     }
 
     /**
+     * With native storage or a uniform color this copies the data into a new array, read it through a VertexView instead
      * @return the color of each vertex as a flat array
      */
     public float[] getColors() {
-        return colors;
+        if(!uniformColor)
+            return toArray(colors);
+        float[] array = new float[4 * getDataVertexCount()];
+        for(int x = 0; x < array.length; x += 4)
+            colors.get(0, array, x, 4);
+        return array;
     }
 
+    /**
+     * With native storage this copies the data into a new array, read it through a VertexView instead
+     * @return the normal of each vertex as a flat array
+     */
     public float[] getNormals() {
-        return normals;
+        return toArray(normals);
     }
 
     /**
+     * With native storage this copies the data into a new array
      * @return the vertex order
      */
     public int[] getIndices() {
-        return indices;
+        if(indices.hasArray())
+            return indices.array();
+        int[] array = new int[indices.capacity()];
+        indices.get(0, array);
+        return array;
+    }
+
+    /**
+     * @param data is vertex data kept by the mesh
+     * @return the array the data is kept in, or a copy of it when it's kept in native memory
+     */
+    private static float[] toArray(FloatBuffer data) {
+        if(data.hasArray())
+            return data.array();
+        float[] array = new float[data.capacity()];
+        data.get(0, array);
+        return array;
+    }
+
+    /**
+     * @return a view for reading the vertex data a vertex at a time, without copying it out
+     */
+    public VertexView view() {
+        return new VertexView(this);
+    }
+
+    /**
+     * @return the number of vertices with data (each can be drawn any number of times, see getVertexCount)
+     */
+    public int getDataVertexCount() {
+        return vertexPositions.capacity() / 3;
+    }
+
+    /**
+     * @return true if the vertex data is kept in native memory (see MeshBuilder.nativeStorage)
+     */
+    public boolean isNativeStorage() {
+        return nativeBlock != NULL;
+    }
+
+    /**
+     * Used by the built-in shader attributes to write the data straight into upload buffers
+     * @return a read-only view of the positions, however they're stored
+     */
+    public FloatBuffer getPositionData() {
+        return vertexPositions.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a read-only view of the colors, however they're stored
+     */
+    public FloatBuffer getColorData() {
+        return uniformColor ? FloatBuffer.wrap(getColors()).asReadOnlyBuffer() : colors.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a read-only view of the normals, however they're stored
+     */
+    public FloatBuffer getNormalData() {
+        return normals.asReadOnlyBuffer();
+    }
+
+    FloatBuffer getPositionBuffer() {
+        return vertexPositions;
+    }
+
+    FloatBuffer getColorBuffer() {
+        return colors;
+    }
+
+    /**
+     * @param vertex is the index of a vertex
+     * @return the index in the color buffer of the vertex's color
+     */
+    int getColorIndex(int vertex) {
+        return uniformColor ? 0 : 4 * vertex;
+    }
+
+    FloatBuffer getNormalBuffer() {
+        return normals;
     }
 
     /**
      * @return whether the mesh data is on the gpu or not
      */
     public boolean isOnGpu(){
-        return isOnGpu;
+        return state == State.RESIDENT;
+    }
+
+    /**
+     * @return whether the mesh data is on the gpu, waiting to be uploaded, or neither
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of bytes of native memory the vertex data takes up, 0 unless it's kept in native memory
+     */
+    @Override
+    public long getNativeBytes() {
+        return memory.getNativeBytes();
+    }
+
+    /**
+     * @return the number of bytes of vertex & index data the mesh has on the gpu, 0 if it isn't resident
+     */
+    @Override
+    public long getGpuBytes() {
+        return gpuBytes;
+    }
+
+    /**
+     * @return true if the mesh keeps its data in RAM, so it can be freed from the gpu & uploaded again later
+     */
+    public boolean hasCpuCopy() {
+        return staticMeshData != null && indices != null;
+    }
+
+    /**
+     * @return true if the mesh should be drawn
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Shows or hides the mesh (for culling, for example) without taking it out of the render queue
+     * Hidden meshes aren't drawn, and are the first to go when the gpu memory budget runs out (see ResidencyManager)
+     * @param visible tells if the mesh should be drawn
+     */
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    long getLastDrawnFrame() {
+        return lastDrawnFrame;
+    }
+
+    void setLastDrawnFrame(long frame) {
+        lastDrawnFrame = frame;
     }
 
     public boolean isMeshBlended() {
@@ -446,4 +960,28 @@ public class Mesh implements IUsesNativeMemory, AutoCloseable {
     public void setBlend(boolean blend) {
         this.blendColors = blend;
     }
+
+    /**
+     * The evaluated data of a computed attribute, with the versions of the mesh data it was computed from
+     */
+    private static class AttributeData {
+        private final float[] data;
+        private final int positionVersion, colorVersion;
+
+        private AttributeData(float[] data, int positionVersion, int colorVersion) {
+            this.data = data;
+            this.positionVersion = positionVersion;
+            this.colorVersion = colorVersion;
+        }
+    }
+
+    /**
+     * Where the mesh data lives
+     * UNLOADED     the data is only in RAM
+     * LOADING      the data is being prepared or waiting in an upload queue, the mesh cannot be drawn yet
+     * RESIDENT     the data is on the gpu and the mesh can be drawn
+     */
+    public enum State {
+        UNLOADED, LOADING, RESIDENT
+    }
 }
@@ -17,16 +17,20 @@ public class MeshBuilder {
      * DEFAULT_COLOR    the default color of the mesh if no color was specified
      * positions        the float array of position data (see Mesh.java)
      * colors           the float array of color data (see Mesh.java)
+     * normals          the float array of normal data, calculated from the positions if not given
      * indices          the int array of index order (see Mesh.java)
      * useAlpha         a bool telling the builder to expect alpha information with the color input
      * dynamicPositions tells if the mesh's positions will change
      * dynamicColors    tells if the mesh's colors will change
+     * nativeStorage    tells if the mesh should keep its data in native memory instead of arrays
+     * uniformColor     tells if colors is one color for the whole mesh (see setUniformColor)
      * shader           a shader the mesh will initially use, defaults to a built-in passthrough with color and position
      */
     private static Color DEFAULT_COLOR = Color.WHITE;
-    private float[] positions, colors;
+    private float[] positions, colors, normals;
     private int[] indices;
-    private boolean enableBlending = false, dynamicPositions = false, dynamicColors = false;
+    private boolean enableBlending = false, dynamicPositions = false, dynamicColors = false, nativeStorage = false;
+    private boolean uniformColor = false;
     private Shader shader;
 
     public MeshBuilder(){
@@ -43,20 +47,24 @@ public class MeshBuilder {
         if(indices == null)
             throw new IllegalStateException("Indices must be set");
         if(colors == null) {
-            Color[] defaultColors = new Color[positions.length];
+            Color[] defaultColors = new Color[positions.length / 3];
             Arrays.fill(defaultColors, DEFAULT_COLOR);
             setColors(defaultColors);
         }
+        if(normals != null && normals.length != positions.length)
+            throw new IllegalStateException("Normals must have the same length as positions");
         if(shader == null)
             shader = PassThroughShader.get();
         Mesh mesh = new Mesh(
                 GL45.GL_TRIANGLES,
                 positions,
                 colors,
-                MeshTools.calculateNormals(positions, indices),
+                normals != null ? normals : MeshTools.calculateNormals(positions, indices),
                 indices,
                 dynamicPositions,
-                dynamicColors
+                dynamicColors,
+                nativeStorage,
+                uniformColor
         );
         mesh.useShader(shader);
         if(enableBlending)
@@ -82,6 +90,7 @@ public class MeshBuilder {
      */
     public MeshBuilder setColors(float[] colors) {
         this.colors = colors;
+        this.uniformColor = false;
         return this;
     }
 
@@ -101,6 +110,7 @@ public class MeshBuilder {
             cs[4 * x + 3] = colors[x].a;
         }
         this.colors = cs;
+        this.uniformColor = false;
         return this;
     }
 
@@ -117,15 +127,7 @@ public class MeshBuilder {
     public MeshBuilder setColor(float r, float g, float b) {
         if(positions == null)
             throw new IllegalStateException("Positions must be set before using this method");
-        float[] color = new float[positions.length * 4];
-        for(int x = 0; x < positions.length; x++){
-            color[4 * x] = r;
-            color[4 * x + 1] = g;
-            color[4 * x + 2] = b;
-            color[4 * x + 3] = 1.0f;
-        }
-        this.colors = color;
-        return this;
+        return setColor(r, g, b, 1.0f);
     }
 
     /**
@@ -142,14 +144,15 @@ public class MeshBuilder {
     public MeshBuilder setColor(float r, float g, float b, float a) {
         if(positions == null)
             throw new IllegalStateException("Positions must be set before using this method");
-        float[] color = new float[positions.length * 4];
-        for(int x = 0; x < positions.length; x++){
-            color[4 * x] = r;
-            color[4 * x + 1] = g;
-            color[4 * x + 2] = b;
-            color[4 * x + 3] = a;
+        float[] color = new float[positions.length / 3 * 4];
+        for(int x = 0; x < color.length; x += 4){
+            color[x] = r;
+            color[x + 1] = g;
+            color[x + 2] = b;
+            color[x + 3] = a;
         }
         this.colors = color;
+        this.uniformColor = false;
         return this;
     }
 
@@ -165,6 +168,43 @@ public class MeshBuilder {
         return setColor(color.r, color.g, color.b, color.a);
     }
 
+    /**
+     * Sets the entire mesh to this color, kept as one constant color attribute rather than a color per vertex
+     * No color vbo is made, and the color can be changed at any time with Mesh.setUniformColor without sending
+     *   anything to the gpu. Replaces any colors set before, and is replaced by setColors/setColor
+     * Doesn't need the positions to be set
+     * @param r is the r value to set the mesh color to
+     * @param g is the g value to set the mesh color to
+     * @param b is the b value to set the mesh color to
+     * @param a is the alpha value to set the mesh to
+     * @return self for chaining
+     */
+    public MeshBuilder setUniformColor(float r, float g, float b, float a) {
+        this.colors = new float[]{r, g, b, a};
+        this.uniformColor = true;
+        return this;
+    }
+
+    /**
+     * Sets the entire mesh to this color, kept as one constant color attribute (see setUniformColor(float...))
+     * @param color is the color to set the mesh to
+     * @return self for chaining
+     */
+    public MeshBuilder setUniformColor(Color color) {
+        return setUniformColor(color.r, color.g, color.b, color.a);
+    }
+
+    /**
+     * Sets the normal vector with a 1d list of 3d directions, one per vertex
+     * Defaults to normals calculated from the positions and indices
+     * @param normals is the float array to set the normals to
+     * @return self for chaining
+     */
+    public MeshBuilder setNormals(float[] normals) {
+        this.normals = normals;
+        return this;
+    }
+
     /**
      * Sets the indices vector for determining vertex order when being drawn
      * @param indices is the array to set the index vector to
@@ -203,6 +243,18 @@ public class MeshBuilder {
         return this;
     }
 
+    /**
+     * Tells the builder to copy the mesh's data into native memory, rather than keeping the arrays given
+     * The gc never has to scan the data, and it's sent to the gpu straight from there without a staging copy, which
+     *   matters for big or many meshes. Read it back through Mesh.view, the array getters have to copy it
+     * The native memory is freed by Mesh.cleanup, so the mesh must be cleaned up (the Appframe does for its meshes)
+     * @return self for chaining
+     */
+    public MeshBuilder nativeStorage() {
+        this.nativeStorage = true;
+        return this;
+    }
+
     /**
      * Tells the mesh to use a given shader
      * @param shader is the shader for the mesh to use
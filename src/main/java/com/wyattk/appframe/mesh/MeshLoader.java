@@ -0,0 +1,320 @@
+package com.wyattk.appframe.mesh;
+
+import com.wyattk.appframe.profiling.RenderStats;
+import com.wyattk.appframe.util.Logger;
+import com.wyattk.appframe.util.WorkerThreadFactory;
+import org.lwjgl.assimp.*;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.lwjgl.assimp.Assimp.*;
+import static org.lwjgl.util.xxhash.XXHash.XXH64;
+
+/**
+ * Imports model files (anything Assimp understands: obj, fbx, gltf, ...) into MeshBuilders
+ * All reading, hashing and parsing happens on worker threads, so loading never blocks the render thread
+ *
+ * The returned builders have their positions, colors (if the file has any), normals and indices set,
+ *   but are not built yet since building (and loading to the gpu) must happen on the render thread
+ *   (see Appframe.runLater for getting back onto it)
+ *
+ * Parsed results are cached by the hash of the file contents, so loading the same model again
+ *   (even from a different path) skips the import entirely. The arrays in the cache are shared
+ *   between every builder made from them, so treat them as read-only
+ */
+public class MeshLoader {
+
+    /**
+     * IMPORT_FLAGS     the Assimp post-processing steps run on every import
+     * HASH_SEED        the seed used when hashing file contents for the cache
+     * workers          the pool the imports run on
+     * ownsWorkers      tells if the pool was made by (and so should be shut down by) this loader
+     * cache            map of file hash & extension to the (potentially still running) import of that file
+     */
+    private static final int IMPORT_FLAGS =
+            aiProcess_Triangulate | aiProcess_JoinIdenticalVertices | aiProcess_GenSmoothNormals | aiProcess_SortByPType;
+    private static final long HASH_SEED = 0;
+    private final ExecutorService workers;
+    private final boolean ownsWorkers;
+    private final ConcurrentHashMap<String, CompletableFuture<MeshData[]>> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a mesh loader that runs on an existing pool of threads
+     * @param workers is the pool to run the imports on, it is not shut down by this loader
+     */
+    public MeshLoader(ExecutorService workers) {
+        this.workers = workers;
+        this.ownsWorkers = false;
+    }
+
+    /**
+     * Creates a mesh loader with its own pool of threads
+     * @param threadCount is the number of worker threads to import files on
+     */
+    public MeshLoader(int threadCount) {
+        this.workers = Executors.newFixedThreadPool(threadCount, new WorkerThreadFactory("mesh-loader"));
+        this.ownsWorkers = true;
+    }
+
+    /**
+     * Starts importing a model file on the worker threads
+     * @param path is the path to the file, looked for on the filesystem first and then in the resources
+     * @return a future holding one builder per triangle mesh in the file
+     */
+    public CompletableFuture<MeshBuilder[]> load(String path) {
+        return CompletableFuture
+                .supplyAsync(() -> readFile(path), workers)
+                .thenCompose((ByteBuffer data) -> getOrImport(path, data))
+                .thenApply(MeshLoader::toBuilders);
+    }
+
+    /**
+     * Forgets all cached imports, the next load of any file will import it again
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Stops the worker threads if this loader made them
+     */
+    public void shutdown() {
+        if(ownsWorkers)
+            workers.shutdownNow();
+    }
+
+    /**
+     * Looks up the file in the cache, and starts an import of it if it is not there
+     * Frees the file data once the lookup (and potential import) is done
+     * @param path is the path of the file, used for its extension and error messages
+     * @param data is the contents of the file
+     * @return the future import of the file
+     */
+    private CompletableFuture<MeshData[]> getOrImport(String path, ByteBuffer data) {
+        String extension = getExtension(path);
+        String key = Long.toHexString(XXH64(data, HASH_SEED)) + "." + extension;
+
+        CompletableFuture<MeshData[]> imported = new CompletableFuture<>();
+        CompletableFuture<MeshData[]> cached = cache.putIfAbsent(key, imported);
+        if(cached != null) {
+            freeFile(data);
+            Logger.verb("Mesh cache hit for {}", path);
+            return cached;
+        }
+
+        try {
+            imported.complete(importScene(path, data, extension));
+        } catch(RuntimeException e) {
+            // don't cache failures, the file might be fixed before the next try
+            cache.remove(key, imported);
+            imported.completeExceptionally(e);
+        } finally {
+            freeFile(data);
+        }
+        return imported;
+    }
+
+    /**
+     * Runs Assimp over the file data and pulls out all the triangle meshes
+     * @param path is the path of the file, used for error messages
+     * @param data is the contents of the file
+     * @param extension is the file extension, used as a format hint for Assimp
+     * @return the mesh data of every triangle mesh in the file
+     */
+    private static MeshData[] importScene(String path, ByteBuffer data, String extension) {
+        AIScene scene = aiImportFileFromMemory(data, IMPORT_FLAGS, extension);
+        if(scene == null)
+            throw new IllegalArgumentException("Could not import " + path + ": " + aiGetErrorString());
+
+        try {
+            LinkedList<MeshData> meshes = new LinkedList<>();
+            for(int x = 0; x < scene.mNumMeshes(); x++) {
+                AIMesh mesh = AIMesh.create(scene.mMeshes().get(x));
+                // points & lines get split off by aiProcess_SortByPType, we only draw triangles
+                if((mesh.mPrimitiveTypes() & aiPrimitiveType_TRIANGLE) == 0)
+                    continue;
+                meshes.add(convertMesh(mesh));
+            }
+            Logger.verb("Imported {} meshes from {}", meshes.size(), path);
+            return meshes.toArray(new MeshData[0]);
+        } finally {
+            aiReleaseImport(scene);
+        }
+    }
+
+    /**
+     * Copies the data of an Assimp mesh into flat arrays
+     * @param mesh is the Assimp mesh to copy
+     * @return the mesh data in the same layout Mesh uses
+     */
+    private static MeshData convertMesh(AIMesh mesh) {
+        int vertexCount = mesh.mNumVertices();
+
+        float[] positions = new float[vertexCount * 3];
+        AIVector3D.Buffer vertices = mesh.mVertices();
+        for(int x = 0; x < vertexCount; x++) {
+            AIVector3D v = vertices.get(x);
+            positions[3 * x] = v.x();
+            positions[3 * x + 1] = v.y();
+            positions[3 * x + 2] = v.z();
+        }
+
+        float[] normals = null;
+        AIVector3D.Buffer aiNormals = mesh.mNormals();
+        if(aiNormals != null) {
+            normals = new float[vertexCount * 3];
+            for(int x = 0; x < vertexCount; x++) {
+                AIVector3D n = aiNormals.get(x);
+                normals[3 * x] = n.x();
+                normals[3 * x + 1] = n.y();
+                normals[3 * x + 2] = n.z();
+            }
+        }
+
+        float[] colors = null;
+        AIColor4D.Buffer aiColors = mesh.mColors(0);
+        if(aiColors != null) {
+            colors = new float[vertexCount * 4];
+            for(int x = 0; x < vertexCount; x++) {
+                AIColor4D c = aiColors.get(x);
+                colors[4 * x] = c.r();
+                colors[4 * x + 1] = c.g();
+                colors[4 * x + 2] = c.b();
+                colors[4 * x + 3] = c.a();
+            }
+        }
+
+        // faces are all triangles after aiProcess_Triangulate, but skip anything odd to be safe
+        AIFace.Buffer faces = mesh.mFaces();
+        int[] indices = new int[mesh.mNumFaces() * 3];
+        int idx = 0;
+        for(int x = 0; x < mesh.mNumFaces(); x++) {
+            IntBuffer faceIndices = faces.get(x).mIndices();
+            if(faceIndices.remaining() != 3)
+                continue;
+            indices[idx++] = faceIndices.get(0);
+            indices[idx++] = faceIndices.get(1);
+            indices[idx++] = faceIndices.get(2);
+        }
+        if(idx != indices.length) {
+            int[] trimmed = new int[idx];
+            System.arraycopy(indices, 0, trimmed, 0, idx);
+            indices = trimmed;
+        }
+
+        return new MeshData(positions, colors, normals, indices);
+    }
+
+    /**
+     * Turns imported mesh data into fresh builders
+     * @param meshes is the imported mesh data
+     * @return a builder for each of the meshes
+     */
+    private static MeshBuilder[] toBuilders(MeshData[] meshes) {
+        MeshBuilder[] builders = new MeshBuilder[meshes.length];
+        for(int x = 0; x < meshes.length; x++) {
+            MeshData data = meshes[x];
+            builders[x] = new MeshBuilder()
+                    .setPositions(data.positions)
+                    .setIndices(data.indices);
+            if(data.colors != null)
+                builders[x].setColors(data.colors);
+            if(data.normals != null)
+                builders[x].setNormals(data.normals);
+        }
+        return builders;
+    }
+
+    /**
+     * Reads a whole file into native memory, which must be freed by the caller
+     * @param path is the path to the file, looked for on the filesystem first and then in the resources
+     * @return a direct buffer holding the file contents
+     */
+    private static ByteBuffer readFile(String path) {
+        try {
+            Path file = Path.of(path);
+            if(Files.isRegularFile(file)) {
+                try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    ByteBuffer data = MemoryUtil.memAlloc((int) channel.size());
+                    RenderStats.nativeAllocated(data.capacity());
+                    try {
+                        while(data.hasRemaining())
+                            if(channel.read(data) == -1)
+                                break;
+                    } catch(IOException e) {
+                        freeFile(data);
+                        throw e;
+                    }
+                    return data.flip();
+                }
+            }
+
+            InputStream s = MeshLoader.class.getClassLoader().getResourceAsStream(path);
+            if(s == null)
+                throw new IllegalArgumentException("File not found: " + path);
+            byte[] bts;
+            try(s) {
+                bts = s.readAllBytes();
+            }
+            ByteBuffer data = MemoryUtil.memAlloc(bts.length);
+            RenderStats.nativeAllocated(data.capacity());
+            data.put(bts).flip();
+            return data;
+        } catch(IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
+    }
+
+    /**
+     * Frees file data read by readFile
+     * @param data is the file data to free
+     */
+    private static void freeFile(ByteBuffer data) {
+        MemoryUtil.memFree(data);
+        RenderStats.nativeFreed(data.capacity());
+    }
+
+    /**
+     * @param path is the path to the file
+     * @return the extension of the file without the dot, or an empty string if it has none
+     */
+    private static String getExtension(String path) {
+        int dot = path.lastIndexOf('.');
+        if(dot < 0 || dot < path.lastIndexOf('/'))
+            return "";
+        return path.substring(dot + 1).toLowerCase();
+    }
+
+    /**
+     * Holds the data of a single imported mesh
+     * positions        flat array of 3d positions
+     * colors           flat array of 4d colors, null if the file had none
+     * normals          flat array of 3d normals, null if the file had none
+     * indices          the triangle indices
+     */
+    private static class MeshData {
+        private final float[] positions, colors, normals;
+        private final int[] indices;
+
+        private MeshData(float[] positions, float[] colors, float[] normals, int[] indices) {
+            this.positions = positions;
+            this.colors = colors;
+            this.normals = normals;
+            this.indices = indices;
+        }
+    }
+}
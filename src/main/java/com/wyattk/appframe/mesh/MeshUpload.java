@@ -0,0 +1,158 @@
+package com.wyattk.appframe.mesh;
+
+import com.wyattk.appframe.profiling.RenderStats;
+import com.wyattk.appframe.shader.ShaderAttribute;
+import com.wyattk.appframe.util.FrameAllocator;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Native buffers holding all the data a mesh sends to the gpu, filled ahead of time (see Mesh.prepareUpload)
+ * so the render thread only has to make the OpenGL calls
+ * Data the mesh already keeps in native memory & never changes (indices, packed static data) isn't copied, the upload
+ *   borrows the mesh's buffers
+ * Copies are staged in a frame allocator when the upload is sent within the frame (Mesh.gpuLoad), and allocated on
+ *   their own when it may wait in an upload queue for longer than that
+ */
+class MeshUpload {
+
+    /**
+     * mesh                 the mesh the data belongs to
+     * dataVersion          the data version of the mesh when the buffers were filled
+     * generation           the load of the mesh the upload is for, see Mesh.isCurrent
+     * idxBuffer            the index order data
+     * staticVboBuffer      the packed static attribute data, null if the mesh has no static attributes
+     * staticOffsets        the offset (in bytes) of each static attribute in the static buffer
+     * dynamicVboBuffers    the data of each dynamic attribute, in the same order as the mesh's dynamic attributes
+     * borrowed             the buffers belonging to the mesh or the staging allocator, which aren't freed with the upload
+     * staging              the allocator copies are staged in, null to allocate each on its own
+     */
+    final Mesh mesh;
+    final int dataVersion, generation;
+    IntBuffer idxBuffer;
+    FloatBuffer staticVboBuffer;
+    long[] staticOffsets;
+    final LinkedHashMap<ShaderAttribute, FloatBuffer> dynamicVboBuffers = new LinkedHashMap<>();
+    private final Set<Buffer> borrowed = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final FrameAllocator staging;
+
+    MeshUpload(Mesh mesh, int dataVersion, int generation, FrameAllocator staging) {
+        this.mesh = mesh;
+        this.dataVersion = dataVersion;
+        this.generation = generation;
+        this.staging = staging;
+    }
+
+    /**
+     * @param data is data kept by the mesh
+     * @return the data in a native buffer: a view of the mesh's own buffer if it's native, a copy otherwise
+     */
+    FloatBuffer stage(FloatBuffer data) {
+        if(data.isDirect()) {
+            FloatBuffer view = data.duplicate();
+            borrowed.add(view);
+            return view;
+        }
+        return stage(data.array());
+    }
+
+    /**
+     * @param data is data kept by the mesh that it may replace & free while the upload waits (packed static data)
+     * @return the data in a native buffer: a view of the mesh's own buffer when sent within the frame, a copy otherwise
+     */
+    FloatBuffer stageReplaceable(FloatBuffer data) {
+        if(staging != null || !data.isDirect())
+            return stage(data);
+        return allocate(data.capacity()).put(0, data, 0, data.capacity());
+    }
+
+    /**
+     * @param data is data computed for the upload
+     * @return a native copy of the data, freed with the upload (or at the end of the frame when staged)
+     */
+    FloatBuffer stage(float[] data) {
+        return allocate(data.length).put(0, data);
+    }
+
+    /**
+     * For data written straight into the upload (see ShaderAttribute.write)
+     * @param count is the number of floats
+     * @return a native buffer of the floats, freed with the upload (or at the end of the frame when staged)
+     */
+    FloatBuffer allocate(int count) {
+        if(staging != null) {
+            FloatBuffer buffer = staging.allocFloat(count);
+            borrowed.add(buffer);
+            return buffer;
+        }
+        RenderStats.nativeAllocated((long) Float.BYTES * count);
+        return MemoryUtil.memAllocFloat(count);
+    }
+
+    /**
+     * @param data is index data kept by the mesh
+     * @return the data in a native buffer: a view of the mesh's own buffer if it's native, a copy otherwise
+     */
+    IntBuffer stage(IntBuffer data) {
+        if(data.isDirect()) {
+            IntBuffer view = data.duplicate();
+            borrowed.add(view);
+            return view;
+        }
+        if(staging != null) {
+            IntBuffer buffer = staging.allocInt(data.capacity()).put(data.array()).flip();
+            borrowed.add(buffer);
+            return buffer;
+        }
+        IntBuffer buffer = MemoryUtil.memAllocInt(data.capacity());
+        RenderStats.nativeAllocated((long) Integer.BYTES * data.capacity());
+        return buffer.put(data.array()).flip();
+    }
+
+    /**
+     * @return the number of bytes this upload sends to the gpu
+     */
+    long getByteSize() {
+        long bytes = 0;
+        if(idxBuffer != null)
+            bytes += (long) Integer.BYTES * idxBuffer.remaining();
+        if(staticVboBuffer != null)
+            bytes += (long) Float.BYTES * staticVboBuffer.remaining();
+        for(FloatBuffer fb: dynamicVboBuffers.values())
+            bytes += (long) Float.BYTES * fb.remaining();
+        return bytes;
+    }
+
+    /**
+     * Frees all the native buffers, safe to call more than once
+     */
+    void free() {
+        for(FloatBuffer fb: dynamicVboBuffers.values()) {
+            if(borrowed.contains(fb))
+                continue;
+            MemoryUtil.memFree(fb);
+            RenderStats.nativeFreed((long) Float.BYTES * fb.capacity());
+        }
+        dynamicVboBuffers.clear();
+
+        if(staticVboBuffer != null && !borrowed.contains(staticVboBuffer)) {
+            MemoryUtil.memFree(staticVboBuffer);
+            RenderStats.nativeFreed((long) Float.BYTES * staticVboBuffer.capacity());
+        }
+        staticVboBuffer = null;
+
+        if(idxBuffer != null && !borrowed.contains(idxBuffer)) {
+            MemoryUtil.memFree(idxBuffer);
+            RenderStats.nativeFreed((long) Integer.BYTES * idxBuffer.capacity());
+        }
+        idxBuffer = null;
+        borrowed.clear();
+    }
+}
@@ -0,0 +1,145 @@
+package com.wyattk.appframe.mesh;
+
+import com.wyattk.appframe.util.Logger;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queue that spreads mesh uploads over multiple frames
+ * Meshes are prepared (native buffers filled) on worker threads, then the render thread sends as many
+ *   prepared meshes to the gpu each frame as fit in the byte & time budgets
+ * At least one mesh is uploaded per frame, so a mesh bigger than the budget still makes it eventually
+ */
+public class MeshUploadQueue {
+
+    /**
+     * workers          the threads the meshes are prepared on
+     * ready            the prepared meshes waiting for the render thread
+     * pending          the number of meshes queued but not yet uploaded (or dropped)
+     * byteBudget       the max number of bytes to upload per frame, <= 0 for no limit
+     * timeBudget       the max time (in nanoseconds) to spend uploading per frame, <= 0 for no limit
+     * lastFrameBytes   the number of bytes uploaded the last time the queue was processed
+     * discarded        tells if the queue was discarded, uploads prepared after that are freed right away
+     */
+    private final Executor workers;
+    private final ConcurrentLinkedQueue<MeshUpload> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private long byteBudget, timeBudget;
+    private long lastFrameBytes = 0;
+    private volatile boolean discarded = false;
+
+    /**
+     * Creates an upload queue
+     * @param workers is the executor to prepare the meshes on
+     * @param byteBudget is the max number of bytes to upload per frame, <= 0 for no limit
+     * @param timeBudget is the max time (in seconds) to spend uploading per frame, <= 0 for no limit
+     */
+    public MeshUploadQueue(Executor workers, long byteBudget, double timeBudget) {
+        this.workers = workers;
+        setByteBudget(byteBudget);
+        setTimeBudget(timeBudget);
+    }
+
+    /**
+     * Queues a mesh to be loaded to the gpu, the mesh reports LOADING until it is uploaded
+     * Calling gpuFree on the mesh before it is uploaded cancels the upload
+     * @param mesh is the mesh to load
+     */
+    public void enqueue(Mesh mesh) {
+        int generation = mesh.markLoading();
+        pending.incrementAndGet();
+        workers.execute(() -> {
+            try {
+                // the upload can wait for more than a frame, so it can't be staged in the frame allocator
+                ready.add(mesh.prepareUpload(null, generation));
+                // finished after the queue was discarded, nothing would ever free it otherwise
+                if(discarded)
+                    discard();
+            } catch(RuntimeException e) {
+                pending.decrementAndGet();
+                // may have been cancelled (or cleaned up, or queued again) in the meantime
+                if(mesh.isCurrent(generation))
+                    mesh.gpuFree();
+                Logger.err("Could not prepare " + mesh + " for upload: " + e);
+            }
+        });
+    }
+
+    /**
+     * Uploads prepared meshes until the budgets for this frame run out
+     * Must be called on the render thread
+     */
+    public void process() {
+        long start = System.nanoTime();
+        long bytes = 0;
+        MeshUpload upload;
+        while((upload = ready.peek()) != null) {
+            // cancelled, or superseded by a later enqueue of the same mesh, only the latest upload may complete
+            if(!upload.mesh.isCurrent(upload)) {
+                ready.poll();
+                pending.decrementAndGet();
+                upload.free();
+                continue;
+            }
+            long size = upload.getByteSize();
+            // always let the first one through so nothing can get stuck
+            if(bytes > 0) {
+                if(byteBudget > 0 && bytes + size > byteBudget)
+                    break;
+                if(timeBudget > 0 && System.nanoTime() - start >= timeBudget)
+                    break;
+            }
+            ready.poll();
+            pending.decrementAndGet();
+            upload.mesh.completeUpload(upload);
+            bytes += size;
+        }
+        lastFrameBytes = bytes;
+    }
+
+    /**
+     * Drops every prepared upload still waiting, freeing its buffers
+     * The meshes go back to UNLOADED. Uploads still being prepared are freed as soon as they're done
+     */
+    public void discard() {
+        discarded = true;
+        MeshUpload upload;
+        while((upload = ready.poll()) != null) {
+            pending.decrementAndGet();
+            boolean current = upload.mesh.isCurrent(upload);
+            upload.free();
+            if(current)
+                upload.mesh.gpuFree();
+        }
+    }
+
+    /**
+     * @return the number of meshes queued but not yet uploaded
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * @return the number of bytes uploaded the last time the queue was processed
+     */
+    public long getLastFrameBytes() {
+        return lastFrameBytes;
+    }
+
+    /**
+     * @param byteBudget is the max number of bytes to upload per frame, <= 0 for no limit
+     */
+    public void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * @param timeBudget is the max time (in seconds) to spend uploading per frame, <= 0 for no limit
+     */
+    public void setTimeBudget(double timeBudget) {
+        this.timeBudget = (long) (timeBudget * 1e9);
+    }
+}
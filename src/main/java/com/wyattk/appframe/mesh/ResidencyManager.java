@@ -0,0 +1,177 @@
+package com.wyattk.appframe.mesh;
+
+import com.wyattk.appframe.util.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+
+/**
+ * Keeps the managed meshes on the gpu within a memory budget
+ * Tracks the gpu bytes & the last frame each managed mesh was drawn in. At the end of a frame that leaves the
+ *   meshes over budget, the least recently drawn ones (never ones drawn that frame) are freed from the gpu. They
+ *   keep their data in RAM, so when one is drawn again it is queued for upload & shows up once the upload is done
+ * Meshes the Appframe loads itself (see Appframe.Properties.shouldManageMeshGPU) are managed
+ *
+ * Must only be used on the render thread
+ */
+public class ResidencyManager {
+
+    /**
+     * BY_LAST_DRAWN    orders meshes least recently drawn first
+     * uploadQueue      the queue evicted meshes are uploaded through again
+     * budget           the most bytes managed meshes may take up on the gpu, <= 0 for no limit
+     * managed          the meshes being managed
+     * candidates       the meshes that could be evicted at the end of the frame, reused
+     * frame            the number of frames finished
+     * residentBytes    the gpu bytes of the managed meshes at the end of the last frame, only kept with a budget
+     * evictions        the number of meshes freed to stay under the budget
+     * reloads          the number of evicted meshes queued for upload again
+     * warnedOverBudget tells if the warning for the visible meshes alone going over budget was given
+     */
+    private static final Comparator<Mesh> BY_LAST_DRAWN = Comparator.comparingLong(Mesh::getLastDrawnFrame);
+    private final MeshUploadQueue uploadQueue;
+    private long budget;
+    private final HashSet<Mesh> managed = new HashSet<>();
+    private final ArrayList<Mesh> candidates = new ArrayList<>();
+    private long frame = 0;
+    private long residentBytes = 0;
+    private long evictions = 0, reloads = 0;
+    private boolean warnedOverBudget = false;
+
+    /**
+     * @param uploadQueue is the queue to upload evicted meshes through when they're drawn again
+     * @param budget is the most bytes managed meshes may take up on the gpu, <= 0 for no limit
+     */
+    public ResidencyManager(MeshUploadQueue uploadQueue, long budget) {
+        this.uploadQueue = uploadQueue;
+        this.budget = budget;
+    }
+
+    /**
+     * @param mesh is the mesh to keep within the budget
+     */
+    public void manage(Mesh mesh) {
+        managed.add(mesh);
+    }
+
+    /**
+     * @param mesh is the mesh to stop managing, it's left as it is
+     */
+    public void unmanage(Mesh mesh) {
+        managed.remove(mesh);
+    }
+
+    /**
+     * @param mesh is a mesh
+     * @return true if the mesh is being managed
+     */
+    public boolean isManaged(Mesh mesh) {
+        return managed.contains(mesh);
+    }
+
+    /**
+     * Records a mesh being drawn this frame
+     * @param mesh is the mesh being drawn
+     */
+    public void drawn(Mesh mesh) {
+        mesh.setLastDrawnFrame(frame);
+    }
+
+    /**
+     * Queues a mesh that was evicted for upload again, since it's about to be drawn
+     * @param mesh is a mesh that isn't on the gpu
+     * @return true if the mesh was queued (it appears once uploaded), false if it isn't managed & can't be
+     */
+    public boolean reload(Mesh mesh) {
+        if(mesh.getState() != Mesh.State.UNLOADED || !managed.contains(mesh) || !mesh.hasCpuCopy())
+            return false;
+        uploadQueue.enqueue(mesh);
+        reloads++;
+        return true;
+    }
+
+    /**
+     * Evicts the least recently drawn meshes until the managed meshes fit in the budget
+     * Called by the Appframe at the end of every frame
+     */
+    public void endFrame() {
+        // nothing can be evicted without a budget, so there's no need to go over every mesh each frame
+        if(budget <= 0) {
+            frame++;
+            return;
+        }
+        residentBytes = countResidentBytes();
+
+        if(residentBytes > budget) {
+            candidates.clear();
+            for(Mesh mesh: managed)
+                if(mesh.isOnGpu() && mesh.getLastDrawnFrame() < frame && mesh.hasCpuCopy())
+                    candidates.add(mesh);
+            candidates.sort(BY_LAST_DRAWN);
+
+            for(int x = 0; x < candidates.size() && residentBytes > budget; x++) {
+                Mesh mesh = candidates.get(x);
+                residentBytes -= mesh.getGpuBytes();
+                mesh.gpuFree();
+                evictions++;
+            }
+            candidates.clear();
+
+            if(residentBytes > budget && !warnedOverBudget) {
+                Logger.warn("Meshes drawn this frame need " + residentBytes + " bytes, over the gpu budget of " + budget);
+                warnedOverBudget = true;
+            }
+        }
+        frame++;
+    }
+
+    /**
+     * @return the gpu bytes the managed meshes take up right now
+     */
+    private long countResidentBytes() {
+        long bytes = 0;
+        for(Mesh mesh: managed)
+            bytes += mesh.getGpuBytes();
+        return bytes;
+    }
+
+    /**
+     * @param budget is the most bytes managed meshes may take up on the gpu, <= 0 for no limit
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+        warnedOverBudget = false;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Without a budget the meshes are only counted when asked, so this goes over every managed mesh
+     * @return the gpu bytes of the managed meshes at the end of the last frame (right now without a budget)
+     */
+    public long getResidentBytes() {
+        return budget > 0 ? residentBytes : countResidentBytes();
+    }
+
+    /**
+     * @return the number of meshes freed to stay under the budget so far
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of evicted meshes queued for upload again so far
+     */
+    public long getReloads() {
+        return reloads;
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + hashCode() + " (" + getResidentBytes() + "/" + budget + " bytes, "
+                + managed.size() + " meshes, " + evictions + " evictions, " + reloads + " reloads)";
+    }
+}
@@ -0,0 +1,125 @@
+package com.wyattk.appframe.mesh;
+
+/**
+ * Flyweight for reading a mesh's vertex data one vertex at a time, without copying it into arrays
+ * Point it at a vertex with at, then read that vertex's attributes. One view can be reused for every vertex (and is
+ *   meant to be, so reading a mesh doesn't make garbage); it always reads the mesh's current data
+ *
+ * Reads native memory directly when the mesh keeps its data there, so the view must not be used once the mesh is
+ *   cleaned up. Not thread safe, give each thread its own view
+ */
+public final class VertexView {
+
+    /**
+     * mesh     the mesh being read
+     * vertex   the vertex being read
+     */
+    private final Mesh mesh;
+    private int vertex = 0;
+
+    /**
+     * @param mesh is the mesh to read, see Mesh.view
+     */
+    VertexView(Mesh mesh) {
+        this.mesh = mesh;
+    }
+
+    /**
+     * @param vertex is the index of the vertex to read
+     * @return self for chaining
+     */
+    public VertexView at(int vertex) {
+        if(vertex < 0 || vertex >= mesh.getDataVertexCount())
+            throw new IndexOutOfBoundsException("Vertex " + vertex + " out of " + mesh.getDataVertexCount());
+        this.vertex = vertex;
+        return this;
+    }
+
+    /**
+     * @return the index of the vertex being read
+     */
+    public int getVertex() {
+        return vertex;
+    }
+
+    /**
+     * @return the number of vertices that can be read
+     */
+    public int count() {
+        return mesh.getDataVertexCount();
+    }
+
+    public float x() {
+        return mesh.getPositionBuffer().get(3 * vertex);
+    }
+
+    public float y() {
+        return mesh.getPositionBuffer().get(3 * vertex + 1);
+    }
+
+    public float z() {
+        return mesh.getPositionBuffer().get(3 * vertex + 2);
+    }
+
+    public float r() {
+        return mesh.getColorBuffer().get(mesh.getColorIndex(vertex));
+    }
+
+    public float g() {
+        return mesh.getColorBuffer().get(mesh.getColorIndex(vertex) + 1);
+    }
+
+    public float b() {
+        return mesh.getColorBuffer().get(mesh.getColorIndex(vertex) + 2);
+    }
+
+    public float a() {
+        return mesh.getColorBuffer().get(mesh.getColorIndex(vertex) + 3);
+    }
+
+    public float normalX() {
+        return mesh.getNormalBuffer().get(3 * vertex);
+    }
+
+    public float normalY() {
+        return mesh.getNormalBuffer().get(3 * vertex + 1);
+    }
+
+    public float normalZ() {
+        return mesh.getNormalBuffer().get(3 * vertex + 2);
+    }
+
+    /**
+     * Copies the position of the vertex into an array
+     * @param dest is the array to copy into, at least 3 long
+     * @return dest
+     */
+    public float[] getPosition(float[] dest) {
+        mesh.getPositionBuffer().get(3 * vertex, dest, 0, 3);
+        return dest;
+    }
+
+    /**
+     * Copies the color of the vertex into an array
+     * @param dest is the array to copy into, at least 4 long
+     * @return dest
+     */
+    public float[] getColor(float[] dest) {
+        mesh.getColorBuffer().get(mesh.getColorIndex(vertex), dest, 0, 4);
+        return dest;
+    }
+
+    /**
+     * Copies the normal of the vertex into an array
+     * @param dest is the array to copy into, at least 3 long
+     * @return dest
+     */
+    public float[] getNormal(float[] dest) {
+        mesh.getNormalBuffer().get(3 * vertex, dest, 0, 3);
+        return dest;
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + hashCode() + " (vertex " + vertex + " of " + mesh + ")";
+    }
+}
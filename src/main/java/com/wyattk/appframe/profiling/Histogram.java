@@ -0,0 +1,74 @@
+package com.wyattk.appframe.profiling;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the last WINDOW samples of a timing (in nanoseconds) for calculating percentiles
+ * Safe to query from any thread while samples are being recorded
+ */
+public class Histogram {
+
+    /**
+     * WINDOW       the number of samples kept
+     * samples      ring buffer of the last WINDOW samples
+     * count        the total number of samples recorded
+     */
+    private static final int WINDOW = 1024;
+    private final long[] samples = new long[WINDOW];
+    private long count = 0;
+
+    /**
+     * Adds a sample, pushing out the oldest one if the window is full
+     * @param nanos is the timing to add, in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        samples[(int) (count % WINDOW)] = nanos;
+        count++;
+    }
+
+    /**
+     * @param percentile is the percentile to get, on [0, 100]
+     * @return the timing at the given percentile of the kept samples, in seconds (0 if there are none)
+     */
+    public double getPercentile(double percentile) {
+        long[] sorted;
+        synchronized(this) {
+            sorted = Arrays.copyOf(samples, (int) Math.min(count, WINDOW));
+        }
+        if(sorted.length == 0)
+            return 0;
+        Arrays.sort(sorted);
+        int idx = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))] / 1e9;
+    }
+
+    public double getP50() {
+        return getPercentile(50);
+    }
+
+    public double getP95() {
+        return getPercentile(95);
+    }
+
+    public double getP99() {
+        return getPercentile(99);
+    }
+
+    public double getMax() {
+        return getPercentile(100);
+    }
+
+    /**
+     * @return the total number of samples recorded (including ones pushed out of the window)
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public String toString() {
+        return String.format(
+                "p50 %.3fms, p95 %.3fms, p99 %.3fms, max %.3fms",
+                getP50() * 1e3, getP95() * 1e3, getP99() * 1e3, getMax() * 1e3
+        );
+    }
+}
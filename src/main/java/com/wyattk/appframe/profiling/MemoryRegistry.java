@@ -0,0 +1,371 @@
+package com.wyattk.appframe.profiling;
+
+import com.wyattk.appframe.util.IUsesNativeMemory;
+import com.wyattk.appframe.util.Logger;
+import com.wyattk.appframe.util.WorkerThreadFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Cleaner;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Global account of the native (off-heap) & gpu memory held by every object that has to be cleaned up
+ * Each such object opens an Account when it's made, keeps the account's byte counts up to date as it allocates &
+ *   frees, and closes it in cleanup. The registry keeps the totals per category (usually the class of the object)
+ * Objects that are garbage collected without being cleaned up are reported as leaks, with the place they were made
+ *   when allocation sites are tracked (see setTrackAllocationSites, off by default as it costs a stack trace per object)
+ *
+ * Memory the framework only holds for a moment (upload buffers, file data) isn't accounted here, see
+ *   RenderStats.getLastFrame().getNativeBytes() for that
+ * Thread safe, the totals are also published as an MBean (see OBJECT_NAME)
+ */
+public final class MemoryRegistry {
+
+    /**
+     * OBJECT_NAME      the name the registry is registered with the platform MBean server under
+     * CLEANER          notices objects collected without being cleaned up, on its own daemon thread
+     * categories       the totals of each category by name
+     * trackSites       tells if accounts record where their object was made
+     */
+    public static final String OBJECT_NAME = "com.wyattk.appframe:type=MemoryRegistry";
+    private static final Cleaner CLEANER = Cleaner.create(new WorkerThreadFactory("memory-leak-detector"));
+    private static final Map<String, Totals> categories = new ConcurrentHashMap<>();
+    private static volatile boolean trackSites = false;
+
+    private MemoryRegistry() {}
+
+    /**
+     * Opens the account of an object, which should be closed in its cleanup
+     * The registry only keeps a weak reference to the object, so this is safe to call from its constructor (once
+     *   toString works, it's kept to name the object if it leaks)
+     * @param category is the name the object's memory is totaled under
+     * @param owner is the object the memory belongs to
+     * @return the account to report the object's memory to
+     */
+    public static Account open(String category, IUsesNativeMemory owner) {
+        Totals totals = categories.computeIfAbsent(category, Totals::new);
+        totals.objects.incrementAndGet();
+        Account account = new Account(totals, trackSites ? new Throwable("Allocation site") : null);
+        account.cleanable = CLEANER.register(owner, new LeakCheck(account, owner.toString()));
+        return account;
+    }
+
+    /**
+     * Sets if accounts opened from now on record where their object was made, so leaks can be traced back to it
+     * @param track tells if allocation sites should be recorded
+     */
+    public static void setTrackAllocationSites(boolean track) {
+        trackSites = track;
+    }
+
+    public static boolean isTrackingAllocationSites() {
+        return trackSites;
+    }
+
+    /**
+     * @return the usage of each category, sorted by name
+     */
+    public static Map<String, Usage> getUsage() {
+        TreeMap<String, Usage> usage = new TreeMap<>();
+        categories.forEach((String name, Totals t) -> usage.put(name, new Usage(t)));
+        return Collections.unmodifiableMap(usage);
+    }
+
+    /**
+     * @return the number of bytes of native memory held by every live object
+     */
+    public static long getNativeBytes() {
+        return sum((Totals t) -> t.nativeBytes.get());
+    }
+
+    /**
+     * @return the number of bytes of gpu memory held by every live object
+     */
+    public static long getGpuBytes() {
+        return sum((Totals t) -> t.gpuBytes.get());
+    }
+
+    /**
+     * @return the number of objects whose account is open
+     */
+    public static long getLiveObjects() {
+        return sum((Totals t) -> t.objects.get());
+    }
+
+    /**
+     * @return the number of objects collected without being cleaned up so far
+     */
+    public static long getLeaks() {
+        return sum((Totals t) -> t.leaks.get());
+    }
+
+    /**
+     * @param value is the count to add up
+     * @return the count added up over every category
+     */
+    private static long sum(ToLongFunction<Totals> value) {
+        long sum = 0;
+        for(Totals t: categories.values())
+            sum += value.applyAsLong(t);
+        return sum;
+    }
+
+    /**
+     * Registers the registry with the platform MBean server under OBJECT_NAME
+     * Does nothing (other than warn) if something is already registered there
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(server.isRegistered(name)) {
+                Logger.warn("Memory registry is already registered as " + OBJECT_NAME);
+                return;
+            }
+            server.registerMBean(new StandardMBean(new Bean(), MemoryRegistryMXBean.class, true), name);
+        } catch(JMException e) {
+            Logger.err("Could not register memory registry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the registry from the platform MBean server, if it's registered
+     */
+    public static void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch(JMException e) {
+            Logger.err("Could not unregister memory registry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return a one line summary of the totals, for logging
+     */
+    public static String summary() {
+        return String.format("%d objects, %d native bytes, %d gpu bytes, %d leaked",
+                getLiveObjects(), getNativeBytes(), getGpuBytes(), getLeaks());
+    }
+
+    /**
+     * The memory held by one object, reported by the object itself
+     * Byte counts are absolute (what the object holds right now), the category totals are adjusted by the difference
+     */
+    public static final class Account {
+
+        /**
+         * totals           the totals of the category the account is in
+         * site             where the object was made, null if not tracked
+         * nativeBytes      the number of bytes of native memory the object holds
+         * gpuBytes         the number of bytes of gpu memory the object holds
+         * closed           tells if the object was cleaned up
+         * cleanable        the registration with the cleaner, cleaned when the account is closed
+         */
+        private final Totals totals;
+        private final Throwable site;
+        private final AtomicLong nativeBytes = new AtomicLong(), gpuBytes = new AtomicLong();
+        private volatile boolean closed = false;
+        private Cleaner.Cleanable cleanable;
+
+        private Account(Totals totals, Throwable site) {
+            this.totals = totals;
+            this.site = site;
+        }
+
+        /**
+         * @param bytes is the number of bytes of native memory the object holds now
+         */
+        public void setNativeBytes(long bytes) {
+            if(!closed)
+                totals.nativeBytes.addAndGet(bytes - nativeBytes.getAndSet(bytes));
+        }
+
+        /**
+         * @param bytes is the number of bytes of gpu memory the object holds now
+         */
+        public void setGpuBytes(long bytes) {
+            if(!closed)
+                totals.gpuBytes.addAndGet(bytes - gpuBytes.getAndSet(bytes));
+        }
+
+        public long getNativeBytes() {
+            return nativeBytes.get();
+        }
+
+        public long getGpuBytes() {
+            return gpuBytes.get();
+        }
+
+        /**
+         * Closes the account once the object is cleaned up, its memory no longer counts toward the totals
+         * Closing more than once does nothing
+         */
+        public void close() {
+            if(closed)
+                return;
+            setNativeBytes(0);
+            setGpuBytes(0);
+            closed = true;
+            totals.objects.decrementAndGet();
+            cleanable.clean();
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+
+    /**
+     * Runs once the object of an account is collected (or its account closed), reports it if it wasn't cleaned up
+     * Must not reference the object itself, or it would never be collected
+     */
+    private static class LeakCheck implements Runnable {
+        private final Account account;
+        private final String owner;
+
+        private LeakCheck(Account account, String owner) {
+            this.account = account;
+            this.owner = owner;
+        }
+
+        @Override
+        public void run() {
+            if(account.closed)
+                return;
+            long nativeBytes = account.nativeBytes.get(), gpuBytes = account.gpuBytes.get();
+            account.close();
+            account.totals.leaks.incrementAndGet();
+            if(account.site == null) {
+                Logger.warn("{} was garbage collected without cleanup, leaking {} native & {} gpu bytes "
+                        + "(track allocation sites to see where it was made)", owner, nativeBytes, gpuBytes);
+                return;
+            }
+            StringBuilder trace = new StringBuilder();
+            StackTraceElement[] elements = account.site.getStackTrace();
+            // skip the registry's own frame
+            for(int x = 1; x < elements.length; x++)
+                trace.append("\n    at ").append(elements[x]);
+            Logger.warn("{} was garbage collected without cleanup, leaking {} native & {} gpu bytes, made at:{}",
+                    owner, nativeBytes, gpuBytes, trace);
+        }
+    }
+
+    /**
+     * The running totals of a category
+     */
+    private static class Totals {
+        private final String name;
+        private final AtomicLong objects = new AtomicLong(), nativeBytes = new AtomicLong(), gpuBytes = new AtomicLong();
+        private final AtomicLong leaks = new AtomicLong();
+
+        private Totals(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * The totals of a category at one point, never changed once made
+     */
+    public static final class Usage {
+        private final String category;
+        private final long objects, nativeBytes, gpuBytes, leaks;
+
+        private Usage(Totals totals) {
+            this.category = totals.name;
+            this.objects = totals.objects.get();
+            this.nativeBytes = totals.nativeBytes.get();
+            this.gpuBytes = totals.gpuBytes.get();
+            this.leaks = totals.leaks.get();
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        /**
+         * @return the number of live objects in the category
+         */
+        public long getObjects() {
+            return objects;
+        }
+
+        public long getNativeBytes() {
+            return nativeBytes;
+        }
+
+        public long getGpuBytes() {
+            return gpuBytes;
+        }
+
+        /**
+         * @return the number of objects in the category collected without being cleaned up
+         */
+        public long getLeaks() {
+            return leaks;
+        }
+
+        public String toString() {
+            return String.format("%s: %d objects, %d native bytes, %d gpu bytes, %d leaked",
+                    category, objects, nativeBytes, gpuBytes, leaks);
+        }
+    }
+
+    /**
+     * Exposes the totals through the MXBean interface
+     */
+    private static class Bean implements MemoryRegistryMXBean {
+        public long getNativeBytes() {
+            return MemoryRegistry.getNativeBytes();
+        }
+
+        public long getGpuBytes() {
+            return MemoryRegistry.getGpuBytes();
+        }
+
+        public long getLiveObjects() {
+            return MemoryRegistry.getLiveObjects();
+        }
+
+        public long getLeaks() {
+            return MemoryRegistry.getLeaks();
+        }
+
+        public Map<String, Long> getNativeBytesByCategory() {
+            return byCategory((Totals t) -> t.nativeBytes.get());
+        }
+
+        public Map<String, Long> getGpuBytesByCategory() {
+            return byCategory((Totals t) -> t.gpuBytes.get());
+        }
+
+        public Map<String, Long> getObjectsByCategory() {
+            return byCategory((Totals t) -> t.objects.get());
+        }
+
+        public boolean isTrackingAllocationSites() {
+            return trackSites;
+        }
+
+        public void setTrackingAllocationSites(boolean track) {
+            trackSites = track;
+        }
+
+        private static Map<String, Long> byCategory(ToLongFunction<Totals> value) {
+            TreeMap<String, Long> map = new TreeMap<>();
+            categories.forEach((String name, Totals t) -> map.put(name, value.applyAsLong(t)));
+            return map;
+        }
+    }
+}
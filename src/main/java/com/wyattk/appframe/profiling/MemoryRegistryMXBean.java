@@ -0,0 +1,56 @@
+package com.wyattk.appframe.profiling;
+
+import java.util.Map;
+
+/**
+ * Management interface of the memory registry, registered with the platform MBean server as
+ * MemoryRegistry.OBJECT_NAME by Appframe so monitoring tools (jconsole, a JMX exporter, ...) can scrape it
+ * Counts are of the objects alive right now, except for leaks which count up from the start of the application
+ */
+public interface MemoryRegistryMXBean {
+
+    /**
+     * @return the number of bytes of native memory held by every live object
+     */
+    long getNativeBytes();
+
+    /**
+     * @return the number of bytes of gpu memory held by every live object
+     */
+    long getGpuBytes();
+
+    /**
+     * @return the number of objects that haven't been cleaned up yet
+     */
+    long getLiveObjects();
+
+    /**
+     * @return the number of objects garbage collected without being cleaned up
+     */
+    long getLeaks();
+
+    /**
+     * @return the number of bytes of native memory held in each category
+     */
+    Map<String, Long> getNativeBytesByCategory();
+
+    /**
+     * @return the number of bytes of gpu memory held in each category
+     */
+    Map<String, Long> getGpuBytesByCategory();
+
+    /**
+     * @return the number of live objects in each category
+     */
+    Map<String, Long> getObjectsByCategory();
+
+    /**
+     * @return true if objects made from now on record where they were made
+     */
+    boolean isTrackingAllocationSites();
+
+    /**
+     * @param track tells if objects made from now on should record where they were made, so leaks can be traced
+     */
+    void setTrackingAllocationSites(boolean track);
+}
@@ -0,0 +1,357 @@
+package com.wyattk.appframe.profiling;
+
+import com.wyattk.appframe.util.IUsesNativeMemory;
+import com.wyattk.appframe.util.Logger;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.util.remotery.Remotery.*;
+import static org.lwjgl.util.remotery.RemoteryGL.*;
+
+/**
+ * Frame profiler with nestable CPU scopes and GPU scopes (GL_TIME_ELAPSED queries)
+ * CPU scopes are named by their path (e.g. "frame/render/draw"), the time spent in each one is added up over a frame
+ *   and recorded into that scope's histogram when the frame ends
+ * GPU scopes are read back a few frames later, once the query results are available, so they never stall the pipeline
+ *   GPU scopes cannot overlap each other (OpenGL only allows one GL_TIME_ELAPSED query at a time)
+ * Results can optionally be streamed to Remotery as well
+ *
+ * A profiler belongs to a single thread, and all GPU scope methods must be called on the render thread
+ * When disabled, every method returns right away
+ */
+public class Profiler implements IUsesNativeMemory {
+
+    /**
+     * MAX_DEPTH        the deepest CPU scopes can be nested
+     * enabled          tells if the profiler records anything
+     * root             the scope for the whole frame, every other CPU scope is under it
+     * stack            the CPU scopes currently open, innermost last
+     * starts           the start time of each open CPU scope
+     * depth            the number of CPU scopes open
+     * cpuScopes        map of path to CPU scope, for queries (safe to read from any thread)
+     * gpuScopes        map of name to GPU scope, for queries (safe to read from any thread)
+     * freeQueries      query objects ready to be reused
+     * pendingQueries   query objects that have been ended but not read yet, oldest first
+     * openGpuScope     the GPU scope currently open, null if none
+     * openQuery        the query object of the open GPU scope
+     * remotery         the Remotery instance, 0 if not streaming
+     * memory           the account the profiler reports the native memory of its scopes to
+     */
+    private static final int MAX_DEPTH = 32;
+    private final boolean enabled;
+    private final Scope root;
+    private final Scope[] stack = new Scope[MAX_DEPTH];
+    private final long[] starts = new long[MAX_DEPTH];
+    private int depth = 0;
+    private final Map<String, Scope> cpuScopes = new ConcurrentHashMap<>();
+    private final Map<String, Scope> gpuScopes = new ConcurrentHashMap<>();
+    private final ArrayDeque<Integer> freeQueries = new ArrayDeque<>();
+    private final ArrayDeque<PendingQuery> pendingQueries = new ArrayDeque<>();
+    private Scope openGpuScope = null;
+    private int openQuery = 0;
+    private long remotery = 0;
+    private final MemoryRegistry.Account memory;
+
+    /**
+     * Creates a profiler
+     * @param enabled tells if the profiler should record anything
+     * @param rootName is the name of the scope covering the whole frame
+     */
+    public Profiler(boolean enabled, String rootName) {
+        this.enabled = enabled;
+        this.root = new Scope(rootName, rootName);
+        cpuScopes.put(rootName, root);
+        this.memory = MemoryRegistry.open("Profiler", this);
+        countScopes();
+    }
+
+    /**
+     * @return true if the profiler records anything
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts a frame, opening the root scope
+     */
+    public void beginFrame() {
+        if(!enabled)
+            return;
+        depth = 0;
+        push(root);
+    }
+
+    /**
+     * Ends a frame, closing the root scope & recording this frame's totals of every CPU scope that ran
+     * Also reads back any GPU scope results that have become available
+     */
+    public void endFrame() {
+        if(!enabled)
+            return;
+        while(depth > 0)
+            endScope();
+        for(Scope scope: cpuScopes.values()) {
+            if(scope.frameCalls > 0)
+                scope.histogram.record(scope.frameTotal);
+            scope.frameTotal = 0;
+            scope.frameCalls = 0;
+        }
+        readGpuQueries();
+    }
+
+    /**
+     * Opens a CPU scope nested in the innermost open scope
+     * @param name is the name of the scope
+     */
+    public void beginScope(String name) {
+        if(!enabled)
+            return;
+        if(depth == 0)
+            throw new IllegalStateException("Cannot begin a profiler scope outside of a frame");
+        Scope parent = stack[depth - 1];
+        Scope scope = parent.children.get(name);
+        if(scope == null) {
+            scope = new Scope(name, parent.path + "/" + name);
+            parent.children.put(name, scope);
+            cpuScopes.put(scope.path, scope);
+            countScopes();
+        }
+        push(scope);
+    }
+
+    /**
+     * Closes the innermost open CPU scope
+     */
+    public void endScope() {
+        if(!enabled)
+            return;
+        if(depth == 0)
+            throw new IllegalStateException("No profiler scope to end");
+        depth--;
+        Scope scope = stack[depth];
+        scope.frameTotal += System.nanoTime() - starts[depth];
+        scope.frameCalls++;
+        if(remotery != 0)
+            rmt_EndCPUSample();
+    }
+
+    private void push(Scope scope) {
+        if(depth == MAX_DEPTH)
+            throw new IllegalStateException("Profiler scopes nested deeper than " + MAX_DEPTH);
+        if(remotery != 0)
+            rmt_BeginCPUSample(scope.name, RMTSF_Aggregate, scope.remoteryHash);
+        stack[depth] = scope;
+        starts[depth] = System.nanoTime();
+        depth++;
+    }
+
+    /**
+     * Opens a GPU scope, timing the OpenGL commands issued until endGpuScope
+     * @param name is the name of the scope
+     */
+    public void beginGpuScope(String name) {
+        if(!enabled)
+            return;
+        if(openGpuScope != null)
+            throw new IllegalStateException("Cannot nest GPU scope " + name + " in " + openGpuScope.name);
+        if(!gpuScopes.containsKey(name)) {
+            gpuScopes.put(name, new Scope(name, name));
+            countScopes();
+        }
+        openGpuScope = gpuScopes.get(name);
+
+        Integer query = freeQueries.poll();
+        if(query == null)
+            query = glGenQueries();
+        pendingQueries.add(new PendingQuery(openGpuScope, query));
+        openQuery = query;
+        glBeginQuery(GL_TIME_ELAPSED, query);
+        if(remotery != 0)
+            rmt_BeginOpenGLSample(name, openGpuScope.remoteryHash);
+    }
+
+    /**
+     * Closes the open GPU scope
+     */
+    public void endGpuScope() {
+        if(!enabled)
+            return;
+        if(openGpuScope == null)
+            throw new IllegalStateException("No GPU scope to end");
+        glEndQuery(GL_TIME_ELAPSED);
+        if(remotery != 0)
+            rmt_EndOpenGLSample();
+        openGpuScope = null;
+        openQuery = 0;
+    }
+
+    /**
+     * Records the results of every finished GPU query, oldest first, stopping at the first one that isn't ready
+     * Queries finish in order, so nothing after an unfinished one can be ready either
+     */
+    private void readGpuQueries() {
+        PendingQuery pending;
+        while((pending = pendingQueries.peek()) != null && pending.query != openQuery) {
+            if(glGetQueryObjecti(pending.query, GL_QUERY_RESULT_AVAILABLE) == GL_FALSE)
+                break;
+            pending.scope.histogram.record(glGetQueryObjectui64(pending.query, GL_QUERY_RESULT));
+            pendingQueries.poll();
+            freeQueries.add(pending.query);
+        }
+    }
+
+    /**
+     * Starts streaming all scopes to Remotery (connect with its web viewer)
+     * Must be called on the render thread, since it binds to the OpenGL context for GPU scopes
+     */
+    public void enableRemotery() {
+        if(!enabled || remotery != 0)
+            return;
+        if(depth > 0)
+            throw new IllegalStateException("Cannot enable Remotery in the middle of a frame");
+        try(MemoryStack stack = MemoryStack.stackPush()) {
+            PointerBuffer instance = stack.mallocPointer(1);
+            int error = rmt_CreateGlobalInstance(instance);
+            if(error != RMT_ERROR_NONE) {
+                Logger.err("Could not start Remotery, error " + error);
+                return;
+            }
+            remotery = instance.get(0);
+        }
+        rmt_BindOpenGL();
+        Logger.log("Streaming profiler to Remotery");
+    }
+
+    /**
+     * @param path is the path of the scope, e.g. "frame/render"
+     * @return the per-frame timings of the CPU scope, null if it never ran
+     */
+    public Histogram getCpuHistogram(String path) {
+        Scope scope = cpuScopes.get(path);
+        return scope == null ? null : scope.histogram;
+    }
+
+    /**
+     * @param name is the name of the GPU scope
+     * @return the timings of the GPU scope, null if it never ran
+     */
+    public Histogram getGpuHistogram(String name) {
+        Scope scope = gpuScopes.get(name);
+        return scope == null ? null : scope.histogram;
+    }
+
+    /**
+     * @return map of path to the per-frame timings of every CPU scope that has run
+     */
+    public Map<String, Histogram> getCpuHistograms() {
+        HashMap<String, Histogram> histograms = new HashMap<>();
+        cpuScopes.forEach((String path, Scope scope) -> histograms.put(path, scope.histogram));
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * @return map of name to the timings of every GPU scope that has run
+     */
+    public Map<String, Histogram> getGpuHistograms() {
+        HashMap<String, Histogram> histograms = new HashMap<>();
+        gpuScopes.forEach((String name, Scope scope) -> histograms.put(name, scope.histogram));
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * Deletes the query objects, stops Remotery and frees the native memory of the scopes
+     * Must be called on the render thread if GPU scopes were used
+     */
+    @Override
+    public void cleanup() {
+        Logger.verb("Cleaning {}...", this);
+        for(PendingQuery pending: pendingQueries)
+            glDeleteQueries(pending.query);
+        pendingQueries.clear();
+        for(int query: freeQueries)
+            glDeleteQueries(query);
+        freeQueries.clear();
+
+        if(remotery != 0) {
+            rmt_UnbindOpenGL();
+            rmt_DestroyGlobalInstance(remotery);
+            remotery = 0;
+        }
+
+        cpuScopes.values().forEach(Scope::free);
+        gpuScopes.values().forEach(Scope::free);
+        memory.close();
+    }
+
+    /**
+     * Reports the native memory of the scopes to the memory registry, after one is made
+     */
+    private void countScopes() {
+        memory.setNativeBytes(getNativeBytes());
+    }
+
+    /**
+     * @return the number of bytes of native memory held by the scopes
+     */
+    @Override
+    public long getNativeBytes() {
+        return (long) Integer.BYTES * (cpuScopes.size() + gpuScopes.size());
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + hashCode();
+    }
+
+    /**
+     * A named scope being profiled
+     * name             the name of the scope
+     * path             the names of the scope & all its parents, separated by "/"
+     * children         map of name to the scopes nested in this one
+     * histogram        the recorded timings
+     * frameTotal       the time spent in the scope so far this frame, in nanoseconds
+     * frameCalls       the number of times the scope ran so far this frame
+     * remoteryHash     cache Remotery uses to skip hashing the name every time
+     */
+    private static class Scope {
+        private final String name, path;
+        private final HashMap<String, Scope> children = new HashMap<>();
+        private final Histogram histogram = new Histogram();
+        private long frameTotal = 0;
+        private int frameCalls = 0;
+        private IntBuffer remoteryHash = MemoryUtil.memCallocInt(1);
+
+        private Scope(String name, String path) {
+            this.name = name;
+            this.path = path;
+        }
+
+        private void free() {
+            if(remoteryHash != null)
+                MemoryUtil.memFree(remoteryHash);
+            remoteryHash = null;
+        }
+    }
+
+    /**
+     * A GPU query that has been started but not read back yet
+     */
+    private static class PendingQuery {
+        private final Scope scope;
+        private final int query;
+
+        private PendingQuery(Scope scope, int query) {
+            this.scope = scope;
+            this.query = query;
+        }
+    }
+}
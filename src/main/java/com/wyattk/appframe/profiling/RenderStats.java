@@ -0,0 +1,369 @@
+package com.wyattk.appframe.profiling;
+
+import com.wyattk.appframe.util.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Counters describing what each frame costs: draw calls, triangles, state changes & bytes uploaded, along with the
+ * number of live OpenGL objects & the native memory allocated by the framework
+ * The code making the OpenGL calls reports to these counters, the Appframe ends each frame, which publishes the
+ * frame's counts as a Snapshot (see getLastFrame) and resets them
+ *
+ * Per-frame counters must only be reported from the render thread, live counts may be reported from any thread
+ */
+public final class RenderStats {
+
+    /**
+     * OBJECT_NAME      the name the statistics are registered with the platform MBean server under
+     * drawCalls...     the counts of the frame in progress (render thread only)
+     * live...          the number of OpenGL objects currently alive
+     * nativeBytes      the number of bytes of native memory currently allocated by the framework
+     * lastFrame        the counts of the last finished frame
+     */
+    public static final String OBJECT_NAME = "com.wyattk.appframe:type=RenderStats";
+    private static long drawCalls = 0, triangles = 0, programSwitches = 0, vaoSwitches = 0, blendSwitches = 0;
+    private static long bytesUploaded = 0, uniformUploads = 0, redundantUniformSets = 0;
+    private static final AtomicLong liveVaos = new AtomicLong(), liveVbos = new AtomicLong(), livePrograms = new AtomicLong();
+    private static final AtomicLong nativeBytes = new AtomicLong();
+    private static volatile Snapshot lastFrame = new Snapshot();
+
+    private RenderStats() {}
+
+    /**
+     * Counts a draw call
+     * @param drawMode is the OpenGL draw mode of the call
+     * @param vertexCount is the number of vertices (indices) drawn
+     */
+    public static void countDraw(int drawMode, int vertexCount) {
+        drawCalls++;
+        switch(drawMode) {
+            case GL_TRIANGLES:
+                triangles += vertexCount / 3;
+                break;
+            case GL_TRIANGLE_STRIP:
+            case GL_TRIANGLE_FAN:
+                triangles += Math.max(0, vertexCount - 2);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Counts a shader program being bound
+     */
+    public static void countProgramSwitch() {
+        programSwitches++;
+    }
+
+    /**
+     * Counts a vertex array object being bound
+     */
+    public static void countVaoSwitch() {
+        vaoSwitches++;
+    }
+
+    /**
+     * Counts blending being turned on or off
+     */
+    public static void countBlendSwitch() {
+        blendSwitches++;
+    }
+
+    /**
+     * Counts data being sent to the gpu
+     * @param bytes is the number of bytes sent
+     */
+    public static void countUpload(long bytes) {
+        bytesUploaded += bytes;
+    }
+
+    /**
+     * Counts a uniform value being sent to the gpu
+     */
+    public static void countUniformUpload() {
+        uniformUploads++;
+    }
+
+    /**
+     * Counts a uniform being set to the value it already had, which isn't sent
+     */
+    public static void countRedundantUniform() {
+        redundantUniformSets++;
+    }
+
+    /**
+     * @param count is the number of vertex array objects created (negative for deleted)
+     */
+    public static void addVaos(int count) {
+        liveVaos.addAndGet(count);
+    }
+
+    /**
+     * @param count is the number of vertex buffer objects created (negative for deleted)
+     */
+    public static void addVbos(int count) {
+        liveVbos.addAndGet(count);
+    }
+
+    /**
+     * @param count is the number of shader programs created (negative for deleted)
+     */
+    public static void addPrograms(int count) {
+        livePrograms.addAndGet(count);
+    }
+
+    /**
+     * @param bytes is the number of bytes of native memory allocated
+     */
+    public static void nativeAllocated(long bytes) {
+        nativeBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @param bytes is the number of bytes of native memory freed
+     */
+    public static void nativeFreed(long bytes) {
+        nativeBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * Publishes the counts of the frame that just finished & starts counting the next one
+     * Must be called on the render thread, once per frame
+     */
+    public static void endFrame() {
+        Snapshot previous = lastFrame;
+        Snapshot snapshot = new Snapshot();
+        snapshot.frames = previous.frames + 1;
+        snapshot.drawCalls = drawCalls;
+        snapshot.triangles = triangles;
+        snapshot.programSwitches = programSwitches;
+        snapshot.vaoSwitches = vaoSwitches;
+        snapshot.blendSwitches = blendSwitches;
+        snapshot.bytesUploaded = bytesUploaded;
+        snapshot.uniformUploads = uniformUploads;
+        snapshot.redundantUniformSets = redundantUniformSets;
+        snapshot.totalDrawCalls = previous.totalDrawCalls + drawCalls;
+        snapshot.totalTriangles = previous.totalTriangles + triangles;
+        snapshot.totalBytesUploaded = previous.totalBytesUploaded + bytesUploaded;
+        snapshot.liveVaos = liveVaos.get();
+        snapshot.liveVbos = liveVbos.get();
+        snapshot.livePrograms = livePrograms.get();
+        snapshot.nativeBytes = nativeBytes.get();
+        lastFrame = snapshot;
+
+        drawCalls = triangles = programSwitches = vaoSwitches = blendSwitches = bytesUploaded = 0;
+        uniformUploads = redundantUniformSets = 0;
+    }
+
+    /**
+     * @return the counts of the last finished frame, safe to call from any thread
+     */
+    public static Snapshot getLastFrame() {
+        return lastFrame;
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server under OBJECT_NAME
+     * Does nothing (other than warn) if something is already registered there
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(server.isRegistered(name)) {
+                Logger.warn("Render statistics are already registered as " + OBJECT_NAME);
+                return;
+            }
+            server.registerMBean(new StandardMBean(new Bean(), RenderStatsMBean.class), name);
+        } catch(JMException e) {
+            Logger.err("Could not register render statistics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the statistics from the platform MBean server, if they are registered
+     */
+    public static void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch(JMException e) {
+            Logger.err("Could not unregister render statistics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The counts of a finished frame, never changed once published
+     */
+    public static final class Snapshot {
+        private long frames, drawCalls, triangles, programSwitches, vaoSwitches, blendSwitches, bytesUploaded;
+        private long uniformUploads, redundantUniformSets;
+        private long totalDrawCalls, totalTriangles, totalBytesUploaded;
+        private long liveVaos, liveVbos, livePrograms, nativeBytes;
+
+        private Snapshot() {}
+
+        public long getFrames() {
+            return frames;
+        }
+
+        public long getDrawCalls() {
+            return drawCalls;
+        }
+
+        public long getTriangles() {
+            return triangles;
+        }
+
+        /**
+         * @return the number of program, vertex array & blend state changes
+         */
+        public long getStateChanges() {
+            return programSwitches + vaoSwitches + blendSwitches;
+        }
+
+        public long getProgramSwitches() {
+            return programSwitches;
+        }
+
+        public long getVaoSwitches() {
+            return vaoSwitches;
+        }
+
+        public long getBlendSwitches() {
+            return blendSwitches;
+        }
+
+        public long getBytesUploaded() {
+            return bytesUploaded;
+        }
+
+        public long getUniformUploads() {
+            return uniformUploads;
+        }
+
+        public long getRedundantUniformSets() {
+            return redundantUniformSets;
+        }
+
+        public long getTotalDrawCalls() {
+            return totalDrawCalls;
+        }
+
+        public long getTotalTriangles() {
+            return totalTriangles;
+        }
+
+        public long getTotalBytesUploaded() {
+            return totalBytesUploaded;
+        }
+
+        public long getLiveVaos() {
+            return liveVaos;
+        }
+
+        public long getLiveVbos() {
+            return liveVbos;
+        }
+
+        public long getLivePrograms() {
+            return livePrograms;
+        }
+
+        public long getNativeBytes() {
+            return nativeBytes;
+        }
+
+        public String toString() {
+            return String.format(
+                    "%d draws, %d triangles, %d state changes, %d bytes uploaded, %d uniforms uploaded (%d redundant), %d VAOs, %d VBOs, %d programs, %d native bytes",
+                    drawCalls, triangles, getStateChanges(), bytesUploaded, uniformUploads, redundantUniformSets,
+                    liveVaos, liveVbos, livePrograms, nativeBytes
+            );
+        }
+    }
+
+    /**
+     * Exposes the last frame's snapshot through the MBean interface
+     */
+    private static class Bean implements RenderStatsMBean {
+        public long getFrames() {
+            return lastFrame.getFrames();
+        }
+
+        public long getDrawCalls() {
+            return lastFrame.getDrawCalls();
+        }
+
+        public long getTriangles() {
+            return lastFrame.getTriangles();
+        }
+
+        public long getStateChanges() {
+            return lastFrame.getStateChanges();
+        }
+
+        public long getProgramSwitches() {
+            return lastFrame.getProgramSwitches();
+        }
+
+        public long getVaoSwitches() {
+            return lastFrame.getVaoSwitches();
+        }
+
+        public long getBlendSwitches() {
+            return lastFrame.getBlendSwitches();
+        }
+
+        public long getBytesUploaded() {
+            return lastFrame.getBytesUploaded();
+        }
+
+        public long getUniformUploads() {
+            return lastFrame.getUniformUploads();
+        }
+
+        public long getRedundantUniformSets() {
+            return lastFrame.getRedundantUniformSets();
+        }
+
+        public long getTotalDrawCalls() {
+            return lastFrame.getTotalDrawCalls();
+        }
+
+        public long getTotalTriangles() {
+            return lastFrame.getTotalTriangles();
+        }
+
+        public long getTotalBytesUploaded() {
+            return lastFrame.getTotalBytesUploaded();
+        }
+
+        public long getLiveVaos() {
+            return liveVaos.get();
+        }
+
+        public long getLiveVbos() {
+            return liveVbos.get();
+        }
+
+        public long getLivePrograms() {
+            return livePrograms.get();
+        }
+
+        public long getNativeBytes() {
+            return nativeBytes.get();
+        }
+    }
+}
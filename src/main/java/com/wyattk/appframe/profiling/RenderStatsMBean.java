@@ -0,0 +1,94 @@
+package com.wyattk.appframe.profiling;
+
+/**
+ * Management interface of the render statistics, registered with the platform MBean server as
+ * RenderStats.OBJECT_NAME by Appframe so monitoring tools (jconsole, a JMX exporter, ...) can scrape it
+ * Per-frame values describe the last finished frame, totals count up from the start of the application
+ */
+public interface RenderStatsMBean {
+
+    /**
+     * @return the number of frames finished so far
+     */
+    long getFrames();
+
+    /**
+     * @return the number of draw calls in the last frame
+     */
+    long getDrawCalls();
+
+    /**
+     * @return the number of triangles drawn in the last frame
+     */
+    long getTriangles();
+
+    /**
+     * @return the number of program, vertex array & blend state changes in the last frame
+     */
+    long getStateChanges();
+
+    /**
+     * @return the number of shader program switches in the last frame
+     */
+    long getProgramSwitches();
+
+    /**
+     * @return the number of vertex array switches in the last frame
+     */
+    long getVaoSwitches();
+
+    /**
+     * @return the number of times blending was turned on or off in the last frame
+     */
+    long getBlendSwitches();
+
+    /**
+     * @return the number of bytes of mesh data sent to the gpu in the last frame
+     */
+    long getBytesUploaded();
+
+    /**
+     * @return the number of uniform values sent to the gpu in the last frame
+     */
+    long getUniformUploads();
+
+    /**
+     * @return the number of uniforms set to the value they already had (so not sent) in the last frame
+     */
+    long getRedundantUniformSets();
+
+    /**
+     * @return the number of draw calls since the start
+     */
+    long getTotalDrawCalls();
+
+    /**
+     * @return the number of triangles drawn since the start
+     */
+    long getTotalTriangles();
+
+    /**
+     * @return the number of bytes of mesh data sent to the gpu since the start
+     */
+    long getTotalBytesUploaded();
+
+    /**
+     * @return the number of vertex array objects currently alive
+     */
+    long getLiveVaos();
+
+    /**
+     * @return the number of vertex buffer objects currently alive
+     */
+    long getLiveVbos();
+
+    /**
+     * @return the number of shader programs currently alive
+     */
+    long getLivePrograms();
+
+    /**
+     * @return the number of bytes of native memory currently allocated by the framework
+     */
+    long getNativeBytes();
+}
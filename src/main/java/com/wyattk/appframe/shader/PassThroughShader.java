@@ -19,8 +19,8 @@ public class PassThroughShader {
         Shader temp;
         try {
             temp = new Shader(
-                    FileRead.readResource("./shaders/vertex.vert"),
-                    FileRead.readResource("./shaders/fragment.frag"),
+                    FileRead.readCached("./shaders/vertex.vert"),
+                    FileRead.readCached("./shaders/fragment.frag"),
                     ShaderAttribute.POSITION, ShaderAttribute.COLOR
             );
         } catch (Exception e) {
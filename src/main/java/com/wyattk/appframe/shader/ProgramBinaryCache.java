@@ -0,0 +1,203 @@
+package com.wyattk.appframe.shader;
+
+import com.wyattk.appframe.util.Logger;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.lwjgl.opengl.GL42.*;
+import static org.lwjgl.util.xxhash.XXHash.XXH64;
+
+/**
+ * On-disk cache of linked shader programs (glGetProgramBinary), so programs don't have to be compiled every startup
+ * Entries are keyed by a hash of the shader sources plus the driver's vendor, renderer & version, so a driver update
+ *   simply misses the cache. A binary the driver rejects anyway is deleted & the program is compiled from source
+ * Install with ShaderProgram.setBinaryCache (or Appframe.Properties.setShaderCacheDirectory)
+ *
+ * All methods other than the metrics must be called on the thread with the OpenGL context
+ */
+public class ProgramBinaryCache {
+
+    /**
+     * HASH_SEED        the seed used when hashing the sources
+     * EXTENSION        the file extension of cached binaries
+     * directory        the directory binaries are stored in
+     * driver           the vendor, renderer & version strings of the driver, read on first use
+     * supported        tells if the driver supports any program binary format, read on first use
+     * hits...          the number of programs loaded from the cache, compiled because they weren't there (or were
+     *                  rejected), and written to the cache
+     */
+    private static final long HASH_SEED = 0;
+    private static final String EXTENSION = ".bin";
+    private final Path directory;
+    private String driver;
+    private boolean supported;
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), stores = new AtomicLong();
+
+    /**
+     * @param directory is the directory to keep binaries in, created if it doesn't exist
+     */
+    public ProgramBinaryCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Reads what the cache needs to know about the driver, once
+     */
+    private void readDriver() {
+        if(driver != null)
+            return;
+        driver = glGetString(GL_VENDOR) + "|" + glGetString(GL_RENDERER) + "|" + glGetString(GL_VERSION);
+        supported = glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+        if(!supported)
+            Logger.warn("Driver supports no program binary formats, shader cache disabled");
+    }
+
+    /**
+     * @param sources is the source code of every shader in the program, in a fixed order
+     * @return the key of the program for this driver
+     */
+    public String key(String... sources) {
+        readDriver();
+        StringBuilder sb = new StringBuilder(driver);
+        for(String source: sources)
+            sb.append('\0').append(source);
+        ByteBuffer data = MemoryUtil.memUTF8(sb, false);
+        try {
+            return Long.toHexString(XXH64(data, HASH_SEED));
+        } finally {
+            MemoryUtil.memFree(data);
+        }
+    }
+
+    /**
+     * Loads a cached binary into the program
+     * @param programId is the id of a program with nothing attached
+     * @param key is the key of the program (see key)
+     * @return true if the program was loaded & linked, false if it has to be compiled
+     */
+    public boolean load(int programId, String key) {
+        readDriver();
+        Path file = directory.resolve(key + EXTENSION);
+        if(!supported || !Files.isRegularFile(file)) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        ByteBuffer data = null;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = MemoryUtil.memAlloc((int) channel.size());
+            while(data.hasRemaining())
+                if(channel.read(data) == -1)
+                    break;
+            data.flip();
+            if(data.remaining() < Integer.BYTES)
+                throw new IOException("Truncated program binary");
+
+            int format = data.getInt();
+            glProgramBinary(programId, format, data);
+            if(glGetProgrami(programId, GL_LINK_STATUS) == GL_TRUE) {
+                hits.incrementAndGet();
+                return true;
+            }
+            Logger.verb("Driver rejected cached program {}, compiling instead", key);
+        } catch(IOException e) {
+            Logger.warn("Could not read cached program " + file + ": " + e.getMessage());
+        } finally {
+            if(data != null)
+                MemoryUtil.memFree(data);
+        }
+
+        // stale or broken, it gets replaced once the program is compiled
+        try {
+            Files.deleteIfExists(file);
+        } catch(IOException ignored) {
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Makes the program's binary retrievable, must be called before linking a program that will be stored
+     * @param programId is the id of the program
+     */
+    public void prepareLink(int programId) {
+        readDriver();
+        if(supported)
+            glProgramParameteri(programId, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+    }
+
+    /**
+     * Writes the binary of a freshly linked program to the cache
+     * Written to a temporary file first, so a crash (or another process) never sees half a binary
+     * @param programId is the id of the linked program
+     * @param key is the key of the program (see key)
+     */
+    public void store(int programId, String key) {
+        readDriver();
+        if(!supported)
+            return;
+        int length = glGetProgrami(programId, GL_PROGRAM_BINARY_LENGTH);
+        if(length <= 0)
+            return;
+
+        ByteBuffer data = MemoryUtil.memAlloc(Integer.BYTES + length);
+        try(MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer format = stack.mallocInt(1);
+            ByteBuffer binary = data.slice(Integer.BYTES, length);
+            glGetProgramBinary(programId, (IntBuffer) null, format, binary);
+            data.putInt(0, format.get(0));
+
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while(data.hasRemaining())
+                    channel.write(data);
+            }
+            Files.move(temp, directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            stores.incrementAndGet();
+        } catch(IOException e) {
+            Logger.warn("Could not write program " + key + " to the shader cache: " + e.getMessage());
+        } finally {
+            MemoryUtil.memFree(data);
+        }
+    }
+
+    /**
+     * @return the number of programs loaded from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of programs that had to be compiled, because they weren't cached or the driver rejected them
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of programs written to the cache
+     */
+    public long getStores() {
+        return stores.get();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + directory + " (" + hits + " hits, " + misses + " misses, " + stores + " stores)";
+    }
+}
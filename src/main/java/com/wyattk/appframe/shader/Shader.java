@@ -12,10 +12,10 @@ import java.util.List;
 public class Shader implements IUsesNativeMemory {
 
     /**
-     * shadeProgram     the shader program itself
+     * shadeProgram     the shader program itself, replaced when the shader is reloaded (see ShaderReloader)
      * attributes       the list of attributes used in the shader program
      */
-    private final ShaderProgram shaderProgram;
+    private volatile ShaderProgram shaderProgram;
     private final LinkedList<ShaderAttribute> attributes = new LinkedList<>();
 
     /**
@@ -26,6 +26,9 @@ public class Shader implements IUsesNativeMemory {
      */
     public Shader(String vertexPath, String fragmentPath) throws Exception {
         shaderProgram = new ShaderProgram();
+        // a cached binary skips compiling, linking & validating entirely
+        if(shaderProgram.loadFromCache(vertexPath, fragmentPath))
+            return;
         shaderProgram.createVertexShader(vertexPath);
         shaderProgram.createFragmentShader(fragmentPath);
         shaderProgram.link();
@@ -43,6 +46,30 @@ public class Shader implements IUsesNativeMemory {
         setAttributes(attributes);
     }
 
+    /**
+     * Creates the shader around a program that may still be compiling (see ShaderCompiler)
+     * @param shaderProgram is the shader program, submitted or already linked
+     * @param attributes is the attributes the shader uses (comma separated), order matters
+     */
+    Shader(ShaderProgram shaderProgram, ShaderAttribute... attributes) {
+        this.shaderProgram = shaderProgram;
+        setAttributes(attributes);
+    }
+
+    /**
+     * Replaces the shader program, meshes using the shader draw with the new one from then on
+     * Uniforms that exist in both take their values from the old program
+     * Must be called on the render thread between frames
+     * @param program is the new program, linked & ready
+     * @return the old program, for the caller to clean up
+     */
+    ShaderProgram swapProgram(ShaderProgram program) {
+        ShaderProgram previous = shaderProgram;
+        program.adoptUniforms(previous);
+        shaderProgram = program;
+        return previous;
+    }
+
     /**
      * Sets the used attributes to the list of given attributes
      * @param attributes is the attributes the shader uses (comma separated), order matters
@@ -78,6 +105,52 @@ public class Shader implements IUsesNativeMemory {
         return attributes.contains(attribute);
     }
 
+    /**
+     * @param name is the name of the uniform in the shader code
+     * @return the location of the uniform, -1 if the shader has no such (active) uniform
+     */
+    public int getUniformLocation(String name) {
+        return shaderProgram.getUniformLocation(name);
+    }
+
+    /**
+     * @return true if the shader program is linked & can be bound, false while it's compiling or if it failed
+     */
+    public boolean isReady() {
+        return shaderProgram.getStatus() == ShaderProgram.Status.READY;
+    }
+
+    /**
+     * @return tells if the shader program is still compiling, ready to bind, or failed
+     */
+    public ShaderProgram.Status getStatus() {
+        return shaderProgram.getStatus();
+    }
+
+    /**
+     * Checks on the shader program if it's still compiling (see ShaderProgram.poll)
+     * @return true once the shader program is no longer compiling
+     */
+    boolean poll() {
+        return shaderProgram.poll();
+    }
+
+    /**
+     * @param name is the name of the uniform in the shader code, without [0] for arrays
+     * @return the uniform, for setting its value without looking it up each time. null if the shader has no such
+     *         (active) uniform or is still compiling
+     */
+    public Uniform getUniform(String name) {
+        return shaderProgram.getUniform(name);
+    }
+
+    /**
+     * @return the shader program itself, for its typed uniform setters & counts
+     */
+    public ShaderProgram getShaderProgram() {
+        return shaderProgram;
+    }
+
     /**
      * Binds the shader program in the shader
      */
@@ -92,6 +165,14 @@ public class Shader implements IUsesNativeMemory {
         shaderProgram.unbind();
     }
 
+    /**
+     * @return the number of bytes of gpu memory the shader's program takes up
+     */
+    @Override
+    public long getGpuBytes() {
+        return shaderProgram.getGpuBytes();
+    }
+
     /**
      * Cleans up the shader
      */
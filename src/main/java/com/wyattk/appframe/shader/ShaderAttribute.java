@@ -2,8 +2,15 @@ package com.wyattk.appframe.shader;
 
 import com.wyattk.appframe.mesh.Mesh;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.function.Function;
+
 /**
  * Describes the behavior of a specific shader attribute
+ * The data comes either from an AttributeFunction returning it as an array, or from an AttributeSource writing it
+ *   straight into the buffer it's going to (no array in between), which is how the built-in attributes work
  */
 public class ShaderAttribute {
 
@@ -14,24 +21,26 @@ public class ShaderAttribute {
      * TEX_COORD_1      2d coordinate of a texture (x, y)
      * TEX_COORD_2      2d coordinate of a texture (x,y)
      */
-    public static final ShaderAttribute POSITION = new ShaderAttribute(3, Mesh::getVertexPositions, true, false);
-    public static final ShaderAttribute COLOR = new ShaderAttribute(4, Mesh::getColors, false, true);
-    public static final ShaderAttribute VERTEX_NORMAL = new ShaderAttribute(3, Mesh::getNormals, true, false);
+    public static final ShaderAttribute POSITION = new ShaderAttribute(3, copyOf(3, Mesh::getPositionData), true, false);
+    public static final ShaderAttribute COLOR = new ShaderAttribute(4, copyOf(4, Mesh::getColorData), false, true);
+    public static final ShaderAttribute VERTEX_NORMAL = new ShaderAttribute(3, copyOf(3, Mesh::getNormalData), true, false);
     //public static final ShaderAttribute TEX_COORD_1 = new ShaderAttribute(2, (Mesh mesh) -> new float[]{0, 0});
     //public static final ShaderAttribute TEX_COORD_2 = new ShaderAttribute(2, (Mesh mesh) -> new float[]{0, 0});
 
 
     /**
      * size                     the size of the attribute/the number of floats per index of the mesh
-     * func                     a function returning the data to use to fill the attribute
+     * func                     a function returning the data to use to fill the attribute, null if there's a source
      *                              The length of the returned array *should* be (attribute size) * (index count)
      *                              Aka there are (attribute size) values per index, so for all the indices to
      *                              have the attribute you need (attribute size) * (index count) floats of data
+     * source                   writes the data of the attribute into a buffer, null if there's a function
      * reliesOnPositionData     tells whether the shader attribute relies on the position data, required for updating
      * reliesOnColorData        tells whether the shader attribute relies on the color data, required for updating
      */
     private final int size;
     private final AttributeFunction func;
+    private final AttributeSource source;
     private final boolean reliesOnPositionData, reliesOnColorData;
 
     /**
@@ -47,16 +56,125 @@ public class ShaderAttribute {
     public ShaderAttribute(int size, AttributeFunction evaluationFunction, boolean reliesOnPositionData, boolean reliesOnColorData) {
         this.size = size;
         func = evaluationFunction;
+        source = null;
         this.reliesOnPositionData = reliesOnPositionData;
         this.reliesOnColorData =reliesOnColorData;
     }
 
     /**
+     * Creates a shader attribute whose data is written straight into the buffers it's sent to the gpu from
+     * @param size is the number of floats per index for this attribute
+     * @param source writes the values to pass to the GPU, size floats per element
+     * @param reliesOnPositionData tells whether the shader attribute relies on the position data, required for updating
+     * @param reliesOnColorData tells whether the shader attribute relies on the color data, required for updating
+     */
+    public ShaderAttribute(int size, AttributeSource source, boolean reliesOnPositionData, boolean reliesOnColorData) {
+        this.size = size;
+        func = null;
+        this.source = source;
+        this.reliesOnPositionData = reliesOnPositionData;
+        this.reliesOnColorData = reliesOnColorData;
+    }
+
+    /**
+     * For attributes with a source this copies the data into a new array, see write
      * @param mesh is the mesh to extract data from
      * @return the data for the attribute
      */
     public float[] getData(Mesh mesh) {
-        return func.getAttributeData(mesh);
+        if(func != null)
+            return func.getAttributeData(mesh);
+        float[] data = new float[source.getElementCount(mesh) * size];
+        source.write(mesh, FloatBuffer.wrap(data), 0, size);
+        return data;
+    }
+
+    /**
+     * @return true if the data is written straight into buffers (see write), false if it's returned as an array
+     */
+    public boolean hasSource() {
+        return source != null;
+    }
+
+    /**
+     * @param mesh is the mesh to get the data of
+     * @return the number of floats of data the mesh has for this attribute
+     */
+    public int getDataLength(Mesh mesh) {
+        return source != null ? source.getElementCount(mesh) * size : func.getAttributeData(mesh).length;
+    }
+
+    /**
+     * Writes the data of the attribute into a buffer, without going through an array for attributes with a source
+     * @param mesh is the mesh to get the data of
+     * @param target is the buffer to write into, its position & limit are left alone
+     * @param offset is the index (in floats) of the first float of the first element
+     * @param stride is the distance (in floats) from the start of one element to the next, size when tightly packed
+     */
+    public void write(Mesh mesh, FloatBuffer target, int offset, int stride) {
+        if(stride < size)
+            throw new IllegalArgumentException("Stride " + stride + " is smaller than the attribute size " + size);
+        if(source != null) {
+            source.write(mesh, target, offset, stride);
+            return;
+        }
+        write(func.getAttributeData(mesh), size, target, offset, stride);
+    }
+
+    /**
+     * Writes the data of the attribute into a buffer of bytes, in native order, see write(Mesh, FloatBuffer, int, int)
+     * @param mesh is the mesh to get the data of
+     * @param target is the buffer to write into, its position & limit are left alone
+     * @param byteOffset is the index (in bytes) of the first float of the first element, a multiple of 4
+     * @param byteStride is the distance (in bytes) from the start of one element to the next, a multiple of 4
+     */
+    public void write(Mesh mesh, ByteBuffer target, int byteOffset, int byteStride) {
+        if(byteOffset % Float.BYTES != 0 || byteStride % Float.BYTES != 0)
+            throw new IllegalArgumentException("Offset " + byteOffset + " & stride " + byteStride + " must be multiples of " + Float.BYTES);
+        FloatBuffer floats = target.duplicate().clear().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        write(mesh, floats, byteOffset / Float.BYTES, byteStride / Float.BYTES);
+    }
+
+    /**
+     * Copies elements of data into a buffer
+     * @param data is the data, size floats per element
+     * @param size is the number of floats per element
+     * @param target is the buffer to write into
+     * @param offset is the index of the first float of the first element in target
+     * @param stride is the distance from the start of one element to the next in target
+     */
+    private static void write(float[] data, int size, FloatBuffer target, int offset, int stride) {
+        if(stride == size) {
+            target.put(offset, data);
+            return;
+        }
+        for(int src = 0, dst = offset; src < data.length; src += size, dst += stride)
+            target.put(dst, data, src, size);
+    }
+
+    /**
+     * @param size is the number of floats per element
+     * @param data gets the buffer a mesh keeps the data in
+     * @return a source copying the data the mesh keeps, buffer to buffer
+     */
+    private static AttributeSource copyOf(int size, Function<Mesh, FloatBuffer> data) {
+        return new AttributeSource() {
+            @Override
+            public int getElementCount(Mesh mesh) {
+                return data.apply(mesh).remaining() / size;
+            }
+
+            @Override
+            public void write(Mesh mesh, FloatBuffer target, int offset, int stride) {
+                FloatBuffer src = data.apply(mesh);
+                if(stride == size) {
+                    target.put(offset, src, src.position(), src.remaining());
+                    return;
+                }
+                for(int s = src.position(), dst = offset; s < src.limit(); s += size, dst += stride)
+                    target.put(dst, src, s, size);
+            }
+        };
     }
 
     /**
@@ -87,4 +205,25 @@ public class ShaderAttribute {
     public interface AttributeFunction {
         float[] getAttributeData(Mesh mesh);
     }
+
+    /**
+     * Writes the data of an attribute straight into the buffer it's going to, so computed data doesn't need an array
+     * An element is the (attribute size) floats of one index
+     */
+    public interface AttributeSource {
+        /**
+         * @param mesh is the mesh to get the data of
+         * @return the number of elements the mesh has, known before anything is written
+         */
+        int getElementCount(Mesh mesh);
+
+        /**
+         * Writes every element, with absolute puts (the target's position & limit are left alone)
+         * @param mesh is the mesh to get the data of
+         * @param target is the buffer to write into
+         * @param offset is the index (in floats) in target of the first float of the first element
+         * @param stride is the distance (in floats) from the start of one element to the next, at least the size
+         */
+        void write(Mesh mesh, FloatBuffer target, int offset, int stride);
+    }
 }
@@ -0,0 +1,112 @@
+package com.wyattk.appframe.shader;
+
+import com.wyattk.appframe.util.Logger;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import static org.lwjgl.opengl.ARBParallelShaderCompile.glMaxShaderCompilerThreadsARB;
+import static org.lwjgl.opengl.KHRParallelShaderCompile.glMaxShaderCompilerThreadsKHR;
+
+/**
+ * Compiles shaders in batches without stalling the render thread on the driver
+ * Every shader is submitted (compiled & linked without asking how it went) up front, then polled once a frame
+ *   until the driver reports it done. Shaders are usable right away, the Appframe skips drawing with them until
+ *   they're ready (see Shader.isReady)
+ * Drivers with GL_KHR_parallel_shader_compile compile on their own threads & report progress without blocking.
+ *   Without it a program's status can't be checked without waiting on it, so only one program is finished per
+ *   poll to spread the stalls over several frames
+ *
+ * Must only be used on the render thread
+ */
+public class ShaderCompiler {
+
+    /**
+     * ALL_THREADS      tells the driver to use as many compiler threads as it likes
+     * compiling        the shaders submitted but not yet finished
+     * parallel         tells if the driver compiles in the background & reports progress
+     */
+    private static final int ALL_THREADS = 0xFFFFFFFF;
+    private final LinkedList<Shader> compiling = new LinkedList<>();
+    private final boolean parallel;
+
+    /**
+     * Creates a compiler for the current context, letting the driver use as many compiler threads as it likes
+     */
+    public ShaderCompiler() {
+        GLCapabilities caps = GL.getCapabilities();
+        parallel = ShaderProgram.isParallelCompileSupported();
+        if(caps.GL_KHR_parallel_shader_compile)
+            glMaxShaderCompilerThreadsKHR(ALL_THREADS);
+        else if(caps.GL_ARB_parallel_shader_compile)
+            glMaxShaderCompilerThreadsARB(ALL_THREADS);
+        else
+            Logger.verb("Driver can't compile shaders in parallel, finishing one per frame");
+    }
+
+    /**
+     * Submits a shader to be compiled, loading it from the binary cache instead if it's there
+     * @param vertexCode is the code of the vertex shader
+     * @param fragmentCode is the code of the fragment shader
+     * @param attributes is the attributes the shader uses (comma separated), order matters
+     * @return the shader, which can be put in the render queue right away
+     * @throws Exception if the shader program can't be created
+     */
+    public Shader submit(String vertexCode, String fragmentCode, ShaderAttribute... attributes) throws Exception {
+        ShaderProgram program = new ShaderProgram();
+        Shader shader = new Shader(program, attributes);
+        if(program.loadFromCache(vertexCode, fragmentCode))
+            return shader;
+
+        program.submit(vertexCode, fragmentCode);
+        compiling.add(shader);
+        return shader;
+    }
+
+    /**
+     * Finishes the shaders the driver is done with, without waiting on the rest
+     * Called by the Appframe once per frame
+     */
+    public void poll() {
+        Iterator<Shader> it = compiling.iterator();
+        while(it.hasNext()) {
+            Shader shader = it.next();
+            if(!shader.poll())
+                continue;
+            it.remove();
+            // asking about one more would mean waiting on it
+            if(!parallel)
+                return;
+        }
+    }
+
+    /**
+     * Waits for every submitted shader to finish compiling
+     */
+    public void finish() {
+        for(Shader shader: compiling)
+            while(!shader.poll())
+                Thread.onSpinWait();
+        compiling.clear();
+    }
+
+    /**
+     * @return the number of shaders still compiling
+     */
+    public int getPending() {
+        return compiling.size();
+    }
+
+    /**
+     * @return true if the driver compiles shaders in the background & reports when they're done
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + hashCode();
+    }
+}
@@ -0,0 +1,284 @@
+package com.wyattk.appframe.shader;
+
+import com.wyattk.appframe.util.FileRead;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Preprocessor run over shader source before it is handed to the driver
+ *  - #include "file" is replaced by the file, looked up next to the including file
+ *    #include <file> is looked up in the include directory instead. Each file is included once per shader
+ *  - Defines passed in are injected right after the #version line, as "NAME" or "NAME=VALUE"
+ *  - #ifdef, #ifndef, #else & #endif are resolved here, so inactive code (including its #includes) never reaches
+ *    the driver. #if & #elif are left for the driver's preprocessor
+ * #line directives are added around includes, so compile errors still point at the right file & line
+ *   (the file index is the order the files were first included, 0 being the shader itself)
+ *
+ * Not thread safe, files are read through FileRead & kept for later shaders
+ */
+public class ShaderPreprocessor {
+
+    /**
+     * includeDirectory     the directory #include <file> is looked up in
+     * sources              cache of the files read so far, by path
+     */
+    private final String includeDirectory;
+    private final HashMap<String, String> sources = new HashMap<>();
+
+    /**
+     * Creates a preprocessor looking up #include <file> in "shaders"
+     */
+    public ShaderPreprocessor() {
+        this("shaders");
+    }
+
+    /**
+     * @param includeDirectory is the resource directory to look up #include <file> in
+     */
+    public ShaderPreprocessor(String includeDirectory) {
+        this.includeDirectory = includeDirectory;
+    }
+
+    /**
+     * Reads & preprocesses a shader
+     * @param path is the resource path of the shader
+     * @param defines is the defines to inject, each "NAME" or "NAME=VALUE"
+     * @return the preprocessed source, ready to compile
+     * @throws IOException if the shader or one of its includes can't be read
+     */
+    public String process(String path, Collection<String> defines) throws IOException {
+        Context context = new Context();
+        StringBuilder out = new StringBuilder();
+        String source = read(path);
+
+        // defines go after #version, which has to be the first thing in the shader
+        int start = 0;
+        int versionAt = source.indexOf("#version");
+        if(versionAt != -1 && source.substring(0, versionAt).isBlank()) {
+            int end = source.indexOf('\n', versionAt);
+            start = end == -1 ? source.length() : end + 1;
+            out.append(source, 0, start);
+            if(end == -1)
+                out.append('\n');
+        }
+        for(String define: defines) {
+            int equals = define.indexOf('=');
+            String name = equals == -1 ? define : define.substring(0, equals);
+            context.defined.add(name.trim());
+            out.append("#define ").append(name.trim());
+            if(equals != -1)
+                out.append(' ').append(define.substring(equals + 1).trim());
+            out.append('\n');
+        }
+        int firstLine = (int) source.substring(0, start).chars().filter(c -> c == '\n').count() + 1;
+        if(!defines.isEmpty())
+            out.append("#line ").append(firstLine).append(" 0\n");
+
+        context.included.add(normalize(path));
+        append(out, source.substring(start), path, 0, firstLine, context);
+        if(!context.conditions.isEmpty())
+            throw new IllegalArgumentException("Unterminated #ifdef in " + path);
+        return out.toString();
+    }
+
+    /**
+     * Appends the lines of a file, resolving includes & conditionals
+     * @param out is where the output goes
+     * @param source is the (rest of the) file's contents
+     * @param path is the path of the file, for includes & errors
+     * @param fileIndex is the index of the file for #line directives
+     * @param firstLine is the line number of the first line of source
+     * @param context is the state of the shader being processed
+     * @throws IOException if an include can't be read
+     */
+    private void append(StringBuilder out, String source, String path, int fileIndex, int firstLine, Context context) throws IOException {
+        String[] lines = source.split("\n", -1);
+        for(int x = 0; x < lines.length; x++) {
+            String line = lines[x];
+            int lineNumber = firstLine + x;
+            String trimmed = line.trim();
+            if(!trimmed.startsWith("#")) {
+                // dropped lines stay as blank lines so the line numbers still match the file
+                out.append(context.isActive() ? line : "").append('\n');
+                continue;
+            }
+            int length = out.length();
+
+            String[] words = trimmed.substring(1).trim().split("\\s+", 2);
+            String directive = words[0];
+            String argument = words.length > 1 ? words[1].trim() : "";
+            switch(directive) {
+                case "ifdef":
+                case "ifndef":
+                    context.conditions.push(new Condition(
+                            context.defined.contains(argument) == directive.equals("ifdef"), context.isActive()
+                    ));
+                    break;
+                case "if":
+                    // the driver evaluates expressions, as far as this is concerned both branches are live
+                    boolean active = context.isActive();
+                    context.conditions.push(new Condition(true, active, true));
+                    if(active)
+                        out.append(line).append('\n');
+                    break;
+                case "elif":
+                    if(context.conditions.isEmpty() || !context.conditions.peek().passThrough)
+                        throw new IllegalArgumentException("#elif must follow #if, not #ifdef (" + path + ":" + lineNumber + ")");
+                    if(context.conditions.peek().parentActive)
+                        out.append(line).append('\n');
+                    break;
+                case "else":
+                    if(context.conditions.isEmpty())
+                        throw new IllegalArgumentException("#else without #ifdef (" + path + ":" + lineNumber + ")");
+                    Condition condition = context.conditions.peek();
+                    if(condition.passThrough) {
+                        if(condition.parentActive)
+                            out.append(line).append('\n');
+                    } else
+                        condition.taken = !condition.taken;
+                    break;
+                case "endif":
+                    if(context.conditions.isEmpty())
+                        throw new IllegalArgumentException("#endif without #ifdef (" + path + ":" + lineNumber + ")");
+                    Condition ended = context.conditions.pop();
+                    if(ended.passThrough && ended.parentActive)
+                        out.append(line).append('\n');
+                    break;
+                case "define":
+                    if(context.isActive()) {
+                        context.defined.add(argument.split("[\\s(]", 2)[0]);
+                        out.append(line).append('\n');
+                    }
+                    break;
+                case "undef":
+                    if(context.isActive()) {
+                        context.defined.remove(argument);
+                        out.append(line).append('\n');
+                    }
+                    break;
+                case "include":
+                    if(context.isActive())
+                        include(out, argument, path, fileIndex, lineNumber, context);
+                    break;
+                default:
+                    if(context.isActive())
+                        out.append(line).append('\n');
+                    break;
+            }
+            if(out.length() == length)
+                out.append('\n');
+        }
+    }
+
+    /**
+     * Appends an included file, unless it was already included
+     * @param out is where the output goes
+     * @param argument is what follows #include, "file" or <file>
+     * @param path is the path of the including file
+     * @param fileIndex is the index of the including file
+     * @param lineNumber is the line number of the #include
+     * @param context is the state of the shader being processed
+     * @throws IOException if the file can't be read
+     */
+    private void include(StringBuilder out, String argument, String path, int fileIndex, int lineNumber, Context context) throws IOException {
+        if(argument.length() < 2)
+            throw new IllegalArgumentException("Empty #include (" + path + ":" + lineNumber + ")");
+        char open = argument.charAt(0), close = argument.charAt(argument.length() - 1);
+        String name = argument.substring(1, argument.length() - 1);
+        String includePath;
+        if(open == '"' && close == '"')
+            includePath = normalize(Path.of(normalize(path)).resolveSibling(name).toString());
+        else if(open == '<' && close == '>')
+            includePath = normalize(Path.of(includeDirectory).resolve(name).toString());
+        else
+            throw new IllegalArgumentException("Malformed #include " + argument + " (" + path + ":" + lineNumber + ")");
+
+        if(!context.included.add(includePath))
+            return;
+        int includeIndex = context.included.size() - 1;
+        out.append("#line 1 ").append(includeIndex).append('\n');
+        append(out, read(includePath), includePath, includeIndex, 1, context);
+        out.append("#line ").append(lineNumber + 1).append(' ').append(fileIndex).append('\n');
+    }
+
+    /**
+     * @param path is the resource path of a file
+     * @return the contents of the file, read on first use
+     * @throws IOException if the file can't be read
+     */
+    private String read(String path) throws IOException {
+        String source = sources.get(path);
+        if(source == null) {
+            source = FileRead.readResource(path).replace("\r\n", "\n");
+            sources.put(path, source);
+        }
+        return source;
+    }
+
+    /**
+     * @param path is a resource path
+     * @return the path without "." & ".." parts, with forward slashes
+     */
+    private static String normalize(String path) {
+        return Path.of(path).normalize().toString().replace('\\', '/');
+    }
+
+    /**
+     * Forgets the files read so far, so they are read again the next time they're needed
+     */
+    public void clearCache() {
+        sources.clear();
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + hashCode();
+    }
+
+    /**
+     * The state of one #ifdef, #ifndef or #if
+     * taken        tells if the current branch is the one being kept
+     * parentActive tells if the code around the condition is being kept
+     * passThrough  tells if the condition is left for the driver (#if)
+     */
+    private static class Condition {
+        private boolean taken;
+        private final boolean parentActive, passThrough;
+
+        private Condition(boolean taken, boolean parentActive) {
+            this(taken, parentActive, false);
+        }
+
+        private Condition(boolean taken, boolean parentActive, boolean passThrough) {
+            this.taken = taken;
+            this.parentActive = parentActive;
+            this.passThrough = passThrough;
+        }
+    }
+
+    /**
+     * The state of the shader being processed
+     * defined      the names defined so far
+     * included     the files included so far, in order
+     * conditions   the conditions the current line is inside of, innermost first
+     */
+    private static class Context {
+        private final Set<String> defined = new HashSet<>();
+        private final Set<String> included = new LinkedHashSet<>();
+        private final ArrayDeque<Condition> conditions = new ArrayDeque<>();
+
+        /**
+         * @return true if the current line is being kept
+         */
+        private boolean isActive() {
+            Condition condition = conditions.peek();
+            return condition == null || (condition.parentActive && condition.taken);
+        }
+    }
+}
@@ -1,12 +1,29 @@
 package com.wyattk.appframe.shader;
 
+import com.wyattk.appframe.profiling.MemoryRegistry;
+import com.wyattk.appframe.profiling.RenderStats;
+import com.wyattk.appframe.glsl.mat.MatNxM;
+import com.wyattk.appframe.glsl.util.BVecN;
+import com.wyattk.appframe.glsl.util.DVecN;
+import com.wyattk.appframe.glsl.util.IVecN;
+import com.wyattk.appframe.glsl.util.VecN;
 import com.wyattk.appframe.util.IUsesNativeMemory;
 import com.wyattk.appframe.util.Logger;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.lwjgl.opengl.GL42.*;
+import static org.lwjgl.opengl.KHRParallelShaderCompile.GL_COMPLETION_STATUS_KHR;
 
 /**
  * Class for creating and storing a shader program
+ * Programs can be compiled & linked right away (createVertexShader, createFragmentShader, link), or submitted without
+ *   waiting on the driver (submit) and checked on with poll until they are done, see ShaderCompiler
  */
 public class ShaderProgram implements IUsesNativeMemory, AutoCloseable {
 
@@ -14,10 +31,32 @@ public class ShaderProgram implements IUsesNativeMemory, AutoCloseable {
      * programId            the id of the shader program
      * vertexShaderId       the id of the vertex shader
      * fragmentShaderId     the id of the fragment shader
+     * uniforms             the active uniforms of the program, found once it's linked (null before)
+     * uploads              the number of uniform values sent to the gpu
+     * redundantSets        the number of uniforms set to the value they already had (and not sent)
+     * status               tells if the program is still being compiled, ready to bind, or failed to compile
+     * cacheKey             the key of the program in the binary cache, null if it isn't being cached
+     * binaryCache          the cache every program is loaded from & stored in, null for none
+     * memory               the account the program reports its memory to
      */
-    private final int programId;
+    private int programId;
     private int vertexShaderId;
     private int fragmentShaderId;
+    private UniformTable uniforms;
+    private long uploads = 0, redundantSets = 0;
+    private Status status = Status.COMPILING;
+    private String cacheKey;
+    private static ProgramBinaryCache binaryCache;
+    private final MemoryRegistry.Account memory;
+
+    /**
+     * COMPILING    the driver hasn't finished compiling & linking the program, binding it would stall until it does
+     * READY        the program is linked & can be bound
+     * FAILED       the program could not be compiled or linked
+     */
+    public enum Status {
+        COMPILING, READY, FAILED
+    }
 
     /**
      * Creates a shader program
@@ -27,6 +66,44 @@ public class ShaderProgram implements IUsesNativeMemory, AutoCloseable {
         programId = glCreateProgram();
         if(programId == GL_FALSE)
             throw new Exception("Could not create Shader");
+        RenderStats.addPrograms(1);
+        memory = MemoryRegistry.open("ShaderProgram", this);
+    }
+
+    /**
+     * Sets the cache programs are loaded from (see loadFromCache) and stored in after linking
+     * @param cache is the cache to use, null for none
+     */
+    public static void setBinaryCache(ProgramBinaryCache cache) {
+        binaryCache = cache;
+    }
+
+    /**
+     * @return the cache programs are loaded from & stored in, null if there is none
+     */
+    public static ProgramBinaryCache getBinaryCache() {
+        return binaryCache;
+    }
+
+    /**
+     * Tries to load the linked program from the binary cache instead of compiling it
+     * If it isn't there, the program is stored in the cache once it is compiled & linked
+     * @param sources is the source code of every shader in the program, in a fixed order
+     * @return true if the program was loaded (and is ready to bind), false if it must be compiled & linked as usual
+     */
+    public boolean loadFromCache(String... sources) {
+        ProgramBinaryCache cache = binaryCache;
+        if(cache == null)
+            return false;
+        String key = cache.key(sources);
+        if(cache.load(programId, key)) {
+            findUniforms();
+            measure();
+            status = Status.READY;
+            return true;
+        }
+        cacheKey = key;
+        return false;
     }
 
     /**
@@ -55,6 +132,19 @@ public class ShaderProgram implements IUsesNativeMemory, AutoCloseable {
      * @throws Exception if there is an error creating the shader
      */
     public int createShader(String shaderCode, int shaderType) throws Exception {
+        int shaderId = submitShader(shaderCode, shaderType);
+        checkCompiled(shaderId);
+        return shaderId;
+    }
+
+    /**
+     * Starts compiling a shader of the shader type & attaches it, without waiting for the driver to finish
+     * @param shaderCode is the code to compile for the shader
+     * @param shaderType is the type of shader being compiled
+     * @return the id of the shader
+     * @throws Exception if the shader can't be created
+     */
+    private int submitShader(String shaderCode, int shaderType) throws Exception {
         // creates the shader with the given shader type
         int shaderId = glCreateShader(shaderType);
         if(shaderId == GL_FALSE)
@@ -64,22 +154,88 @@ public class ShaderProgram implements IUsesNativeMemory, AutoCloseable {
         glShaderSource(shaderId, shaderCode);
         glCompileShader(shaderId);
 
-        if(glGetShaderi(shaderId, GL_COMPILE_STATUS) == GL_FALSE)
-            throw new Exception("Error compiling Shader code: " + glGetShaderInfoLog(shaderId, 1024));
-
         // attach shader to the program
         glAttachShader(programId, shaderId);
 
         return shaderId;
     }
 
+    /**
+     * @param shaderId is the id of a submitted shader, waits for the driver to finish compiling it
+     * @throws Exception if the shader did not compile
+     */
+    private void checkCompiled(int shaderId) throws Exception {
+        if(shaderId != GL_FALSE && glGetShaderi(shaderId, GL_COMPILE_STATUS) == GL_FALSE)
+            throw new Exception("Error compiling Shader code: " + glGetShaderInfoLog(shaderId, 1024));
+    }
+
+    /**
+     * Starts compiling both shaders & linking the program without asking the driver how it went, so it can work
+     *   on this program (in parallel, if it supports GL_KHR_parallel_shader_compile) while more are submitted
+     * Check on the program with poll, it can't be bound until that reports it ready
+     * @param vertexCode is the code of the vertex shader
+     * @param fragmentCode is the code of the fragment shader
+     * @throws Exception if the shaders can't be created
+     */
+    public void submit(String vertexCode, String fragmentCode) throws Exception {
+        vertexShaderId = submitShader(vertexCode, GL_VERTEX_SHADER);
+        fragmentShaderId = submitShader(fragmentCode, GL_FRAGMENT_SHADER);
+        submitLink();
+    }
+
+    /**
+     * Checks on a program started with submit, finishing it (checking errors, validating, caching) once the
+     *   driver is done with it
+     * If the driver can't report its progress (no GL_KHR_parallel_shader_compile) this waits for it instead
+     * Must be called on the render thread
+     * @return true once the program is no longer compiling, see getStatus for whether it worked
+     */
+    public boolean poll() {
+        if(status != Status.COMPILING)
+            return true;
+        if(isParallelCompileSupported() && glGetProgrami(programId, GL_COMPLETION_STATUS_KHR) == GL_FALSE)
+            return false;
+
+        try {
+            checkCompiled(vertexShaderId);
+            checkCompiled(fragmentShaderId);
+            finishLink();
+        } catch(Exception e) {
+            status = Status.FAILED;
+            Logger.err(this + ": " + e.getMessage());
+        }
+        return true;
+    }
+
     /**
      * Links the shaders to the shader program, then detach the shaders after successful linking
      * @throws Exception if there is a problem linking the shaders to the program
      */
     public void link() throws Exception {
-        // link shaders
+        submitLink();
+        try {
+            finishLink();
+        } catch(Exception e) {
+            status = Status.FAILED;
+            throw e;
+        }
+    }
+
+    /**
+     * Starts linking the program, without waiting for the driver to finish
+     */
+    private void submitLink() {
+        ProgramBinaryCache cache = binaryCache;
+        if(cacheKey != null && cache != null)
+            cache.prepareLink(programId);
         glLinkProgram(programId);
+    }
+
+    /**
+     * Checks the program linked, then detaches the shaders, validates the program & stores it in the binary cache
+     * @throws Exception if the program did not link
+     */
+    private void finishLink() throws Exception {
         if(glGetProgrami(programId, GL_LINK_STATUS) == GL_FALSE)
             throw new Exception("Error linking shader code: " + glGetProgramInfoLog(programId, 1024));
 
@@ -95,6 +251,213 @@ public class ShaderProgram implements IUsesNativeMemory, AutoCloseable {
         glValidateProgram(programId);
         if(glGetProgrami(programId, GL_VALIDATE_STATUS) == GL_FALSE)
             Logger.err("Warning validating shader code: " + glGetProgramInfoLog(programId, 1024));
+
+        ProgramBinaryCache cache = binaryCache;
+        if(cacheKey != null && cache != null)
+            cache.store(programId, cacheKey);
+        findUniforms();
+        measure();
+        status = Status.READY;
+    }
+
+    /**
+     * Asks the linked program for its active uniforms & builds the table they're looked up in
+     * Uniforms in blocks have no location & are left out
+     */
+    private void findUniforms() {
+        int count = glGetProgrami(programId, GL_ACTIVE_UNIFORMS);
+        ArrayList<Uniform> found = new ArrayList<>(count);
+        try(MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer size = stack.mallocInt(1), type = stack.mallocInt(1);
+            for(int x = 0; x < count; x++) {
+                String name = glGetActiveUniform(programId, x, size, type);
+                int location = glGetUniformLocation(programId, name);
+                if(location == -1)
+                    continue;
+                // arrays are reported as name[0], they're looked up by just the name
+                if(name.endsWith("[0]"))
+                    name = name.substring(0, name.length() - 3);
+                found.add(new Uniform(this, name, location, type.get(0), size.get(0)));
+            }
+        }
+        uniforms = UniformTable.build(found);
+    }
+
+    /**
+     * Reports the size of the linked program to the memory registry
+     * The driver doesn't tell how much memory a program takes up, the size of its binary is the closest it gets
+     */
+    private void measure() {
+        memory.setGpuBytes(glGetProgrami(programId, GL_PROGRAM_BINARY_LENGTH));
+    }
+
+    /**
+     * @return the number of bytes of gpu memory the linked program takes up (estimated from its binary), 0 before
+     */
+    @Override
+    public long getGpuBytes() {
+        return memory.getGpuBytes();
+    }
+
+    /**
+     * @return true if the current context can compile shaders in the background & report when they're done
+     */
+    public static boolean isParallelCompileSupported() {
+        GLCapabilities caps = GL.getCapabilities();
+        return caps.GL_KHR_parallel_shader_compile || caps.GL_ARB_parallel_shader_compile;
+    }
+
+    /**
+     * @return tells if the program is still compiling, ready to bind, or failed
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Looks up the location of a uniform, only asking OpenGL the first time each name is looked up
+     * @param name is the name of the uniform in the shader code
+     * @return the location of the uniform, -1 if the program has no such (active) uniform
+     */
+    public int getUniformLocation(String name) {
+        if(uniforms == null)
+            return glGetUniformLocation(programId, name);
+        Uniform uniform = uniforms.get(name);
+        return uniform != null ? uniform.getLocation() : -1;
+    }
+
+    /**
+     * @param name is the name of the uniform in the shader code, without [0] for arrays
+     * @return the uniform, null if the program has no such (active) uniform or isn't linked yet
+     */
+    public Uniform getUniform(String name) {
+        return uniforms != null ? uniforms.get(name) : null;
+    }
+
+    /**
+     * @return every active uniform of the program, empty if it isn't linked yet
+     */
+    public List<Uniform> getUniforms() {
+        return uniforms != null ? uniforms.getUniforms() : List.of();
+    }
+
+    /**
+     * Takes over the uniforms of the program this one replaces, so handles already handed out keep working
+     * Uniforms of the same name, type & size are moved over with their values (see Uniform.rebind), the rest of the
+     *   old handles are detached
+     * @param previous is the program being replaced
+     */
+    void adoptUniforms(ShaderProgram previous) {
+        ArrayList<Uniform> adopted = new ArrayList<>();
+        for(Uniform uniform: getUniforms()) {
+            Uniform old = previous.getUniform(uniform.getName());
+            adopted.add(old != null && old.rebind(uniform) ? old : uniform);
+        }
+        for(Uniform old: previous.getUniforms())
+            if(!adopted.contains(old))
+                old.detach(this);
+        if(uniforms != null)
+            uniforms = UniformTable.build(adopted);
+    }
+
+    // Setters for uniforms by name, which do nothing if the program has no such uniform (like location -1 in OpenGL)
+
+    public void setUniform(String name, float value) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(value);
+    }
+
+    public void setUniform(String name, float[] values) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(values);
+    }
+
+    public void setUniform(String name, int value) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(value);
+    }
+
+    public void setUniform(String name, int[] values) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(values);
+    }
+
+    public void setUniform(String name, boolean value) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(value);
+    }
+
+    public void setUniform(String name, double value) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(value);
+    }
+
+    public void setUniform(String name, double[] values) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(values);
+    }
+
+    public void setUniform(String name, VecN value) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(value);
+    }
+
+    public void setUniform(String name, IVecN value) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(value);
+    }
+
+    public void setUniform(String name, BVecN value) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(value);
+    }
+
+    public void setUniform(String name, DVecN value) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(value);
+    }
+
+    public void setUniform(String name, MatNxM value) {
+        Uniform uniform = getUniform(name);
+        if(uniform != null)
+            uniform.set(value);
+    }
+
+    void countUniformUpload() {
+        uploads++;
+    }
+
+    void countRedundantSet() {
+        redundantSets++;
+    }
+
+    /**
+     * @return the number of uniform values sent to the gpu
+     */
+    public long getUniformUploads() {
+        return uploads;
+    }
+
+    /**
+     * @return the number of times a uniform was set to the value it already had, which wasn't sent
+     */
+    public long getRedundantUniformSets() {
+        return redundantSets;
+    }
+
+    public int getProgramId() {
+        return programId;
     }
 
     /**
@@ -113,18 +476,25 @@ public class ShaderProgram implements IUsesNativeMemory, AutoCloseable {
 
     /**
      * Cleanup the shader by deleting all existing shaders in the program
+     * Safe to call more than once, the ids are zeroed once deleted
      */
     public void cleanup(){
-        Logger.verb("Cleaning " + this + "...");
+        Logger.verb("Cleaning {}...", this);
         unbind();
-        if(programId != 0)
+        if(programId != 0) {
             glDeleteProgram(programId);
+            RenderStats.addPrograms(-1);
+            programId = 0;
+        }
 
         if(vertexShaderId != 0)
             glDeleteShader(vertexShaderId);
+        vertexShaderId = 0;
 
         if(fragmentShaderId != 0)
             glDeleteShader(fragmentShaderId);
+        fragmentShaderId = 0;
+        memory.close();
     }
 
     public void close() {
@@ -0,0 +1,323 @@
+package com.wyattk.appframe.shader;
+
+import com.wyattk.appframe.util.Logger;
+import com.wyattk.appframe.util.WorkerThreadFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Development tool that reloads shaders when their files change on disk, without restarting or stalling the app
+ * A background thread watches the shader directory (with a WatchService) & reads the changed sources, the render
+ *   thread submits them without waiting on the driver (like ShaderCompiler) and, once the new program is linked,
+ *   swaps it into the existing Shader between frames. Meshes keep their Shader, so they draw with the old program
+ *   until the swap and the new one after, without calling Mesh.useShader again
+ * If the new code doesn't compile the error is logged & the old program is kept
+ *
+ * Opt-in through Appframe.Properties.setShaderHotReload, watch every shader that should be reloaded
+ */
+public class ShaderReloader {
+
+    /**
+     * SETTLE_TIME      how long (in milliseconds) to wait for more changes before reloading, editors tend to save in
+     *                  several writes
+     * root             the directory being watched (recursively)
+     * watchService     the service reporting changes, null once stopped
+     * watchKeys        the directory each watch key belongs to
+     * watched          the shaders being watched
+     * loaded           sources read by the watcher thread, waiting for the render thread
+     * compiling        new programs submitted but not linked yet (render thread only)
+     * thread           the watcher thread
+     */
+    private static final long SETTLE_TIME = 50;
+    private final Path root;
+    private WatchService watchService;
+    private final HashMap<WatchKey, Path> watchKeys = new HashMap<>();
+    private final CopyOnWriteArrayList<Watch> watched = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<Loaded> loaded = new ConcurrentLinkedQueue<>();
+    private final LinkedList<Compiling> compiling = new LinkedList<>();
+    private Thread thread;
+
+    /**
+     * Loads the source code of a shader, called on the watcher thread
+     */
+    @FunctionalInterface
+    public interface SourceLoader {
+        /**
+         * @return the vertex & fragment shader code, in that order
+         * @throws IOException if the files can't be read
+         */
+        String[] load() throws IOException;
+    }
+
+    /**
+     * @param root is the directory on disk the shader files are in (the source directory, like
+     *             src/main/resources, not the copy on the classpath)
+     */
+    public ShaderReloader(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Starts watching the directory on a background thread
+     * @throws IOException if the directory can't be watched
+     */
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        thread = new WorkerThreadFactory("shader-reload").newThread(this::watch);
+        thread.start();
+        Logger.log("Watching " + root + " for shader changes");
+    }
+
+    /**
+     * @param dir is a directory to watch
+     * @throws IOException if it can't be watched
+     */
+    private void register(Path dir) throws IOException {
+        WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        synchronized(watchKeys) {
+            watchKeys.put(key, dir);
+        }
+    }
+
+    /**
+     * Reloads the shader whenever its vertex or fragment file changes
+     * @param shader is the shader to reload
+     * @param vertexFile is the vertex shader file, relative to the watched directory
+     * @param fragmentFile is the fragment shader file, relative to the watched directory
+     */
+    public void watch(Shader shader, String vertexFile, String fragmentFile) {
+        Path vertex = root.resolve(vertexFile).normalize(), fragment = root.resolve(fragmentFile).normalize();
+        watch(shader, Set.of(vertex, fragment), () -> new String[] {
+                Files.readString(vertex, StandardCharsets.UTF_8),
+                Files.readString(fragment, StandardCharsets.UTF_8)
+        });
+    }
+
+    /**
+     * Reloads the shader whenever one of the files changes, for shaders built from more than two files
+     *   (like ones with #includes)
+     * @param shader is the shader to reload
+     * @param files is every file the shader is built from, relative to the watched directory
+     * @param loader loads the new source code once a file changed
+     */
+    public void watch(Shader shader, Set<Path> files, SourceLoader loader) {
+        HashSet<Path> absolute = new HashSet<>();
+        for(Path file: files)
+            absolute.add(root.resolve(file).normalize());
+        watched.add(new Watch(shader, absolute, loader));
+    }
+
+    /**
+     * Stops reloading the shader
+     * @param shader is the shader to stop reloading
+     */
+    public void unwatch(Shader shader) {
+        watched.removeIf((Watch w) -> w.shader == shader);
+    }
+
+    /**
+     * Watches for changes until stopped, run on the watcher thread
+     */
+    private void watch() {
+        try {
+            while(true) {
+                HashSet<Path> changed = new HashSet<>();
+                collect(watchService.take(), changed);
+                // wait for the editor to finish writing before reading anything
+                WatchKey key;
+                while((key = watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS)) != null)
+                    collect(key, changed);
+
+                for(Watch w: watched) {
+                    if(changed.stream().noneMatch(w.files::contains))
+                        continue;
+                    try {
+                        loaded.add(new Loaded(w.shader, w.loader.load()));
+                    } catch(IOException e) {
+                        Logger.warn("Could not read changed shader files: " + e.getMessage());
+                    }
+                }
+            }
+        } catch(InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * Adds the files changed in a directory to the set, watching any new directories
+     * @param key is the key of the directory
+     * @param changed is the set of changed files
+     */
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir;
+        synchronized(watchKeys) {
+            dir = watchKeys.get(key);
+        }
+        for(WatchEvent<?> event: key.pollEvents()) {
+            if(event.kind() == OVERFLOW || dir == null)
+                continue;
+            Path file = dir.resolve((Path) event.context()).normalize();
+            if(Files.isDirectory(file)) {
+                try {
+                    register(file);
+                } catch(IOException e) {
+                    Logger.warn("Could not watch " + file + ": " + e.getMessage());
+                }
+                continue;
+            }
+            changed.add(file);
+        }
+        key.reset();
+    }
+
+    /**
+     * Submits reloaded sources & swaps in the programs that finished linking
+     * Called by the Appframe at the start of every frame, on the render thread
+     */
+    public void poll() {
+        Loaded next;
+        while((next = loaded.poll()) != null) {
+            // a newer version replaces one still compiling
+            Iterator<Compiling> it = compiling.iterator();
+            while(it.hasNext()) {
+                Compiling c = it.next();
+                if(c.shader == next.shader) {
+                    c.program.cleanup();
+                    it.remove();
+                }
+            }
+            ShaderProgram program = null;
+            try {
+                program = new ShaderProgram();
+                if(!program.loadFromCache(next.sources))
+                    program.submit(next.sources[0], next.sources[1]);
+                compiling.add(new Compiling(next.shader, program));
+            } catch(Exception e) {
+                // the program was never handed to anything, so nothing else would clean it up
+                if(program != null)
+                    program.cleanup();
+                Logger.err("Could not reload shader: " + e.getMessage());
+            }
+        }
+
+        Iterator<Compiling> it = compiling.iterator();
+        while(it.hasNext()) {
+            Compiling c = it.next();
+            if(!c.program.poll())
+                continue;
+            it.remove();
+            if(c.program.getStatus() == ShaderProgram.Status.READY) {
+                c.shader.swapProgram(c.program).cleanup();
+                Logger.log("Reloaded " + c.shader);
+            } else {
+                Logger.warn("Keeping the old program of " + c.shader + ", the new code didn't compile");
+                c.program.cleanup();
+            }
+        }
+    }
+
+    /**
+     * Stops watching & drops any reloads in progress
+     * Must be called on the render thread
+     */
+    public void stop() {
+        if(thread != null)
+            thread.interrupt();
+        if(watchService != null) {
+            try {
+                watchService.close();
+            } catch(IOException e) {
+                Logger.warn("Could not stop watching " + root + ": " + e.getMessage());
+            }
+            watchService = null;
+        }
+        compiling.forEach((Compiling c) -> c.program.cleanup());
+        compiling.clear();
+        loaded.clear();
+    }
+
+    /**
+     * @return the shaders being watched
+     */
+    public List<Shader> getWatched() {
+        return watched.stream().map((Watch w) -> w.shader).toList();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + hashCode() + " (" + root + ")";
+    }
+
+    /**
+     * A shader being watched, with the files it's built from & how to read them
+     */
+    private static class Watch {
+        private final Shader shader;
+        private final Set<Path> files;
+        private final SourceLoader loader;
+
+        private Watch(Shader shader, Set<Path> files, SourceLoader loader) {
+            this.shader = shader;
+            this.files = files;
+            this.loader = loader;
+        }
+    }
+
+    /**
+     * New sources for a shader, read on the watcher thread
+     */
+    private static class Loaded {
+        private final Shader shader;
+        private final String[] sources;
+
+        private Loaded(Shader shader, String[] sources) {
+            this.shader = shader;
+            this.sources = sources;
+        }
+    }
+
+    /**
+     * A new program for a shader, submitted but not linked yet
+     */
+    private static class Compiling {
+        private final Shader shader;
+        private final ShaderProgram program;
+
+        private Compiling(Shader shader, ShaderProgram program) {
+            this.shader = shader;
+            this.program = program;
+        }
+    }
+}
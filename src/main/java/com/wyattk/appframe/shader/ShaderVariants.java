@@ -0,0 +1,141 @@
+package com.wyattk.appframe.shader;
+
+import com.wyattk.appframe.util.IUsesNativeMemory;
+import com.wyattk.appframe.util.Logger;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The permutations of one vertex & fragment shader pair, by the set of defines they are compiled with
+ * Each permutation is preprocessed (see ShaderPreprocessor) & compiled the first time it is asked for, then the same
+ *   Shader is handed out every time after, so every mesh using a permutation shares one program (and one spot in
+ *   the render queue). Permutations nobody asks for are never compiled
+ * Given a ShaderCompiler, permutations compile without stalling the render thread and are drawn once ready
+ *
+ * Must only be used on the render thread
+ */
+public class ShaderVariants implements IUsesNativeMemory {
+
+    /**
+     * preprocessor     the preprocessor the sources are run through
+     * compiler         the compiler permutations are submitted to, null to compile them right away
+     * vertexPath       the resource path of the vertex shader
+     * fragmentPath     the resource path of the fragment shader
+     * attributes       the attributes every permutation uses
+     * variants         the permutations compiled so far, by their sorted defines joined with commas
+     */
+    private final ShaderPreprocessor preprocessor;
+    private final ShaderCompiler compiler;
+    private final String vertexPath, fragmentPath;
+    private final ShaderAttribute[] attributes;
+    private final HashMap<String, Shader> variants = new HashMap<>();
+
+    /**
+     * Creates the permutations of a shader, compiling them on the render thread as they are asked for
+     * Nothing is compiled yet, each permutation is made from the base sources the first time its set of defines is
+     *   asked for (see get), and kept by that set
+     * @param preprocessor is the preprocessor the base sources are run through with each permutation's defines
+     * @param vertexPath is the resource path of the base vertex shader source, shared by every permutation
+     * @param fragmentPath is the resource path of the base fragment shader source, shared by every permutation
+     * @param attributes is the attributes every permutation uses, in the order of their locations
+     */
+    public ShaderVariants(ShaderPreprocessor preprocessor, String vertexPath, String fragmentPath, ShaderAttribute... attributes) {
+        this(preprocessor, null, vertexPath, fragmentPath, attributes);
+    }
+
+    /**
+     * Creates the permutations of a shader
+     * Nothing is compiled yet, each permutation is made from the base sources the first time its set of defines is
+     *   asked for (see get), and kept by that set
+     * @param preprocessor is the preprocessor the base sources are run through with each permutation's defines
+     * @param compiler is the compiler to submit permutations to (see Appframe.getShaderCompiler), null to compile
+     *                 them right away
+     * @param vertexPath is the resource path of the base vertex shader source, shared by every permutation
+     * @param fragmentPath is the resource path of the base fragment shader source, shared by every permutation
+     * @param attributes is the attributes every permutation uses, in the order of their locations
+     */
+    public ShaderVariants(ShaderPreprocessor preprocessor, ShaderCompiler compiler, String vertexPath, String fragmentPath, ShaderAttribute... attributes) {
+        this.preprocessor = preprocessor;
+        this.compiler = compiler;
+        this.vertexPath = vertexPath;
+        this.fragmentPath = fragmentPath;
+        this.attributes = attributes;
+    }
+
+    /**
+     * @param defines is the defines of the permutation, each "NAME" or "NAME=VALUE", comma separated
+     * @return the permutation, compiled (or submitted) on first use
+     */
+    public Shader get(String... defines) {
+        return get(List.of(defines));
+    }
+
+    /**
+     * @param defines is the defines of the permutation, each "NAME" or "NAME=VALUE", order doesn't matter
+     * @return the permutation, compiled (or submitted) on first use
+     */
+    public Shader get(Collection<String> defines) {
+        TreeSet<String> sorted = new TreeSet<>(defines);
+        String key = String.join(",", sorted);
+        Shader shader = variants.get(key);
+        if(shader != null)
+            return shader;
+
+        try {
+            String vertexCode = preprocessor.process(vertexPath, sorted);
+            String fragmentCode = preprocessor.process(fragmentPath, sorted);
+            shader = compiler != null
+                    ? compiler.submit(vertexCode, fragmentCode, attributes)
+                    : new Shader(vertexCode, fragmentCode, attributes);
+        } catch(Exception e) {
+            throw new IllegalStateException("Could not create " + vertexPath + " [" + key + "]: " + e.getMessage(), e);
+        }
+        Logger.verb("Created shader variant {} [{}]", vertexPath, key);
+        variants.put(key, shader);
+        return shader;
+    }
+
+    /**
+     * @param defines is the defines of the permutation, each "NAME" or "NAME=VALUE", order doesn't matter
+     * @return true if the permutation was already asked for
+     */
+    public boolean has(Collection<String> defines) {
+        return variants.containsKey(String.join(",", new TreeSet<>(defines)));
+    }
+
+    /**
+     * @return the number of permutations compiled so far
+     */
+    public int size() {
+        return variants.size();
+    }
+
+    /**
+     * @return the number of bytes of gpu memory every permutation compiled so far takes up
+     */
+    @Override
+    public long getGpuBytes() {
+        long bytes = 0;
+        for(Shader s: variants.values())
+            bytes += s.getGpuBytes();
+        return bytes;
+    }
+
+    /**
+     * Cleans up every permutation compiled so far
+     * Not needed for permutations left in the Appframe's render queue, the Appframe cleans those itself
+     */
+    @Override
+    public void cleanup() {
+        Logger.verb("Cleaning {}...", this);
+        variants.values().forEach(Shader::cleanup);
+        variants.clear();
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + hashCode();
+    }
+}
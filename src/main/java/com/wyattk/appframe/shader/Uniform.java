@@ -0,0 +1,426 @@
+package com.wyattk.appframe.shader;
+
+import com.wyattk.appframe.glsl.mat.MatNxM;
+import com.wyattk.appframe.glsl.util.BVecN;
+import com.wyattk.appframe.glsl.util.DVecN;
+import com.wyattk.appframe.glsl.util.IVecN;
+import com.wyattk.appframe.glsl.util.VecN;
+import com.wyattk.appframe.profiling.RenderStats;
+
+import static org.lwjgl.opengl.GL42.*;
+
+/**
+ * An active uniform of a linked shader program, found by ShaderProgram when it's linked
+ * Keeps a copy of the value last sent to the gpu, so setting a uniform to the value it already has costs nothing.
+ *   Values are sent with glProgramUniform, so the program doesn't have to be bound
+ * Handles stay valid when their shader is reloaded: they're moved over to the new program (see rebind), or set
+ *   nothing if the new program no longer has the uniform (or changed its type)
+ * Setters have to match the type of the uniform: float values for float, vec & mat uniforms, int or boolean values
+ *   for int, uint, bool & sampler uniforms, double values for double uniforms
+ *
+ * Must only be used on the render thread
+ */
+public class Uniform {
+
+    /**
+     * FLOAT...         the kinds of values a uniform holds
+     * program          the program the uniform belongs to, its replacement once the shader is reloaded
+     * name             the name of the uniform, without [0] for arrays
+     * location         the location of the uniform, -1 once it's detached
+     * type             the OpenGL type of the uniform
+     * arraySize        the number of elements, 1 if the uniform isn't an array
+     * kind             the kind of values the uniform holds
+     * columns, rows    the shape of one element, 1 column for scalars & vectors
+     * floats...        the values last sent to the gpu, only the one matching the kind exists
+     * assigned         tells if a value has been sent yet, the copy can't be trusted before that
+     */
+    private static final int FLOAT = 0, INT = 1, UINT = 2, DOUBLE = 3;
+    private ShaderProgram program;
+    private final String name;
+    private int location;
+    private final int type, arraySize;
+    private final int kind, columns, rows;
+    private float[] floats;
+    private int[] ints;
+    private double[] doubles;
+    private boolean assigned = false;
+
+    /**
+     * @param program is the program the uniform belongs to
+     * @param name is the name of the uniform, without [0] for arrays
+     * @param location is the location of the uniform
+     * @param type is the OpenGL type of the uniform
+     * @param arraySize is the number of elements, 1 if the uniform isn't an array
+     */
+    Uniform(ShaderProgram program, String name, int location, int type, int arraySize) {
+        this.program = program;
+        this.name = name;
+        this.location = location;
+        this.type = type;
+        this.arraySize = arraySize;
+
+        int[] shape = shapeOf(type);
+        kind = shape[0];
+        columns = shape[1];
+        rows = shape[2];
+        int length = columns * rows * arraySize;
+        if(kind == FLOAT)
+            floats = new float[length];
+        else if(kind == DOUBLE)
+            doubles = new double[length];
+        else
+            ints = new int[length];
+    }
+
+    /**
+     * @param type is an OpenGL uniform type
+     * @return the kind, columns & rows of the type. Samplers, images & anything unknown are one int
+     */
+    private static int[] shapeOf(int type) {
+        switch(type) {
+            case GL_FLOAT:              return new int[] {FLOAT, 1, 1};
+            case GL_FLOAT_VEC2:         return new int[] {FLOAT, 1, 2};
+            case GL_FLOAT_VEC3:         return new int[] {FLOAT, 1, 3};
+            case GL_FLOAT_VEC4:         return new int[] {FLOAT, 1, 4};
+            case GL_FLOAT_MAT2:         return new int[] {FLOAT, 2, 2};
+            case GL_FLOAT_MAT3:         return new int[] {FLOAT, 3, 3};
+            case GL_FLOAT_MAT4:         return new int[] {FLOAT, 4, 4};
+            case GL_FLOAT_MAT2x3:       return new int[] {FLOAT, 2, 3};
+            case GL_FLOAT_MAT2x4:       return new int[] {FLOAT, 2, 4};
+            case GL_FLOAT_MAT3x2:       return new int[] {FLOAT, 3, 2};
+            case GL_FLOAT_MAT3x4:       return new int[] {FLOAT, 3, 4};
+            case GL_FLOAT_MAT4x2:       return new int[] {FLOAT, 4, 2};
+            case GL_FLOAT_MAT4x3:       return new int[] {FLOAT, 4, 3};
+            case GL_DOUBLE:             return new int[] {DOUBLE, 1, 1};
+            case GL_DOUBLE_VEC2:        return new int[] {DOUBLE, 1, 2};
+            case GL_DOUBLE_VEC3:        return new int[] {DOUBLE, 1, 3};
+            case GL_DOUBLE_VEC4:        return new int[] {DOUBLE, 1, 4};
+            case GL_DOUBLE_MAT2:        return new int[] {DOUBLE, 2, 2};
+            case GL_DOUBLE_MAT3:        return new int[] {DOUBLE, 3, 3};
+            case GL_DOUBLE_MAT4:        return new int[] {DOUBLE, 4, 4};
+            case GL_DOUBLE_MAT2x3:      return new int[] {DOUBLE, 2, 3};
+            case GL_DOUBLE_MAT2x4:      return new int[] {DOUBLE, 2, 4};
+            case GL_DOUBLE_MAT3x2:      return new int[] {DOUBLE, 3, 2};
+            case GL_DOUBLE_MAT3x4:      return new int[] {DOUBLE, 3, 4};
+            case GL_DOUBLE_MAT4x2:      return new int[] {DOUBLE, 4, 2};
+            case GL_DOUBLE_MAT4x3:      return new int[] {DOUBLE, 4, 3};
+            case GL_INT_VEC2:
+            case GL_BOOL_VEC2:          return new int[] {INT, 1, 2};
+            case GL_INT_VEC3:
+            case GL_BOOL_VEC3:          return new int[] {INT, 1, 3};
+            case GL_INT_VEC4:
+            case GL_BOOL_VEC4:          return new int[] {INT, 1, 4};
+            case GL_UNSIGNED_INT:       return new int[] {UINT, 1, 1};
+            case GL_UNSIGNED_INT_VEC2:  return new int[] {UINT, 1, 2};
+            case GL_UNSIGNED_INT_VEC3:  return new int[] {UINT, 1, 3};
+            case GL_UNSIGNED_INT_VEC4:  return new int[] {UINT, 1, 4};
+            default:                    return new int[] {INT, 1, 1};
+        }
+    }
+
+    public void set(float value) {
+        check(FLOAT, 1);
+        finish(putFloat(0, value));
+    }
+
+    public void set(float x, float y) {
+        check(FLOAT, 2);
+        finish(putFloat(0, x) | putFloat(1, y));
+    }
+
+    public void set(float x, float y, float z) {
+        check(FLOAT, 3);
+        finish(putFloat(0, x) | putFloat(1, y) | putFloat(2, z));
+    }
+
+    public void set(float x, float y, float z, float w) {
+        check(FLOAT, 4);
+        finish(putFloat(0, x) | putFloat(1, y) | putFloat(2, z) | putFloat(3, w));
+    }
+
+    /**
+     * Sets a float uniform of any shape (vectors, column-major matrices, arrays)
+     * @param values is the values, from the first element on. Elements past the end keep their value
+     */
+    public void set(float[] values) {
+        check(FLOAT, values.length);
+        boolean changed = false;
+        for(int x = 0; x < values.length; x++)
+            changed |= putFloat(x, values[x]);
+        finish(changed);
+    }
+
+    public void set(VecN value) {
+        setFloats(value.get());
+    }
+
+    public void set(MatNxM value) {
+        setFloats(value.get());
+    }
+
+    /**
+     * @param values is the boxed values of a glsl float type
+     */
+    private void setFloats(Float[] values) {
+        check(FLOAT, values.length);
+        boolean changed = false;
+        for(int x = 0; x < values.length; x++)
+            changed |= putFloat(x, values[x]);
+        finish(changed);
+    }
+
+    public void set(int value) {
+        checkInts(1);
+        finish(putInt(0, value));
+    }
+
+    public void set(int x, int y) {
+        checkInts(2);
+        finish(putInt(0, x) | putInt(1, y));
+    }
+
+    public void set(int x, int y, int z) {
+        checkInts(3);
+        finish(putInt(0, x) | putInt(1, y) | putInt(2, z));
+    }
+
+    public void set(int x, int y, int z, int w) {
+        checkInts(4);
+        finish(putInt(0, x) | putInt(1, y) | putInt(2, z) | putInt(3, w));
+    }
+
+    /**
+     * Sets an int, uint, bool or sampler uniform of any shape (vectors, arrays)
+     * @param values is the values, from the first element on. Elements past the end keep their value
+     */
+    public void set(int[] values) {
+        checkInts(values.length);
+        boolean changed = false;
+        for(int x = 0; x < values.length; x++)
+            changed |= putInt(x, values[x]);
+        finish(changed);
+    }
+
+    public void set(boolean value) {
+        set(value ? 1 : 0);
+    }
+
+    public void set(IVecN value) {
+        Integer[] values = value.get();
+        checkInts(values.length);
+        boolean changed = false;
+        for(int x = 0; x < values.length; x++)
+            changed |= putInt(x, values[x]);
+        finish(changed);
+    }
+
+    public void set(BVecN value) {
+        Boolean[] values = value.get();
+        checkInts(values.length);
+        boolean changed = false;
+        for(int x = 0; x < values.length; x++)
+            changed |= putInt(x, values[x] ? 1 : 0);
+        finish(changed);
+    }
+
+    public void set(double value) {
+        check(DOUBLE, 1);
+        finish(putDouble(0, value));
+    }
+
+    /**
+     * Sets a double uniform of any shape (vectors, column-major matrices, arrays)
+     * @param values is the values, from the first element on. Elements past the end keep their value
+     */
+    public void set(double[] values) {
+        check(DOUBLE, values.length);
+        boolean changed = false;
+        for(int x = 0; x < values.length; x++)
+            changed |= putDouble(x, values[x]);
+        finish(changed);
+    }
+
+    public void set(DVecN value) {
+        Double[] values = value.get();
+        check(DOUBLE, values.length);
+        boolean changed = false;
+        for(int x = 0; x < values.length; x++)
+            changed |= putDouble(x, values[x]);
+        finish(changed);
+    }
+
+    /**
+     * Moves the uniform over to the program replacing its own (see ShaderReloader), so handles callers kept keep
+     *   working, and sends its value to the new program if it was set
+     * Nothing is moved if the type or size of the uniform changed
+     * @param replacement is the uniform of the same name in the new program
+     * @return true if the uniform was moved & should replace the new program's own, false otherwise
+     */
+    boolean rebind(Uniform replacement) {
+        if(replacement.type != type || replacement.arraySize != arraySize)
+            return false;
+        program = replacement.program;
+        location = replacement.location;
+        if(assigned) {
+            upload();
+            program.countUniformUpload();
+            RenderStats.countUniformUpload();
+        }
+        return true;
+    }
+
+    /**
+     * Points the uniform at nothing once its program is replaced by one without it, setting it then does nothing
+     *   (OpenGL ignores location -1) rather than writing to a deleted program
+     * @param replacement is the program replacing the uniform's own
+     */
+    void detach(ShaderProgram replacement) {
+        program = replacement;
+        location = -1;
+    }
+
+    /**
+     * @param kind is the kind of values being set
+     * @param count is the number of values being set
+     */
+    private void check(int kind, int count) {
+        if(this.kind != kind)
+            throw new IllegalArgumentException("Uniform " + name + " has type 0x" + Integer.toHexString(type) + ", which can't be set with these values");
+        if(count > columns * rows * arraySize)
+            throw new IllegalArgumentException("Uniform " + name + " holds " + columns * rows * arraySize + " values, got " + count);
+    }
+
+    /**
+     * @param count is the number of int (or boolean) values being set
+     */
+    private void checkInts(int count) {
+        check(kind == UINT ? UINT : INT, count);
+    }
+
+    private boolean putFloat(int index, float value) {
+        // compares bits, so -0 & NaNs still get sent
+        if(Float.floatToRawIntBits(floats[index]) == Float.floatToRawIntBits(value))
+            return false;
+        floats[index] = value;
+        return true;
+    }
+
+    private boolean putInt(int index, int value) {
+        if(ints[index] == value)
+            return false;
+        ints[index] = value;
+        return true;
+    }
+
+    private boolean putDouble(int index, double value) {
+        if(Double.doubleToRawLongBits(doubles[index]) == Double.doubleToRawLongBits(value))
+            return false;
+        doubles[index] = value;
+        return true;
+    }
+
+    /**
+     * Sends the values to the gpu if they changed, counts a redundant set if they didn't
+     * @param changed tells if any value is different from the copy
+     */
+    private void finish(boolean changed) {
+        if(!changed && assigned) {
+            program.countRedundantSet();
+            RenderStats.countRedundantUniform();
+            return;
+        }
+        assigned = true;
+        upload();
+        program.countUniformUpload();
+        RenderStats.countUniformUpload();
+    }
+
+    /**
+     * Sends the whole copy to the gpu
+     */
+    private void upload() {
+        int id = program.getProgramId();
+        switch(kind) {
+            case FLOAT:
+                switch(columns * 10 + rows) {
+                    case 11: glProgramUniform1fv(id, location, floats); break;
+                    case 12: glProgramUniform2fv(id, location, floats); break;
+                    case 13: glProgramUniform3fv(id, location, floats); break;
+                    case 14: glProgramUniform4fv(id, location, floats); break;
+                    case 22: glProgramUniformMatrix2fv(id, location, false, floats); break;
+                    case 33: glProgramUniformMatrix3fv(id, location, false, floats); break;
+                    case 44: glProgramUniformMatrix4fv(id, location, false, floats); break;
+                    case 23: glProgramUniformMatrix2x3fv(id, location, false, floats); break;
+                    case 24: glProgramUniformMatrix2x4fv(id, location, false, floats); break;
+                    case 32: glProgramUniformMatrix3x2fv(id, location, false, floats); break;
+                    case 34: glProgramUniformMatrix3x4fv(id, location, false, floats); break;
+                    case 42: glProgramUniformMatrix4x2fv(id, location, false, floats); break;
+                    case 43: glProgramUniformMatrix4x3fv(id, location, false, floats); break;
+                    default: break;
+                }
+                break;
+            case DOUBLE:
+                switch(columns * 10 + rows) {
+                    case 11: glProgramUniform1dv(id, location, doubles); break;
+                    case 12: glProgramUniform2dv(id, location, doubles); break;
+                    case 13: glProgramUniform3dv(id, location, doubles); break;
+                    case 14: glProgramUniform4dv(id, location, doubles); break;
+                    case 22: glProgramUniformMatrix2dv(id, location, false, doubles); break;
+                    case 33: glProgramUniformMatrix3dv(id, location, false, doubles); break;
+                    case 44: glProgramUniformMatrix4dv(id, location, false, doubles); break;
+                    case 23: glProgramUniformMatrix2x3dv(id, location, false, doubles); break;
+                    case 24: glProgramUniformMatrix2x4dv(id, location, false, doubles); break;
+                    case 32: glProgramUniformMatrix3x2dv(id, location, false, doubles); break;
+                    case 34: glProgramUniformMatrix3x4dv(id, location, false, doubles); break;
+                    case 42: glProgramUniformMatrix4x2dv(id, location, false, doubles); break;
+                    case 43: glProgramUniformMatrix4x3dv(id, location, false, doubles); break;
+                    default: break;
+                }
+                break;
+            case UINT:
+                switch(rows) {
+                    case 1: glProgramUniform1uiv(id, location, ints); break;
+                    case 2: glProgramUniform2uiv(id, location, ints); break;
+                    case 3: glProgramUniform3uiv(id, location, ints); break;
+                    case 4: glProgramUniform4uiv(id, location, ints); break;
+                    default: break;
+                }
+                break;
+            default:
+                switch(rows) {
+                    case 1: glProgramUniform1iv(id, location, ints); break;
+                    case 2: glProgramUniform2iv(id, location, ints); break;
+                    case 3: glProgramUniform3iv(id, location, ints); break;
+                    case 4: glProgramUniform4iv(id, location, ints); break;
+                    default: break;
+                }
+                break;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLocation() {
+        return location;
+    }
+
+    /**
+     * @return the OpenGL type of the uniform (GL_FLOAT_VEC3, GL_SAMPLER_2D, ...)
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return the number of elements, 1 if the uniform isn't an array
+     */
+    public int getArraySize() {
+        return arraySize;
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + name + " (location " + location + ", type 0x" + Integer.toHexString(type) + ")";
+    }
+}
@@ -0,0 +1,107 @@
+package com.wyattk.appframe.shader;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Perfect hash table of the active uniforms of a program, built once when the program is linked
+ * The table size & hash seed are searched for so that no two uniforms share a slot, so a lookup is one hash, one
+ *   slot & one string compare, and a name the program doesn't have misses without any probing
+ */
+final class UniformTable {
+
+    /**
+     * MAX_SEEDS        the number of seeds to try at a table size before doubling it
+     * MAX_SIZE         the biggest table to try, programs never have anywhere near this many uniforms
+     * EMPTY            the table with no uniforms
+     * slots            the uniforms by slot, null for empty slots
+     * mask             the table size - 1 (always a power of 2)
+     * seed             the seed that gives every uniform its own slot
+     * uniforms         the uniforms in the table
+     */
+    private static final int MAX_SEEDS = 64, MAX_SIZE = 1 << 16;
+    static final UniformTable EMPTY = new UniformTable(new Uniform[1], 0, 0, List.of());
+    private final Uniform[] slots;
+    private final int mask, seed;
+    private final List<Uniform> uniforms;
+
+    private UniformTable(Uniform[] slots, int mask, int seed, List<Uniform> uniforms) {
+        this.slots = slots;
+        this.mask = mask;
+        this.seed = seed;
+        this.uniforms = uniforms;
+    }
+
+    /**
+     * Builds the table, searching for a table size & seed that give every uniform its own slot
+     * @param uniforms is the uniforms to put in the table, names must be unique
+     * @return the table
+     */
+    static UniformTable build(Collection<Uniform> uniforms) {
+        if(uniforms.isEmpty())
+            return EMPTY;
+        List<Uniform> list = List.copyOf(uniforms);
+        int size = Integer.highestOneBit(Math.max(1, list.size() * 2 - 1)) << 1;
+        while(true) {
+            Uniform[] slots = new Uniform[size];
+            for(int seed = 0; seed < MAX_SEEDS; seed++) {
+                if(fill(slots, size - 1, seed, list))
+                    return new UniformTable(slots, size - 1, seed, list);
+                Arrays.fill(slots, null);
+            }
+            size <<= 1;
+            if(size > MAX_SIZE)
+                throw new IllegalStateException("Could not build a perfect hash of " + list.size() + " uniforms");
+        }
+    }
+
+    /**
+     * @return true if every uniform got its own slot
+     */
+    private static boolean fill(Uniform[] slots, int mask, int seed, List<Uniform> uniforms) {
+        for(Uniform uniform: uniforms) {
+            int slot = hash(uniform.getName(), seed) & mask;
+            if(slots[slot] != null)
+                return false;
+            slots[slot] = uniform;
+        }
+        return true;
+    }
+
+    /**
+     * @param name is the name of a uniform
+     * @param seed is the seed of the table
+     * @return the mixed hash of the name
+     */
+    private static int hash(String name, int seed) {
+        // FNV-1a over the characters rather than String.hashCode, names with equal hash codes still get split
+        int h = 0x811C9DC5 ^ (seed * 0x9E3779B1);
+        for(int x = 0; x < name.length(); x++)
+            h = (h ^ name.charAt(x)) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @param name is the name of the uniform, without [0] for arrays
+     * @return the uniform, null if the program has no such (active) uniform
+     */
+    Uniform get(String name) {
+        Uniform uniform = slots[hash(name, seed) & mask];
+        return uniform != null && uniform.getName().equals(name) ? uniform : null;
+    }
+
+    /**
+     * @return every uniform in the table
+     */
+    List<Uniform> getUniforms() {
+        return uniforms;
+    }
+
+    /**
+     * @return the number of slots, for seeing how sparse the table turned out
+     */
+    int getCapacity() {
+        return slots.length;
+    }
+}
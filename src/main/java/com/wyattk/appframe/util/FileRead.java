@@ -2,28 +2,36 @@ package com.wyattk.appframe.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Util class for reading data from a file
+ * Text is decoded as UTF-8 in one pass (a byte order mark is skipped), binary data is handed out as a direct
+ *   ByteBuffer, memory-mapped when the resource is a plain file rather than an entry in a jar
  */
 public class FileRead {
 
+    /**
+     * CACHE    the cache readCached goes through
+     */
+    private static final ResourceCache CACHE = new ResourceCache(4L * 1024 * 1024);
+
     /**
      * Reads data from a specified file path, starts looking in resources & packages
      * @param path is the path to the file
      * @return the contents of the file
-     * @throws IOException when something goes wrong reading the file
+     * @throws IOException when something goes wrong reading the file, including it not being valid UTF-8
      */
     public static String read(String path) throws IOException {
-        InputStream s = FileRead.class.getClassLoader().getResourceAsStream(path);
-        if(s == null)
-            throw new IllegalArgumentException("File not found: " + path);
-        byte[] bts = s.readAllBytes();
-        s.close();
-        StringBuilder sb = new StringBuilder("");
-        for(byte b: bts)
-            sb.append((char) b);
-        return sb.toString();
+        return decode(readBuffer(path));
     }
 
     /**
@@ -36,4 +44,72 @@ public class FileRead {
     public static String readResource(String path) throws IOException{
         return read(path);
     }
+
+    /**
+     * Same as read(), but through a cache so files read over & over (built-in shaders, includes) are only read once
+     * See getCache for its size & hit counts
+     * @param path is the path to the file
+     * @return the contents of the file
+     * @throws IOException when something goes wrong reading the file
+     */
+    public static String readCached(String path) throws IOException {
+        return CACHE.get(path);
+    }
+
+    /**
+     * Reads a file as binary data, starts looking in resources & packages
+     * Plain files are memory-mapped (nothing is copied until it's touched), files inside a jar are read into a
+     *   direct buffer. Either way the buffer is released by the garbage collector, don't free it
+     * @param path is the path to the file
+     * @return a read-only direct buffer of the file contents
+     * @throws IOException when something goes wrong reading the file
+     */
+    public static ByteBuffer readBuffer(String path) throws IOException {
+        URL url = FileRead.class.getClassLoader().getResource(path);
+        if(url == null)
+            throw new IllegalArgumentException("File not found: " + path);
+
+        if(url.getProtocol().equals("file")) {
+            Path file;
+            try {
+                file = Path.of(url.toURI());
+            } catch(URISyntaxException e) {
+                throw new IOException("Bad resource location " + url, e);
+            }
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        byte[] bytes;
+        try(InputStream s = url.openStream()) {
+            bytes = s.readAllBytes();
+        }
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Decodes UTF-8 text in one pass, skipping a byte order mark
+     * @param data is the encoded text, read from its position to its limit (which are left alone)
+     * @return the text
+     * @throws IOException if the data isn't valid UTF-8
+     */
+    public static String decode(ByteBuffer data) throws IOException {
+        ByteBuffer bytes = data.duplicate();
+        if(bytes.remaining() >= 3 && bytes.get(bytes.position()) == (byte) 0xEF
+                && bytes.get(bytes.position() + 1) == (byte) 0xBB && bytes.get(bytes.position() + 2) == (byte) 0xBF)
+            bytes.position(bytes.position() + 3);
+        CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(bytes);
+        return chars.toString();
+    }
+
+    /**
+     * @return the cache readCached goes through
+     */
+    public static ResourceCache getCache() {
+        return CACHE;
+    }
 }
@@ -0,0 +1,225 @@
+package com.wyattk.appframe.util;
+
+import com.wyattk.appframe.profiling.MemoryRegistry;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+/**
+ * Bump allocator for native memory that only has to last until the end of the frame, like staging buffers that are
+ *   handed to OpenGL & forgotten. Allocating is moving an offset forward in one big block, and everything is freed at
+ *   once by reset at the end of the frame, so there is no malloc/free per buffer
+ * When the block runs out, more blocks are chained on for the rest of the frame, and at the next reset the block is
+ *   grown to fit everything the frame used, so a steady workload settles into a single block
+ *
+ * Belongs to the thread that made it. The Appframe makes one for the render thread (see current), which the mesh
+ *   upload paths stage their data in
+ */
+public class FrameAllocator implements IUsesNativeMemory {
+
+    /**
+     * DEFAULT_ALIGNMENT    the alignment (in bytes) of buffers when none is given, enough for any vector load
+     * current              the allocator of the render thread, null if there is none
+     * owner                the thread the allocator belongs to
+     * block                the address of the main block
+     * capacity             the size of the main block
+     * chained              the extra blocks made this frame, after the main block ran out
+     * offset, end          the address the next allocation starts at (before alignment) & the end of the block
+     *                      being allocated from
+     * frameBytes           the number of bytes handed out this frame, including alignment padding
+     * highWater            the most bytes handed out in one frame
+     * grows                the number of times the main block was grown
+     * memory               the account the allocator reports its blocks to
+     */
+    public static final int DEFAULT_ALIGNMENT = 16;
+    private static volatile FrameAllocator current;
+    private final Thread owner;
+    private long block, capacity;
+    private final ArrayList<Long> chained = new ArrayList<>();
+    private long offset, end;
+    private long frameBytes = 0, highWater = 0, grows = 0;
+    private final MemoryRegistry.Account memory;
+
+    /**
+     * Creates an allocator belonging to the calling thread
+     * @param capacity is the initial size of the block (in bytes), it grows as needed
+     */
+    public FrameAllocator(long capacity) {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive, given: " + capacity);
+        this.owner = Thread.currentThread();
+        this.memory = MemoryRegistry.open("FrameAllocator", this);
+        allocateBlock(capacity);
+    }
+
+    /**
+     * Sets the allocator uploads are staged in
+     * @param allocator is the allocator of the render thread, null for none (uploads then malloc & free their own)
+     */
+    public static void setCurrent(FrameAllocator allocator) {
+        current = allocator;
+    }
+
+    /**
+     * @return the allocator uploads are staged in, null if there is none or it doesn't belong to the calling thread
+     */
+    public static FrameAllocator current() {
+        FrameAllocator allocator = current;
+        return allocator != null && allocator.owner == Thread.currentThread() ? allocator : null;
+    }
+
+    /**
+     * Allocates memory that lasts until the next reset
+     * @param bytes is the number of bytes to allocate
+     * @param alignment is the alignment of the address (in bytes), a power of two
+     * @return the address of the memory, never NULL
+     */
+    public long nalloc(long bytes, int alignment) {
+        if(Thread.currentThread() != owner)
+            throw new IllegalStateException("Frame allocator used from " + Thread.currentThread().getName() + ", it belongs to " + owner.getName());
+        if(alignment <= 0 || (alignment & (alignment - 1)) != 0)
+            throw new IllegalArgumentException("Alignment must be a power of two, given: " + alignment);
+
+        long address = (offset + alignment - 1) & -alignment;
+        if(address + bytes > end) {
+            // chain on a block for the rest of the frame, the main block is grown at reset
+            long size = Math.max(capacity, bytes + alignment);
+            long extra = MemoryUtil.nmemAllocChecked(size);
+            chained.add(extra);
+            memory.setNativeBytes(memory.getNativeBytes() + size);
+            offset = extra;
+            end = extra + size;
+            address = (offset + alignment - 1) & -alignment;
+        }
+        frameBytes += address + bytes - offset;
+        offset = address + bytes;
+        return address;
+    }
+
+    /**
+     * @param bytes is the number of bytes to allocate
+     * @param alignment is the alignment of the buffer (in bytes), a power of two
+     * @return a buffer of the bytes, valid until the next reset
+     */
+    public ByteBuffer alloc(int bytes, int alignment) {
+        return MemoryUtil.memByteBuffer(nalloc(bytes, alignment), bytes);
+    }
+
+    /**
+     * @param bytes is the number of bytes to allocate
+     * @return a buffer of the bytes aligned to DEFAULT_ALIGNMENT, valid until the next reset
+     */
+    public ByteBuffer alloc(int bytes) {
+        return alloc(bytes, DEFAULT_ALIGNMENT);
+    }
+
+    /**
+     * @param count is the number of floats to allocate
+     * @return a buffer of the floats aligned to DEFAULT_ALIGNMENT, valid until the next reset
+     */
+    public FloatBuffer allocFloat(int count) {
+        return MemoryUtil.memFloatBuffer(nalloc((long) Float.BYTES * count, DEFAULT_ALIGNMENT), count);
+    }
+
+    /**
+     * @param count is the number of ints to allocate
+     * @return a buffer of the ints aligned to DEFAULT_ALIGNMENT, valid until the next reset
+     */
+    public IntBuffer allocInt(int count) {
+        return MemoryUtil.memIntBuffer(nalloc((long) Integer.BYTES * count, DEFAULT_ALIGNMENT), count);
+    }
+
+    /**
+     * Frees everything allocated since the last reset, every buffer handed out becomes invalid
+     * If the frame needed chained blocks, the main block is replaced with one big enough for all of it
+     * Called by the Appframe at the end of every frame
+     */
+    public void reset() {
+        if(Thread.currentThread() != owner)
+            throw new IllegalStateException("Frame allocator reset from " + Thread.currentThread().getName() + ", it belongs to " + owner.getName());
+        highWater = Math.max(highWater, frameBytes);
+        if(!chained.isEmpty()) {
+            for(long extra: chained)
+                MemoryUtil.nmemFree(extra);
+            chained.clear();
+            MemoryUtil.nmemFree(block);
+            grows++;
+            Logger.verb("Growing {} to fit {} bytes", this, frameBytes);
+            allocateBlock(Math.max(capacity * 2, frameBytes + DEFAULT_ALIGNMENT));
+        }
+        offset = block;
+        end = block + capacity;
+        frameBytes = 0;
+    }
+
+    /**
+     * Makes the main block & starts allocating from it
+     * @param size is the size of the block
+     */
+    private void allocateBlock(long size) {
+        block = MemoryUtil.nmemAllocChecked(size);
+        capacity = size;
+        offset = block;
+        end = block + capacity;
+        memory.setNativeBytes(size);
+    }
+
+    /**
+     * @return the size of the main block (in bytes)
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of bytes handed out since the last reset, including alignment padding
+     */
+    public long getUsed() {
+        return frameBytes;
+    }
+
+    /**
+     * @return the most bytes handed out in one frame so far
+     */
+    public long getHighWaterMark() {
+        return Math.max(highWater, frameBytes);
+    }
+
+    /**
+     * @return the number of times the block had to be grown
+     */
+    public long getGrowCount() {
+        return grows;
+    }
+
+    @Override
+    public long getNativeBytes() {
+        return memory.getNativeBytes();
+    }
+
+    /**
+     * Frees the blocks, the allocator can't be used after
+     * Must be called on the thread the allocator belongs to
+     */
+    @Override
+    public void cleanup() {
+        Logger.verb("Cleaning {}...", this);
+        if(current == this)
+            current = null;
+        for(long extra: chained)
+            MemoryUtil.nmemFree(extra);
+        chained.clear();
+        if(block != MemoryUtil.NULL)
+            MemoryUtil.nmemFree(block);
+        block = end = offset = MemoryUtil.NULL;
+        memory.close();
+    }
+
+    public String toString() {
+        return getClass().getName() + " " + hashCode() + " (" + frameBytes + "/" + capacity + " bytes, "
+                + getHighWaterMark() + " high water, " + grows + " grows)";
+    }
+}
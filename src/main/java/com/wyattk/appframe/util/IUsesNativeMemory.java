@@ -2,6 +2,7 @@ package com.wyattk.appframe.util;
 
 /**
  * Interface indicating that this object uses non-garbage collected memory and has to be manually cleaned up
+ * Implementors report how much they hold (& get checked for leaks) through a MemoryRegistry.Account
  */
 public interface IUsesNativeMemory {
 
@@ -10,4 +11,18 @@ public interface IUsesNativeMemory {
      * Must be called at end of object lifetime
      */
     void cleanup();
+
+    /**
+     * @return the number of bytes of native (off-heap) memory the object holds right now
+     */
+    default long getNativeBytes() {
+        return 0;
+    }
+
+    /**
+     * @return the number of bytes of gpu memory the object holds right now, as far as it can tell
+     */
+    default long getGpuBytes() {
+        return 0;
+    }
 }
@@ -1,69 +1,414 @@
 package com.wyattk.appframe.util;
 
+import java.io.PrintStream;
 import java.time.Instant;
-import java.util.HashMap;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
+/**
+ * Logger that keeps formatting & writing off the calling thread
+ * Each call checks the level first, so a disabled call costs a branch. Messages can be given lazily, as a Supplier
+ *   (called on the calling thread) or as a pattern with {} placeholders & arguments (filled in on the writer
+ *   thread, so don't pass arguments that change after the call)
+ * Records go through a preallocated lock-free ring buffer to a background writer thread, which formats them
+ *   (reusing the timestamp within each second) & prints them. When the buffer is full calls either wait for room
+ *   or drop the record (see setOverflow), dropped records are counted & reported with the next one written
+ * Records still in the buffer are written when the application exits, or on flush
+ */
 public class Logger {
 
-    private static boolean enabled = false;
+    /**
+     * BLOCK    wait for the writer to make room, nothing is lost
+     * DROP     throw the record away & count it, the caller never waits
+     */
+    public enum Overflow {
+        BLOCK, DROP
+    }
+
+    /**
+     * enabled          tells if anything is logged
+     * enableColor      tells if levels are colored with ANSI escapes
+     * enableVerbose    tells if verbose messages are logged
+     * overflow         what to do when the buffer is full
+     * capacity         the number of records the buffer holds, a power of 2
+     * ring             the buffer, null until enabled
+     */
+    private static volatile boolean enabled = false;
     private static boolean enableColor = false;
-    private static boolean enableVerbose = false;
-    private static HashMap<String, String> colors;
+    private static volatile boolean enableVerbose = false;
+    private static volatile Overflow overflow = Overflow.BLOCK;
+    private static int capacity = 8192;
+    private static Ring ring;
 
+    /**
+     * LOG...           the levels, as printed
+     * COLORS           the ANSI color of each level
+     * RESET            the ANSI escape ending a color
+     * DATE_FORMAT      the format of the timestamp printed with each record
+     */
     private static final String LOG = " LOG", WARN = "WARN", ERROR = " ERR", VERBOSE = "VERB";
+    private static final String[] COLORS = {"", "\u001B[36m", "\u001B[33m", "\u001B[31m"};
+    private static final String RESET = "\u001B[0m";
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneOffset.UTC);
+    private static final int LEVEL_LOG = 0, LEVEL_VERBOSE = 1, LEVEL_WARN = 2, LEVEL_ERROR = 3;
+    private static final String[] LEVELS = {LOG, VERBOSE, WARN, ERROR};
 
-    public static void enable() {
+    public static synchronized void enable() {
+        if(ring == null)
+            ring = new Ring(capacity);
         enabled = true;
     }
 
     public static void withColor() {
         enableColor = true;
-        colors = new HashMap<>();
-        colors.put(LOG, "");
-        colors.put(VERBOSE, "\u001B[36m");
-        colors.put(WARN, "\u001B[33m");
-        colors.put(ERROR, "\u001B[31m");
     }
 
     public static void verbose() {
         enableVerbose = true;
     }
 
-    private static void log(String type, String message, boolean err) {
-        if(!enabled)
-            return;
+    /**
+     * @param overflow is what to do when the buffer is full, BLOCK (the default) or DROP
+     */
+    public static void setOverflow(Overflow overflow) {
+        Logger.overflow = overflow;
+    }
 
-        if(enableColor)
-            System.out.print(colors.get(type));
+    /**
+     * Sets the size of the buffer, must be called before enable
+     * @param capacity is the number of records the buffer holds, rounded up to a power of 2
+     */
+    public static synchronized void setCapacity(int capacity) {
+        if(ring != null)
+            throw new IllegalStateException("Logger buffer size must be set before the logger is enabled");
+        Logger.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    }
 
-        Instant now = Instant.now();
-        String dateString = now.toString().split("\\.")[0].replaceAll("[0-9]T[0-9]", " ");
+    /**
+     * @return true if messages are logged
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
 
-        if(!err)
-            System.out.print("(" + dateString + ")[" + type + "]: " + message);
-        else
-            System.err.print("(" + dateString + ")[" + type + "]: " + message);
+    /**
+     * @return true if verbose messages are logged
+     */
+    public static boolean isVerbose() {
+        return enabled && enableVerbose;
+    }
 
-        if(enableColor)
-            System.out.print("\u001B[0m");
+    /**
+     * @return the number of records dropped because the buffer was full
+     */
+    public static long getDropped() {
+        Ring r = ring;
+        return r != null ? r.dropped.get() : 0;
+    }
 
-        System.out.println();
+    /**
+     * Waits until every record logged so far has been written
+     */
+    public static void flush() {
+        Ring r = ring;
+        if(r != null)
+            r.flush();
     }
 
     public static void log(String message) {
-        log(LOG, message, false);
+        if(enabled)
+            ring.publish(LEVEL_LOG, message, 0, null, null, null);
+    }
+
+    public static void log(Supplier<String> message) {
+        if(enabled)
+            ring.publish(LEVEL_LOG, message.get(), 0, null, null, null);
+    }
+
+    public static void log(String pattern, Object arg) {
+        if(enabled)
+            ring.publish(LEVEL_LOG, pattern, 1, arg, null, null);
+    }
+
+    public static void log(String pattern, Object arg0, Object arg1) {
+        if(enabled)
+            ring.publish(LEVEL_LOG, pattern, 2, arg0, arg1, null);
+    }
+
+    public static void log(String pattern, Object... args) {
+        if(enabled)
+            ring.publish(LEVEL_LOG, pattern, -1, null, null, args);
     }
 
     public static void verb(String message) {
-        if(enableVerbose)
-            log(VERBOSE, message, false);
+        if(enabled && enableVerbose)
+            ring.publish(LEVEL_VERBOSE, message, 0, null, null, null);
+    }
+
+    public static void verb(Supplier<String> message) {
+        if(enabled && enableVerbose)
+            ring.publish(LEVEL_VERBOSE, message.get(), 0, null, null, null);
+    }
+
+    public static void verb(String pattern, Object arg) {
+        if(enabled && enableVerbose)
+            ring.publish(LEVEL_VERBOSE, pattern, 1, arg, null, null);
+    }
+
+    public static void verb(String pattern, Object arg0, Object arg1) {
+        if(enabled && enableVerbose)
+            ring.publish(LEVEL_VERBOSE, pattern, 2, arg0, arg1, null);
+    }
+
+    public static void verb(String pattern, Object... args) {
+        if(enabled && enableVerbose)
+            ring.publish(LEVEL_VERBOSE, pattern, -1, null, null, args);
     }
 
     public static void warn(String message) {
-        log(WARN, message, false);
+        if(enabled)
+            ring.publish(LEVEL_WARN, message, 0, null, null, null);
+    }
+
+    public static void warn(Supplier<String> message) {
+        if(enabled)
+            ring.publish(LEVEL_WARN, message.get(), 0, null, null, null);
+    }
+
+    public static void warn(String pattern, Object arg) {
+        if(enabled)
+            ring.publish(LEVEL_WARN, pattern, 1, arg, null, null);
+    }
+
+    public static void warn(String pattern, Object arg0, Object arg1) {
+        if(enabled)
+            ring.publish(LEVEL_WARN, pattern, 2, arg0, arg1, null);
+    }
+
+    public static void warn(String pattern, Object... args) {
+        if(enabled)
+            ring.publish(LEVEL_WARN, pattern, -1, null, null, args);
     }
 
     public static void err(String message) {
-        log(ERROR, message, true);
+        if(enabled)
+            ring.publish(LEVEL_ERROR, message, 0, null, null, null);
+    }
+
+    public static void err(Supplier<String> message) {
+        if(enabled)
+            ring.publish(LEVEL_ERROR, message.get(), 0, null, null, null);
+    }
+
+    public static void err(String pattern, Object arg) {
+        if(enabled)
+            ring.publish(LEVEL_ERROR, pattern, 1, arg, null, null);
+    }
+
+    public static void err(String pattern, Object arg0, Object arg1) {
+        if(enabled)
+            ring.publish(LEVEL_ERROR, pattern, 2, arg0, arg1, null);
+    }
+
+    public static void err(String pattern, Object... args) {
+        if(enabled)
+            ring.publish(LEVEL_ERROR, pattern, -1, null, null, args);
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer ring of records, with the writer thread consuming it
+     * Each slot has a sequence number telling whose turn it is: a producer may fill slot i when its sequence is
+     *   the producer's claimed position, the writer may read it once the sequence is one past that
+     */
+    private static class Ring {
+
+        /**
+         * IDLE_PARK        how long (in nanoseconds) the writer sleeps when there is nothing to write
+         * FULL_SPINS       how many times a producer spins on a full buffer before it starts parking
+         * FULL_PARK        how long (in nanoseconds) a producer parks at a time on a full buffer, after spinning
+         * mask             the capacity - 1
+         * sequences        the sequence number of each slot
+         * levels...        the fields of each slot's record
+         * tail             the next position to claim, shared by producers
+         * head             the next position to write, only touched by the writer
+         * written          the position up to which everything has been printed, for flush
+         * dropped          the number of records dropped so far
+         * reportedDrops    the number of dropped records already reported
+         * writer           the thread writing records
+         * line             the line being formatted, reused
+         * cachedSecond     the second the cached date belongs to
+         * cachedDate       the formatted date of cachedSecond
+         */
+        private static final long IDLE_PARK = 1_000_000;
+        private static final int FULL_SPINS = 100;
+        private static final long FULL_PARK = 50_000;
+        private final int mask;
+        private final AtomicLongArray sequences;
+        private final int[] levels;
+        private final long[] times;
+        private final String[] messages;
+        private final int[] argCounts;
+        private final Object[] args0, args1;
+        private final Object[][] argArrays;
+        private final AtomicLong tail = new AtomicLong();
+        private long head = 0;
+        private volatile long written = 0;
+        private final AtomicLong dropped = new AtomicLong();
+        private long reportedDrops = 0;
+        private final Thread writer;
+        private final StringBuilder line = new StringBuilder(256);
+        private long cachedSecond = Long.MIN_VALUE;
+        private String cachedDate;
+
+        private Ring(int capacity) {
+            mask = capacity - 1;
+            sequences = new AtomicLongArray(capacity);
+            for(int x = 0; x < capacity; x++)
+                sequences.set(x, x);
+            levels = new int[capacity];
+            times = new long[capacity];
+            messages = new String[capacity];
+            argCounts = new int[capacity];
+            args0 = new Object[capacity];
+            args1 = new Object[capacity];
+            argArrays = new Object[capacity][];
+
+            writer = new WorkerThreadFactory("logger").newThread(this::write);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "logger-flush"));
+        }
+
+        /**
+         * Puts a record in the buffer, waiting for room or dropping it when full (see Overflow)
+         */
+        private void publish(int level, String message, int argCount, Object arg0, Object arg1, Object[] args) {
+            long time = System.currentTimeMillis();
+            long position;
+            int waits = 0;
+            while(true) {
+                position = tail.get();
+                long available = sequences.get((int) position & mask) - position;
+                if(available == 0) {
+                    if(tail.compareAndSet(position, position + 1))
+                        break;
+                } else if(available < 0) {
+                    // full
+                    // nothing will ever make room once the writer is gone, so drop rather than hang
+                    if(overflow == Overflow.DROP || !writer.isAlive()) {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    LockSupport.unpark(writer);
+                    if(waits++ < FULL_SPINS)
+                        Thread.onSpinWait();
+                    else
+                        LockSupport.parkNanos(FULL_PARK);
+                }
+            }
+
+            int slot = (int) position & mask;
+            levels[slot] = level;
+            times[slot] = time;
+            messages[slot] = message;
+            argCounts[slot] = argCount;
+            args0[slot] = arg0;
+            args1[slot] = arg1;
+            argArrays[slot] = args;
+            sequences.lazySet(slot, position + 1);
+        }
+
+        /**
+         * Writes records as they come in, run on the writer thread
+         */
+        private void write() {
+            while(true) {
+                int slot = (int) head & mask;
+                if(sequences.get(slot) != head + 1) {
+                    written = head;
+                    LockSupport.parkNanos(IDLE_PARK);
+                    continue;
+                }
+
+                try {
+                    print(levels[slot], times[slot], messages[slot], argCounts[slot], args0[slot], args1[slot], argArrays[slot]);
+                } catch(Throwable t) {
+                    // a bad argument (or stream) must not kill the writer, or nothing is printed after it
+                    try {
+                        System.err.println("(could not print log message \"" + messages[slot] + "\": " + t + ")");
+                    } catch(Throwable ignored) {
+                    }
+                } finally {
+                    messages[slot] = null;
+                    args0[slot] = args1[slot] = null;
+                    argArrays[slot] = null;
+                    sequences.lazySet(slot, head + mask + 1);
+                    head++;
+                    written = head;
+                }
+            }
+        }
+
+        /**
+         * Formats & prints a record
+         */
+        private void print(int level, long time, String message, int argCount, Object arg0, Object arg1, Object[] args) {
+            line.setLength(0);
+            long drops = dropped.get();
+            if(drops != reportedDrops) {
+                line.append("(").append(drops - reportedDrops).append(" log messages dropped)").append(System.lineSeparator());
+                reportedDrops = drops;
+            }
+
+            if(enableColor)
+                line.append(COLORS[level]);
+            long second = Math.floorDiv(time, 1000);
+            if(second != cachedSecond) {
+                cachedSecond = second;
+                cachedDate = DATE_FORMAT.format(Instant.ofEpochSecond(second));
+            }
+            line.append('(').append(cachedDate).append(")[").append(LEVELS[level]).append("]: ");
+
+            if(argCount == 0)
+                line.append(message);
+            else
+                format(message, argCount, arg0, arg1, args);
+
+            if(enableColor)
+                line.append(RESET);
+
+            PrintStream stream = level == LEVEL_ERROR ? System.err : System.out;
+            stream.println(line);
+        }
+
+        /**
+         * Appends the pattern with its {} placeholders replaced by the arguments
+         * @param argCount is the number of arguments in arg0 & arg1, -1 if they're in args instead
+         */
+        private void format(String pattern, int argCount, Object arg0, Object arg1, Object[] args) {
+            int count = argCount == -1 ? args.length : argCount;
+            int argument = 0, start = 0, at;
+            while(argument < count && (at = pattern.indexOf("{}", start)) != -1) {
+                Object value = argCount == -1 ? args[argument] : argument == 0 ? arg0 : arg1;
+                line.append(pattern, start, at).append(value);
+                argument++;
+                start = at + 2;
+            }
+            line.append(pattern, start, pattern.length());
+        }
+
+        /**
+         * Waits until everything published so far is written
+         */
+        private void flush() {
+            long target = tail.get();
+            while(written < target && writer.isAlive()) {
+                LockSupport.unpark(writer);
+                Thread.onSpinWait();
+            }
+        }
     }
 }
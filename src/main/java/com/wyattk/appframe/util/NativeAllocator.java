@@ -0,0 +1,106 @@
+package com.wyattk.appframe.util;
+
+import org.lwjgl.system.Configuration;
+import org.lwjgl.system.MemoryUtil;
+
+import static org.lwjgl.system.rpmalloc.RPmalloc.*;
+
+/**
+ * Picks the allocator behind every MemoryUtil allocation (mesh data, upload buffers, frame allocator blocks, ...)
+ * LWJGL decides once, the first time anything allocates, so the backend has to be selected before that (Appframe
+ *   does it first thing when Properties.setNativeAllocator is used)
+ * jemalloc & rpmalloc both keep per-thread caches, so worker threads allocating at the same time don't fight over
+ *   the system allocator's locks. rpmalloc needs every thread that allocates to be attached to it first, which the
+ *   threads made by WorkerThreadFactory (and the Appframe's own threads) are; attach any other thread yourself
+ */
+public final class NativeAllocator {
+
+    /**
+     * SYSTEM       the C library's malloc
+     * JEMALLOC     jemalloc, with per-thread caches & arenas
+     * RPMALLOC     rpmalloc, with per-thread heaps, threads have to be attached (see attachThread)
+     */
+    public enum Backend {
+        SYSTEM("system", "Stdlib"),
+        JEMALLOC("jemalloc", "JEmalloc"),
+        RPMALLOC("rpmalloc", "RPmalloc");
+
+        /**
+         * config       the name LWJGL knows the allocator by
+         * classHint    part of the name of the class LWJGL implements the allocator with
+         */
+        private final String config, classHint;
+
+        Backend(String config, String classHint) {
+            this.config = config;
+            this.classHint = classHint;
+        }
+    }
+
+    /**
+     * backend      the backend selected, null if LWJGL was left to pick (jemalloc when it's on the classpath)
+     */
+    private static volatile Backend backend = null;
+
+    private NativeAllocator() {}
+
+    /**
+     * Selects the backend for all native allocations
+     * Only works before anything is allocated, if LWJGL already picked another one it's kept & a warning is logged
+     * @param selected is the backend to use
+     * @return true if the backend is in use, false if another one already was
+     */
+    public static synchronized boolean select(Backend selected) {
+        Configuration.MEMORY_ALLOCATOR.set(selected.config);
+        String inUse = MemoryUtil.getAllocator(false).getClass().getName();
+        if(!inUse.contains(selected.classHint)) {
+            Logger.warn("Could not switch native allocator to {}, {} was already in use", selected, inUse);
+            return false;
+        }
+        backend = selected;
+        Logger.verb("Native allocator: {}", inUse);
+        // LWJGL initializes rpmalloc on the thread that first allocates, which may not be this one
+        attachThread();
+        return true;
+    }
+
+    /**
+     * @return the backend selected, null if LWJGL was left to pick
+     */
+    public static Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Gets the calling thread ready to allocate, needed for rpmalloc & does nothing otherwise
+     * Safe to call more than once
+     */
+    public static void attachThread() {
+        if(backend == Backend.RPMALLOC && !rpmalloc_is_thread_initialized())
+            rpmalloc_thread_initialize();
+    }
+
+    /**
+     * Gives back the calling thread's caches, call when a thread that was attached is done allocating
+     * Everything it allocated stays valid & can still be freed from other threads
+     */
+    public static void detachThread() {
+        if(backend == Backend.RPMALLOC && rpmalloc_is_thread_initialized())
+            rpmalloc_thread_finalize();
+    }
+
+    /**
+     * @param task is the work a new thread will do
+     * @return the task, run with the thread attached (see attachThread) & detached when it's done
+     */
+    public static Runnable wrap(Runnable task) {
+        return () -> {
+            attachThread();
+            try {
+                task.run();
+            } finally {
+                detachThread();
+            }
+        };
+    }
+}
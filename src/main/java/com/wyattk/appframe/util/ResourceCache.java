@@ -0,0 +1,165 @@
+package com.wyattk.appframe.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.lwjgl.util.xxhash.XXHash.XXH64;
+
+/**
+ * Bounded cache of decoded text resources, so files read over & over are only read & decoded once
+ * Contents are keyed by a hash of their bytes, so files with identical contents share one string (and count
+ *   against the size once). Contents are compared before being shared, a file whose hash collides with different
+ *   contents is read but not cached
+ * When the cached text goes over the size, the least recently read files are forgotten
+ *
+ * Thread safe
+ */
+public class ResourceCache {
+
+    /**
+     * HASH_SEED        the seed used when hashing file contents
+     * maxBytes         the most bytes of (encoded) file contents to keep
+     * paths            the hash of each cached file's contents, least recently read first
+     * contents         the cached contents by hash
+     * bytes            the number of bytes of contents currently kept
+     * hits, misses     the number of reads answered from the cache, and that had to read the file
+     */
+    private static final long HASH_SEED = 0;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> paths = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<Long, Contents> contents = new HashMap<>();
+    private long bytes = 0;
+    private long hits = 0, misses = 0;
+
+    /**
+     * @param maxBytes is the most bytes of file contents to keep
+     */
+    public ResourceCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param path is the path to the file, looked for in the resources (see FileRead.readBuffer)
+     * @return the contents of the file as text
+     * @throws IOException when something goes wrong reading the file
+     */
+    public synchronized String get(String path) throws IOException {
+        Long hash = paths.get(path);
+        if(hash != null) {
+            hits++;
+            return contents.get(hash).text;
+        }
+        misses++;
+
+        ByteBuffer data = FileRead.readBuffer(path);
+        hash = XXH64(data, HASH_SEED);
+        Contents cached = contents.get(hash);
+        if(cached == null) {
+            cached = new Contents(FileRead.decode(data), data.remaining());
+            contents.put(hash, cached);
+            bytes += cached.size;
+        } else {
+            // only share contents that really are the same, a hash collision would hand out another file's text
+            String text = FileRead.decode(data);
+            if(cached.size != data.remaining() || !cached.text.equals(text)) {
+                Logger.verb("Not caching {}, its hash collides with other cached contents", path);
+                return text;
+            }
+        }
+        cached.users++;
+        paths.put(path, hash);
+        evict();
+        return cached.text;
+    }
+
+    /**
+     * @param path is the path to a file
+     * @return the hash of the file's contents if it's cached, 0 otherwise
+     */
+    public synchronized long getHash(String path) {
+        Long hash = paths.get(path);
+        return hash != null ? hash : 0;
+    }
+
+    /**
+     * Forgets the least recently read files until the cached contents fit in the size
+     * The file just read is always kept, even if it alone is bigger
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = paths.entrySet().iterator();
+        while(bytes > maxBytes && paths.size() > 1) {
+            Map.Entry<String, Long> oldest = it.next();
+            it.remove();
+            release(oldest.getValue());
+        }
+    }
+
+    /**
+     * @param hash is the hash of contents a path stopped using
+     */
+    private void release(long hash) {
+        Contents cached = contents.get(hash);
+        if(--cached.users == 0) {
+            contents.remove(hash);
+            bytes -= cached.size;
+        }
+    }
+
+    /**
+     * Forgets a file, so it's read again next time (after it changed on disk, for example)
+     * @param path is the path to the file
+     */
+    public synchronized void invalidate(String path) {
+        Long hash = paths.remove(path);
+        if(hash != null)
+            release(hash);
+    }
+
+    /**
+     * Forgets every file
+     */
+    public synchronized void clear() {
+        paths.clear();
+        contents.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return the number of bytes of file contents kept
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized String toString() {
+        return getClass().getName() + " " + hashCode() + " (" + paths.size() + " files, " + bytes + "/" + maxBytes + " bytes, "
+                + hits + " hits, " + misses + " misses)";
+    }
+
+    /**
+     * Decoded contents shared by every path with the same bytes
+     * users    the number of cached paths with these contents
+     */
+    private static class Contents {
+        private final String text;
+        private final long size;
+        private int users = 0;
+
+        private Contents(String text, long size) {
+            this.text = text;
+            this.size = size;
+        }
+    }
+}
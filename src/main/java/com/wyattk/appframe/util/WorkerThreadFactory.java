@@ -0,0 +1,36 @@
+package com.wyattk.appframe.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory for the background worker pools (asset loading, mesh preparation, etc.)
+ * Threads are daemons so a forgotten pool never keeps the application alive
+ * Threads are attached to the native allocator (see NativeAllocator.attachThread) for as long as they run
+ */
+public class WorkerThreadFactory implements ThreadFactory {
+
+    /**
+     * POOL_COUNT   the number of worker pools made so far, used for naming
+     * namePrefix   the prefix of every thread name made by this factory
+     * threadCount  the number of threads made by this factory so far, used for naming
+     */
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+    private final String namePrefix;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Creates a factory naming its threads "name-pool#-thread#"
+     * @param name is the name of the pool the threads belong to
+     */
+    public WorkerThreadFactory(String name) {
+        namePrefix = name + "-" + POOL_COUNT.incrementAndGet() + "-";
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(NativeAllocator.wrap(runnable), namePrefix + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -3,9 +3,11 @@
 layout (location = 0) in vec3 position;
 layout (location = 1) in vec4 inColor;
 
+uniform mat4 transformationMatrix;
+
 out vec4 exColor;
 
 void main() {
-    gl_Position = vec4(position, 1.0);
+    gl_Position = transformationMatrix * vec4(position, 1.0);
     exColor = inColor;
 }
\ No newline at end of file
@@ -67,12 +67,7 @@ public class Game {
         triangle = new MeshBuilder()
                 .setPositions(triPosA)
                 .setIndices(triIdx)
-                .setColors(new Color[]{
-                        triColorA,
-                        triColorA,
-                        triColorB
-                })
-                .dynamicColors()
+                .setUniformColor(triColorA)
                 .dynamicPositions()
                 .useShader(normalShader)
                 .build();
@@ -103,11 +98,11 @@ public class Game {
             if(!prevNState) {
                 if (!color) {
                     triangle.changePositionData(triPosA, MeshTools.calculateNormals(triPosA, triIdx));
-                    triangle.changeColorData(MeshTools.getMeshColorArray(triangle.getVertexCount(), triColorB));
+                    triangle.setUniformColor(triColorB);
                 }
                 else {
                     triangle.changePositionData(triPosB, MeshTools.calculateNormals(triPosB, triIdx));
-                    triangle.changeColorData(MeshTools.getMeshColorArray(triangle.getVertexCount(), triColorA));
+                    triangle.setUniformColor(triColorA);
                 }
                 color = !color;
                 prevNState = !prevNState;
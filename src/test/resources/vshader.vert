@@ -4,11 +4,13 @@ layout (location = 0) in vec3 position;
 layout (location = 1) in vec4 inColor;
 layout (location = 2) in vec3 normal;
 
+uniform mat4 transformationMatrix;
+
 out vec4 exColor;
 out vec3 exNormal;
 
 void main() {
-    gl_Position = vec4(position, 1.0);
+    gl_Position = transformationMatrix * vec4(position, 1.0);
     exColor = inColor;
     exNormal = normal;
 }
\ No newline at end of file